@@ -0,0 +1,68 @@
+package net.dollmar.tools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.Security;
+import java.util.Random;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * Input data shared by the benchmarks. All data is generated from a fixed
+ * seed so that runs are comparable.
+ */
+final class BenchmarkData {
+
+	private static final long SEED = 0x48617368L;
+
+	private BenchmarkData() {}
+
+
+	static void registerProviders() {
+		if (Security.getProvider(HashCalculator.SEC_PROVIDER) == null) {
+			Security.addProvider(new BouncyCastleProvider());
+		}
+		if (Security.getProvider(FastHashProvider.NAME) == null) {
+			Security.addProvider(new FastHashProvider());
+		}
+	}
+
+
+	static byte[] bytes(int size) {
+		byte[] data = new byte[size];
+		new Random(SEED).nextBytes(data);
+		return data;
+	}
+
+
+	/*
+	 * Printable ASCII, so that the text encoding is one byte per character.
+	 */
+	static String text(int size) {
+		Random random = new Random(SEED);
+		char[] chars = new char[size];
+		for (int i = 0; i < size; i++) {
+			chars[i] = (char) (' ' + random.nextInt(95));
+		}
+		return new String(chars);
+	}
+
+
+	/*
+	 * Creates a temporary file of the given size; sizes of several GB are
+	 * written in 1 MiB blocks.
+	 */
+	static Path file(long size) throws IOException {
+		Path file = Files.createTempFile("hasher-bench", ".bin");
+		file.toFile().deleteOnExit();
+		byte[] block = bytes(1024 * 1024);
+		try (OutputStream os = Files.newOutputStream(file)) {
+			for (long left = size; left > 0; left -= block.length) {
+				os.write(block, 0, (int) Math.min(block.length, left));
+			}
+		}
+		return file;
+	}
+}
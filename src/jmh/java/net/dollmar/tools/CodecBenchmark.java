@@ -0,0 +1,78 @@
+package net.dollmar.tools;
+
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Input decoding and result encoding on their own. The small sizes are
+ * the digest lengths of the supported algorithms.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+	@Param({"16", "20", "32", "64", "1024", "65536"})
+	public int size;
+
+	private byte[] bytes;
+	private String text;
+	private String hex;
+	private String base64;
+
+	@Setup
+	public void setup() {
+		bytes = BenchmarkData.bytes(size);
+		text = BenchmarkData.text(size);
+		hex = Hex.encodeHexString(bytes);
+		base64 = Base64.getEncoder().encodeToString(bytes);
+	}
+
+
+	@Benchmark
+	public byte[] dataToBytesText() throws DecoderException {
+		return HashCalculator.dataToBytes(text, DataLabel.TEXT);
+	}
+
+	@Benchmark
+	public byte[] dataToBytesHex() throws DecoderException {
+		return HashCalculator.dataToBytes(hex, DataLabel.HEX);
+	}
+
+	@Benchmark
+	public byte[] dataToBytesBase64() throws DecoderException {
+		return HashCalculator.dataToBytes(base64, DataLabel.BASE64);
+	}
+
+	@Benchmark
+	public String bytesToStringHex() {
+		return HashCalculator.bytesToString(bytes, true, false);
+	}
+
+	@Benchmark
+	public String bytesToStringHexUpper() {
+		return HashCalculator.bytesToString(bytes, true, true);
+	}
+
+	@Benchmark
+	public String bytesToStringBase64() {
+		return HashCalculator.bytesToString(bytes, false, false);
+	}
+}
@@ -0,0 +1,81 @@
+package net.dollmar.tools;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * File hashes and HMACs for every algorithm and read mode. The default
+ * sizes keep a full run manageable; multi-GB files are measured with e.g.
+ * -p fileSize=4294967296. Note that after the first iteration the file is
+ * normally served from the page cache, so these figures show the CPU side
+ * of the read path rather than the disk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileHashBenchmark {
+
+	@State(Scope.Benchmark)
+	public abstract static class DataFile {
+		@Param({"16", "65536", "16777216"})
+		public long fileSize;
+
+		@Param({"STREAM", "CHANNEL", "MAPPED", "READ_AHEAD"})
+		public ReadMode mode;
+
+		public String fileName;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+			BenchmarkData.registerProviders();
+			fileName = BenchmarkData.file(fileSize).toString();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			Files.deleteIfExists(Paths.get(fileName));
+		}
+	}
+
+	public static class HashFile extends DataFile {
+		// keep in step with Algorithms.ALGOS
+		@Param({"BLAKE3", "CRC32C", "MD5", "RIPEMD128", "RIPEMD160", "RIPEMD256", "SHA1", "SHA256", "SHA384", "SHA512", "Tiger", "Whirlpool", "XXH3", "XXH64"})
+		public String algorithm;
+	}
+
+	public static class HmacFile extends DataFile {
+		// the HMAC capable entries of Algorithms.ALGOS
+		@Param({"HmacMD5", "HmacRIPEMD128", "HmacRIPEMD160", "HmacSHA1", "HmacSHA256", "HmacSHA384", "HmacSHA512"})
+		public String algorithm;
+	}
+
+
+	@Benchmark
+	public String calculateFileHash(HashFile f) {
+		return HashCalculator.calculateFileHash(f.algorithm, f.fileName, f.mode, true, false);
+	}
+
+
+	@Benchmark
+	public String calculateFileHmac(HmacFile f) {
+		return HmacCalculator.calculateFileHmac(f.algorithm, f.fileName, f.mode, "benchmark-key", DataLabel.TEXT, true, false);
+	}
+}
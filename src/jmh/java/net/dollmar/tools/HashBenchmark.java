@@ -0,0 +1,113 @@
+package net.dollmar.tools;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hashes and HMACs of in-memory text through the public calculator API,
+ * so the figures include input decoding and output encoding.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+
+	@State(Scope.Thread)
+	public static class Text {
+		// keep in step with Algorithms.ALGOS
+		@Param({"BLAKE3", "CRC32C", "MD5", "RIPEMD128", "RIPEMD160", "RIPEMD256", "SHA1", "SHA256", "SHA384", "SHA512", "Tiger", "Whirlpool", "XXH3", "XXH64"})
+		public String algorithm;
+
+		@Param({"16", "1024", "65536", "1048576"})
+		public int size;
+
+		public String data;
+
+		@Setup
+		public void setup() {
+			BenchmarkData.registerProviders();
+			data = BenchmarkData.text(size);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class HmacText {
+		// the HMAC capable entries of Algorithms.ALGOS
+		@Param({"HmacMD5", "HmacRIPEMD128", "HmacRIPEMD160", "HmacSHA1", "HmacSHA256", "HmacSHA384", "HmacSHA512"})
+		public String algorithm;
+
+		@Param({"16", "1024", "65536", "1048576"})
+		public int size;
+
+		public String data;
+
+		@Setup
+		public void setup() {
+			BenchmarkData.registerProviders();
+			data = BenchmarkData.text(size);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class HmacBatch {
+		@Param({"HmacSHA1", "HmacSHA256", "HmacSHA512"})
+		public String algorithm;
+
+		@Param({"16", "256"})
+		public int size;
+
+		public static final int MESSAGES = 1000;
+
+		public List<byte[]> messages = new ArrayList<>();
+		public HmacSigner signer;
+		public byte[] out;
+
+		@Setup
+		public void setup() throws GeneralSecurityException {
+			BenchmarkData.registerProviders();
+			for (int i = 0; i < MESSAGES; i++) {
+				messages.add(BenchmarkData.text(size).getBytes(StandardCharsets.UTF_8));
+			}
+			signer = new HmacSigner(algorithm, "benchmark-key".getBytes(StandardCharsets.UTF_8));
+			out = new byte[MESSAGES * signer.getMacLength()];
+		}
+	}
+
+
+	@Benchmark
+	public String calculateHash(Text t) {
+		return HashCalculator.calculateHash(t.algorithm, t.data, DataLabel.TEXT, true, false);
+	}
+
+
+	@Benchmark
+	public String calculateHmac(HmacText t) {
+		return HmacCalculator.calculateHmac(t.algorithm, t.data, DataLabel.TEXT, "benchmark-key", DataLabel.TEXT, true, false);
+	}
+
+
+	@Benchmark
+	@OperationsPerInvocation(HmacBatch.MESSAGES)
+	public byte[] signBatch(HmacBatch b) {
+		b.signer.signAll(b.messages, b.out, 0);
+		return b.out;
+	}
+}
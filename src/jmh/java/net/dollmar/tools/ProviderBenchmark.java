@@ -0,0 +1,70 @@
+package net.dollmar.tools;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The raw engines of the BouncyCastle provider against the JDK's built-in
+ * ones (SUN for digests, SunJCE for HMACs), for the algorithms both offer.
+ * No calculator code is involved.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProviderBenchmark {
+
+	@Param({"MD5", "SHA-1", "SHA-256", "SHA-384", "SHA-512"})
+	public String algorithm;
+
+	@Param({"BC", "JDK"})
+	public String provider;
+
+	@Param({"16", "1024", "65536", "1048576"})
+	public int size;
+
+	private byte[] data;
+	private MessageDigest md;
+	private Mac mac;
+
+	@Setup
+	public void setup() throws GeneralSecurityException {
+		BenchmarkData.registerProviders();
+		data = BenchmarkData.bytes(size);
+		boolean bc = "BC".equals(provider);
+		md = bc ? MessageDigest.getInstance(algorithm, "BC") : MessageDigest.getInstance(algorithm, "SUN");
+		String hmac = "Hmac" + algorithm.replace("-", "");
+		mac = bc ? Mac.getInstance(hmac, "BC") : Mac.getInstance(hmac, "SunJCE");
+		mac.init(new SecretKeySpec(BenchmarkData.bytes(32), hmac));
+	}
+
+
+	@Benchmark
+	public byte[] digest() {
+		return md.digest(data);
+	}
+
+
+	@Benchmark
+	public byte[] hmac() {
+		return mac.doFinal(data);
+	}
+}
@@ -0,0 +1,46 @@
+package net.dollmar.tools;
+
+import net.dollmar.tools.Hasher.DigestAlgorithm;
+
+/**
+ * The table of supported digest algorithms, shared by the GUI and the
+ * command line. Kept apart from {@link Hasher} so that looking up an
+ * algorithm does not drag in Swing.
+ */
+public final class Algorithms {
+
+	public static final DigestAlgorithm[] ALGOS = 
+		{
+				new DigestAlgorithm("BLAKE3", null),
+				new DigestAlgorithm("CRC32C", null),
+				new DigestAlgorithm("MD5", "HmacMD5"),
+				new DigestAlgorithm("RIPEMD128", "HmacRIPEMD128"),
+				new DigestAlgorithm("RIPEMD160", "HmacRIPEMD160"),
+				new DigestAlgorithm("RIPEMD256", null),
+				new DigestAlgorithm("SHA1", "HmacSHA1"),
+				new DigestAlgorithm("SHA256", "HmacSHA256"),
+				new DigestAlgorithm("SHA384", "HmacSHA384"),
+				new DigestAlgorithm("SHA512", "HmacSHA512"),
+				new DigestAlgorithm("Tiger", null),
+				new DigestAlgorithm("Whirlpool", null),
+				new DigestAlgorithm("XXH3", null),
+				new DigestAlgorithm("XXH64", null)
+		};
+
+	private Algorithms() {}
+
+
+	/*
+	 * Looks up an algorithm by name, ignoring case and dashes so that
+	 * "sha-256" finds SHA256. Returns null if there is no such algorithm.
+	 */
+	public static DigestAlgorithm forName(String name) {
+		String n = name.replace("-", "");
+		for (DigestAlgorithm da : ALGOS) {
+			if (da.getAlgName().equalsIgnoreCase(n)) {
+				return da;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,698 @@
+package net.dollmar.tools;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Hashes the members of ZIP (and so JAR) and TAR archives, plain or
+ * gzipped, without extracting them: each member is streamed straight into
+ * the hash function, and results are reported as ARCHIVE{@link #SEPARATOR}MEMBER.
+ * Directories, links and other entries without contents are skipped.
+ *
+ * A ZIP archive is read through its central directory. The members are
+ * hashed in parallel, each reading its own part of the file with positional
+ * reads on one shared channel, and the CRC-32 and size of every member are
+ * checked against the directory; a member that inflates to more than its
+ * recorded size is cut off there and reported as an error. ZIP64 archives
+ * are supported; encrypted members and compression methods other than
+ * stored and deflated are reported as errors.
+ *
+ * A TAR archive can only be read front to back, so its members are hashed
+ * one after the other, which also allows reading it from a stream. The
+ * ustar, GNU (long names, base-256 sizes) and pax (path and size) header
+ * forms are understood.
+ *
+ * Results go to the {@link TreeHasher.Sink} in archive order, on the thread
+ * that called hash.
+ */
+public class ArchiveHasher {
+
+	public static final String SEPARATOR = "!/";
+
+	/**
+	 * Hashes everything that can be read from the stream, returning one
+	 * result (or "Error: " message) per algorithm. The stream must not be
+	 * closed.
+	 */
+	@FunctionalInterface
+	public interface StreamHashFunction {
+		String[] hash(InputStream is);
+	}
+
+	private static final int BLOCK = 512;
+	private static final int WINDOW_SIZE = 1024;
+
+	private static final int LOC_SIG = 0x04034b50;
+	private static final int CEN_SIG = 0x02014b50;
+	private static final int END_SIG = 0x06054b50;
+	private static final int ZIP64_END_SIG = 0x06064b50;
+	private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+
+	private final StreamHashFunction function;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+
+	/**
+	 * A file member of a ZIP archive, as described by its central directory
+	 * entry.
+	 */
+	private static final class ZipMember {
+		final String name;
+		final int flags;
+		final int method;
+		final long crc;
+		final long compressedSize;
+		final long uncompressedSize;
+		final long localHeader;
+
+		ZipMember(String name, int flags, int method, long crc, long compressedSize, long uncompressedSize, long localHeader) {
+			this.name = name;
+			this.flags = flags;
+			this.method = method;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.uncompressedSize = uncompressedSize;
+			this.localHeader = localHeader;
+		}
+	}
+
+
+	private static final class Pending {
+		final String name;
+		final Future<String[]> result;
+
+		Pending(String name, Future<String[]> result) {
+			this.name = name;
+			this.result = result;
+		}
+	}
+
+
+	public ArchiveHasher(StreamHashFunction function) {
+		this.function = function;
+	}
+
+	/*
+	 * The number of ZIP members hashed at the same time.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+
+	/*
+	 * Hashes the members of the archive file, whose kind is told from its
+	 * first bytes. Problems with single members go to the sink; an
+	 * IOException means the archive as a whole could not be read.
+	 */
+	public void hash(String archive, TreeHasher.Sink sink) throws IOException {
+		byte[] magic = new byte[4];
+		int n;
+		try (InputStream is = new FileInputStream(archive)) {
+			n = is.readNBytes(magic, 0, magic.length);
+		}
+		if (n == 4 && magic[0] == 'P' && magic[1] == 'K'
+				&& ((magic[2] == 3 && magic[3] == 4) || (magic[2] == 5 && magic[3] == 6))) {
+			hashZip(archive, sink);
+			return;
+		}
+		try (InputStream is = new FileInputStream(archive)) {
+			hashTar(archive, is, sink);
+		}
+	}
+
+
+	/*
+	 * Hashes the members of a TAR archive, gzipped or not, read from the
+	 * stream, which is not closed. ZIP archives need a file.
+	 */
+	public void hash(String archive, InputStream is, TreeHasher.Sink sink) throws IOException {
+		hashTar(archive, is, sink);
+	}
+
+
+	private void hashZip(String archive, TreeHasher.Sink sink) throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+			Thread t = new Thread(r, "hasher-archive");
+			t.setDaemon(true);
+			return t;
+		});
+		try (FileChannel fc = FileChannel.open(Paths.get(archive), StandardOpenOption.READ)) {
+			Deque<Pending> window = new ArrayDeque<>();
+			for (ZipMember member : readCentralDirectory(fc)) {
+				if (window.size() >= WINDOW_SIZE) {
+					emit(archive, window.removeFirst(), sink);
+				}
+				window.addLast(new Pending(member.name, executor.submit(() -> hashZipMember(fc, member))));
+			}
+			while (!window.isEmpty()) {
+				emit(archive, window.removeFirst(), sink);
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+
+	private static void emit(String archive, Pending pending, TreeHasher.Sink sink) throws InterruptedIOException {
+		String name = archive + SEPARATOR + pending.name;
+		try {
+			sink.result(name, pending.result.get());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Hashing interrupted");
+		}
+		catch (ExecutionException e) {
+			sink.error(name, TreeHasher.describe(e.getCause()));
+		}
+	}
+
+
+	/*
+	 * Finds the end of central directory record, following it to the ZIP64
+	 * one where needed, and returns the file members in directory order.
+	 */
+	private static List<ZipMember> readCentralDirectory(FileChannel fc) throws IOException {
+		long size = fc.size();
+		int tail = (int) Math.min(size, 22 + 0xFFFF);
+		ByteBuffer buf = read(fc, size - tail, tail);
+		int end = -1;
+		for (int i = tail - 22; i >= 0; i--) {
+			if (buf.getInt(i) == END_SIG) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0) {
+			throw new IOException("Not a ZIP archive, or truncated: no end of central directory");
+		}
+		long count = buf.getShort(end + 10) & 0xFFFF;
+		long cenSize = buf.getInt(end + 12) & 0xFFFFFFFFL;
+		long cenOffset = buf.getInt(end + 16) & 0xFFFFFFFFL;
+		if ((count == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL)
+				&& end >= 20 && buf.getInt(end - 20) == ZIP64_LOCATOR_SIG) {
+			ByteBuffer zip64 = read(fc, buf.getLong(end - 20 + 8), 56);
+			if (zip64.getInt(0) != ZIP64_END_SIG) {
+				throw new IOException("Corrupt ZIP64 end of central directory");
+			}
+			count = zip64.getLong(32);
+			cenSize = zip64.getLong(40);
+			cenOffset = zip64.getLong(48);
+		}
+		if (cenSize > Integer.MAX_VALUE || cenOffset + cenSize > size) {
+			throw new IOException("Corrupt central directory");
+		}
+
+		ByteBuffer cen = read(fc, cenOffset, (int) cenSize);
+		List<ZipMember> members = new ArrayList<>();
+		int pos = 0;
+		for (long i = 0; i < count; i++) {
+			if (pos + 46 > cen.limit() || cen.getInt(pos) != CEN_SIG) {
+				throw new IOException("Corrupt central directory");
+			}
+			int flags = cen.getShort(pos + 8) & 0xFFFF;
+			int method = cen.getShort(pos + 10) & 0xFFFF;
+			long crc = cen.getInt(pos + 16) & 0xFFFFFFFFL;
+			long compressedSize = cen.getInt(pos + 20) & 0xFFFFFFFFL;
+			long uncompressedSize = cen.getInt(pos + 24) & 0xFFFFFFFFL;
+			int nameLength = cen.getShort(pos + 28) & 0xFFFF;
+			int extraLength = cen.getShort(pos + 30) & 0xFFFF;
+			int commentLength = cen.getShort(pos + 32) & 0xFFFF;
+			long localHeader = cen.getInt(pos + 42) & 0xFFFFFFFFL;
+			if (pos + 46 + nameLength + extraLength > cen.limit()) {
+				throw new IOException("Corrupt central directory");
+			}
+			byte[] name = new byte[nameLength];
+			cen.position(pos + 46);
+			cen.get(name);
+
+			// the ZIP64 extra field has the 64 bit values of those that overflowed, in this order
+			for (int x = pos + 46 + nameLength, xend = x + extraLength; x + 4 <= xend; ) {
+				int id = cen.getShort(x) & 0xFFFF;
+				int len = cen.getShort(x + 2) & 0xFFFF;
+				if (id == 0x0001) {
+					int f = x + 4;
+					if (uncompressedSize == 0xFFFFFFFFL && f + 8 <= x + 4 + len) {
+						uncompressedSize = cen.getLong(f);
+						f += 8;
+					}
+					if (compressedSize == 0xFFFFFFFFL && f + 8 <= x + 4 + len) {
+						compressedSize = cen.getLong(f);
+						f += 8;
+					}
+					if (localHeader == 0xFFFFFFFFL && f + 8 <= x + 4 + len) {
+						localHeader = cen.getLong(f);
+					}
+				}
+				x += 4 + len;
+			}
+			pos += 46 + nameLength + extraLength + commentLength;
+
+			// the UTF-8 flag aside, names are taken as UTF-8 as well, as java.util.zip does
+			String memberName = new String(name, StandardCharsets.UTF_8);
+			if (!memberName.endsWith("/")) {
+				members.add(new ZipMember(memberName, flags, method, crc, compressedSize, uncompressedSize, localHeader));
+			}
+		}
+		return members;
+	}
+
+
+	/*
+	 * Streams one member from its own region of the archive, inflating it if
+	 * need be, and checks its CRC-32 once the hash function has read it all.
+	 * No more than the recorded uncompressed size is ever inflated.
+	 */
+	private String[] hashZipMember(FileChannel fc, ZipMember member) throws IOException {
+		if ((member.flags & 1) != 0) {
+			throw new IOException("Encrypted member");
+		}
+		if (member.method != 0 && member.method != 8) {
+			throw new IOException("Unsupported compression method " + member.method);
+		}
+		ByteBuffer local = read(fc, member.localHeader, 30);
+		if (local.getInt(0) != LOC_SIG) {
+			throw new IOException("Corrupt local header");
+		}
+		long data = member.localHeader + 30 + (local.getShort(26) & 0xFFFF) + (local.getShort(28) & 0xFFFF);
+
+		InputStream raw = new RegionInputStream(fc, data, member.compressedSize);
+		Inflater inflater = (member.method == 8) ? new Inflater(true) : null;
+		try {
+			CheckedInputStream in = new CheckedInputStream(new ExactInputStream(
+					(inflater != null) ? new InflaterInputStream(raw, inflater, MultiDigest.getBufferSize()) : raw,
+					member.uncompressedSize), new CRC32());
+			String[] results = function.hash(in);
+			for (String result : results) {
+				if (result != null && result.startsWith("Error: ")) {
+					return results;
+				}
+			}
+			if (in.getChecksum().getValue() != member.crc) {
+				throw new IOException("CRC mismatch, the archive is corrupt");
+			}
+			return results;
+		}
+		finally {
+			if (inflater != null) {
+				inflater.end();
+			}
+		}
+	}
+
+
+	private static ByteBuffer read(FileChannel fc, long position, int len) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+		while (buf.hasRemaining()) {
+			long start = Metrics.start();
+			int n = fc.read(buf, position + buf.position());
+			Metrics.read(start, n);
+			if (n == -1) {
+				throw new EOFException("Unexpected end of archive");
+			}
+		}
+		buf.flip();
+		return buf;
+	}
+
+
+	/**
+	 * A part of the channel read with positional reads, so that any number
+	 * of these can be read at the same time.
+	 */
+	private static final class RegionInputStream extends InputStream {
+		private final FileChannel fc;
+		private long position;
+		private long remaining;
+
+		RegionInputStream(FileChannel fc, long position, long length) {
+			this.fc = fc;
+			this.position = position;
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xFF);
+		}
+
+		@Override
+		public int available() {
+			return (int) Math.min(remaining, Integer.MAX_VALUE);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			// counted in the Metrics by whoever reads this stream
+			int n = fc.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+			if (n == -1) {
+				throw new EOFException("Unexpected end of archive");
+			}
+			position += n;
+			remaining -= n;
+			return n;
+		}
+	}
+
+
+	/*
+	 * Reads the TAR headers one after the other, hashing each regular member
+	 * as it goes by.
+	 */
+	private void hashTar(String archive, InputStream stream, TreeHasher.Sink sink) throws IOException {
+		BufferedInputStream buffered = new BufferedInputStream(stream, MultiDigest.getBufferSize());
+		buffered.mark(4);
+		byte[] magic = buffered.readNBytes(4);
+		buffered.reset();
+		InputStream in = buffered;
+		if (magic.length >= 2 && (magic[0] & 0xFF) == 0x1f && (magic[1] & 0xFF) == 0x8b) {
+			in = new BufferedInputStream(new GZIPInputStream(buffered, MultiDigest.getBufferSize()), MultiDigest.getBufferSize());
+		}
+		else if (magic.length == 4 && magic[0] == 'P' && magic[1] == 'K') {
+			throw new IOException("A ZIP archive cannot be read from a stream");
+		}
+
+		byte[] header = new byte[BLOCK];
+		String longName = null;
+		long paxSize = -1;
+		boolean first = true;
+		while (true) {
+			if (in.readNBytes(header, 0, BLOCK) < BLOCK) {
+				if (first) {
+					throw new IOException("Not a ZIP or TAR archive");
+				}
+				// no end of archive blocks; tolerated like GNU tar does
+				return;
+			}
+			if (isZero(header)) {
+				return;
+			}
+			if (!checksumMatches(header)) {
+				throw new IOException(first ? "Not a ZIP or TAR archive" : "Corrupt TAR header");
+			}
+			first = false;
+
+			String name = string(header, 0, 100);
+			if ("ustar".equals(string(header, 257, 5))) {
+				String prefix = string(header, 345, 155);
+				if (!prefix.isEmpty()) {
+					name = prefix + "/" + name;
+				}
+			}
+			long size = number(header, 124, 12);
+			byte type = header[156];
+
+			switch (type) {
+			case 'L': // GNU long name of the next entry
+				longName = trimNul(new String(readData(in, size), StandardCharsets.UTF_8));
+				continue;
+			case 'x': { // pax extended header of the next entry
+				String[] pax = parsePax(readData(in, size));
+				if (pax[0] != null) {
+					longName = pax[0];
+				}
+				if (pax[1] != null) {
+					paxSize = Long.parseLong(pax[1]);
+				}
+				continue;
+			}
+			default:
+				break;
+			}
+
+			if (longName != null) {
+				name = longName;
+			}
+			if (paxSize >= 0) {
+				size = paxSize;
+			}
+			longName = null;
+			paxSize = -1;
+
+			if (type == '0' || type == 0 || type == '7') {
+				String memberName = archive + SEPARATOR + name;
+				BoundedInputStream member = new BoundedInputStream(in, size);
+				String[] results = function.hash(member);
+				if (member.remaining > 0) {
+					// the hash failed part way through; the next header is still needed
+					skip(in, member.remaining);
+				}
+				sink.result(memberName, results);
+			}
+			else if (type == 'S') {
+				sink.error(archive + SEPARATOR + name, "Sparse members are not supported");
+				skip(in, size);
+			}
+			else {
+				// directories, links, devices, global pax headers and the like
+				skip(in, size);
+			}
+			skip(in, (BLOCK - size % BLOCK) % BLOCK);
+		}
+	}
+
+
+	private static byte[] readData(InputStream in, long size) throws IOException {
+		if (size > 1 << 20) {
+			throw new IOException("Corrupt TAR header");
+		}
+		byte[] data = new byte[(int) size];
+		if (in.readNBytes(data, 0, data.length) < data.length) {
+			throw new EOFException("Unexpected end of archive");
+		}
+		skip(in, (BLOCK - size % BLOCK) % BLOCK);
+		return data;
+	}
+
+
+	private static void skip(InputStream in, long n) throws IOException {
+		while (n > 0) {
+			long skipped = in.skip(n);
+			if (skipped <= 0) {
+				if (in.read() == -1) {
+					throw new EOFException("Unexpected end of archive");
+				}
+				skipped = 1;
+			}
+			n -= skipped;
+		}
+	}
+
+
+	private static boolean isZero(byte[] block) {
+		for (byte b : block) {
+			if (b != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/*
+	 * The header checksum is the sum of its bytes, with the checksum field
+	 * itself counted as spaces; some old tars summed signed bytes.
+	 */
+	private static boolean checksumMatches(byte[] header) {
+		long expected = number(header, 148, 8);
+		long unsigned = 0;
+		long signed = 0;
+		for (int i = 0; i < BLOCK; i++) {
+			byte b = (i >= 148 && i < 156) ? (byte) ' ' : header[i];
+			unsigned += b & 0xFF;
+			signed += b;
+		}
+		return expected == unsigned || expected == signed;
+	}
+
+
+	/*
+	 * An octal field, or a GNU base-256 one if its first byte has the top
+	 * bit set.
+	 */
+	private static long number(byte[] header, int offset, int length) {
+		if ((header[offset] & 0x80) != 0) {
+			long value = header[offset] & 0x3F;
+			for (int i = 1; i < length; i++) {
+				value = (value << 8) | (header[offset + i] & 0xFF);
+			}
+			return value;
+		}
+		long value = 0;
+		for (int i = offset; i < offset + length; i++) {
+			byte b = header[i];
+			if (b >= '0' && b <= '7') {
+				value = (value << 3) + (b - '0');
+			}
+			else if (b == 0 || (b == ' ' && value > 0)) {
+				break;
+			}
+		}
+		return value;
+	}
+
+
+	private static String string(byte[] header, int offset, int length) {
+		int end = offset;
+		while (end < offset + length && header[end] != 0) {
+			end++;
+		}
+		return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+	}
+
+
+	private static String trimNul(String s) {
+		int nul = s.indexOf('\0');
+		return (nul >= 0) ? s.substring(0, nul) : s;
+	}
+
+
+	/*
+	 * The path and size of a pax header, null where not given. Records are
+	 * "LENGTH KEY=VALUE\n", LENGTH counting the whole record.
+	 */
+	private static String[] parsePax(byte[] data) throws IOException {
+		String[] result = new String[2];
+		int pos = 0;
+		while (pos < data.length && data[pos] != 0) {
+			int space = pos;
+			while (space < data.length && data[space] != ' ') {
+				space++;
+			}
+			int length;
+			try {
+				length = Integer.parseInt(new String(data, pos, space - pos, StandardCharsets.US_ASCII));
+			}
+			catch (NumberFormatException e) {
+				throw new IOException("Corrupt pax header");
+			}
+			if (length <= space - pos || pos + length > data.length) {
+				throw new IOException("Corrupt pax header");
+			}
+			String record = new String(data, space + 1, pos + length - space - 2, StandardCharsets.UTF_8);
+			int eq = record.indexOf('=');
+			if (eq > 0) {
+				String key = record.substring(0, eq);
+				if ("path".equals(key)) {
+					result[0] = record.substring(eq + 1);
+				}
+				else if ("size".equals(key)) {
+					result[1] = record.substring(eq + 1);
+				}
+			}
+			pos += length;
+		}
+		return result;
+	}
+
+
+	/**
+	 * The next length bytes of the underlying stream, which is not closed.
+	 */
+	private static final class BoundedInputStream extends InputStream {
+		private final InputStream in;
+		long remaining;
+
+		BoundedInputStream(InputStream in, long length) {
+			this.in = in;
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int b = in.read();
+			if (b == -1) {
+				throw new EOFException("Unexpected end of archive");
+			}
+			remaining--;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int n = in.read(b, off, (int) Math.min(len, remaining));
+			if (n == -1) {
+				throw new EOFException("Unexpected end of archive");
+			}
+			remaining -= n;
+			return n;
+		}
+	}
+
+
+	/**
+	 * A ZIP member's data, which must come to exactly the size recorded in
+	 * the central directory: reading stops with an error as soon as the
+	 * underlying stream turns out to be longer, so a forged entry cannot
+	 * inflate to more than it claims, or ends early.
+	 */
+	private static final class ExactInputStream extends InputStream {
+		private final InputStream in;
+		private long remaining;
+
+		ExactInputStream(InputStream in, long length) {
+			this.in = in;
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xFF);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (remaining <= 0) {
+				if (in.read() != -1) {
+					throw new IOException("Member is larger than its recorded size, the archive is corrupt");
+				}
+				return -1;
+			}
+			int n = in.read(b, off, (int) Math.min(len, remaining));
+			if (n == -1) {
+				throw new EOFException("Member is smaller than its recorded size, the archive is corrupt");
+			}
+			remaining -= n;
+			return n;
+		}
+	}
+}
@@ -0,0 +1,372 @@
+package net.dollmar.tools;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * BLAKE3 with its default 32 byte output. The input is cut into chunks of
+ * 1 KiB that form a binary tree, so whole subtrees can be hashed
+ * independently: when at least {@link #PARALLEL_MIN} bytes of whole chunks
+ * are at hand, their subtrees are split across the common
+ * {@link ForkJoinPool} and only the parent nodes are combined on the
+ * calling thread. Updates of that size, as mapped reads make, are hashed
+ * where they are; smaller ones, such as the 64 KiB buffers of the stream
+ * readers, are collected into a {@link #BATCH} byte buffer first, so that
+ * they are hashed on all cores too. The last chunk is always kept back
+ * until the digest is taken, as it may turn out to be the root.
+ */
+public final class Blake3 extends FastDigestSpi {
+
+	public static final int PARALLEL_MIN = 128 * 1024;
+
+	public static final int BATCH = 1024 * 1024;
+
+	private static final int CHUNK = 1024;
+	private static final int BLOCK = 64;
+	private static final int GRAIN = 64;
+
+	private static final int CHUNK_START = 1;
+	private static final int CHUNK_END = 2;
+	private static final int PARENT = 4;
+	private static final int ROOT = 8;
+
+	private static final int[] IV = {
+			0x6A09E667, 0xBB67AE85, 0x3C6EF372, 0xA54FF53A, 0x510E527F, 0x9B05688C, 0x1F83D9AB, 0x5BE0CD19
+	};
+
+	// chaining values of complete subtrees, largest first
+	private final int[][] stack = new int[54][];
+	private int depth;
+
+	// the current chunk: its chaining value so far, pending block and position
+	private final int[] cv = new int[8];
+	private long chunkCounter;
+	private final byte[] block = new byte[BLOCK];
+	private final ByteBuffer blockView = ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+	private int blockLen;
+	private int blocksDone;
+
+	private final int[] words = new int[16];
+
+	// small updates not hashed yet, allocated on first use
+	private ByteBuffer batch;
+	private int batchLen;
+
+
+	public Blake3() {
+		super(32);
+		engineReset();
+	}
+
+
+	@Override
+	protected void engineReset() {
+		depth = 0;
+		batchLen = 0;
+		startChunk(0);
+	}
+
+
+	private void startChunk(long counter) {
+		System.arraycopy(IV, 0, cv, 0, 8);
+		chunkCounter = counter;
+		blockLen = 0;
+		blocksDone = 0;
+	}
+
+
+	private int chunkLength() {
+		return blocksDone * BLOCK + blockLen;
+	}
+
+
+	@Override
+	void update(ByteBuffer in, int pos, int len) {
+		if (len >= PARALLEL_MIN) {
+			flush();
+			absorb(in, pos, len);
+			return;
+		}
+		while (len > 0) {
+			if (batch == null) {
+				batch = ByteBuffer.allocate(BATCH).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			int n = Math.min(len, BATCH - batchLen);
+			batch.put(batchLen, in, pos, n);
+			batchLen += n;
+			pos += n;
+			len -= n;
+			if (batchLen == BATCH) {
+				flush();
+			}
+		}
+	}
+
+
+	private void flush() {
+		if (batchLen > 0) {
+			absorb(batch, 0, batchLen);
+			batchLen = 0;
+		}
+	}
+
+
+	private void absorb(ByteBuffer in, int pos, int len) {
+		while (len > 0) {
+			if (chunkLength() == CHUNK) {
+				// more input follows, so this chunk is not the root
+				push(chunkOutput(0), chunkCounter + 1);
+				startChunk(chunkCounter + 1);
+			}
+			if (chunkLength() == 0 && len > CHUNK) {
+				long chunks = (len - 1) / CHUNK;
+				subtrees(in, pos, chunks);
+				pos += chunks * CHUNK;
+				len -= chunks * CHUNK;
+				startChunk(chunkCounter + chunks);
+				continue;
+			}
+			int n = Math.min(len, CHUNK - chunkLength());
+			chunkUpdate(in, pos, n);
+			pos += n;
+			len -= n;
+		}
+	}
+
+
+	/*
+	 * Hashes whole chunks from the chunk counter on, as the largest aligned
+	 * subtrees they fall into, and pushes their chaining values.
+	 */
+	private void subtrees(ByteBuffer in, int pos, long chunks) {
+		long counter = chunkCounter;
+		while (chunks > 0) {
+			long size = Long.highestOneBit(chunks);
+			if (counter != 0) {
+				size = Math.min(size, Long.lowestOneBit(counter));
+			}
+			int[] subtree = (size * CHUNK >= PARALLEL_MIN)
+					? ForkJoinPool.commonPool().invoke(new Subtree(in, pos, counter, size))
+					: subtree(in, pos, counter, size);
+			push(subtree, counter + size);
+			pos += size * CHUNK;
+			counter += size;
+			chunks -= size;
+		}
+	}
+
+
+	/**
+	 * The chaining value of a subtree of a power of two chunks, its halves
+	 * forked until they are down to {@link #GRAIN} chunks.
+	 */
+	private static final class Subtree extends RecursiveTask<int[]> {
+		private static final long serialVersionUID = 1L;
+
+		private final transient ByteBuffer in;
+		private final int pos;
+		private final long counter;
+		private final long size;
+
+		Subtree(ByteBuffer in, int pos, long counter, long size) {
+			this.in = in;
+			this.pos = pos;
+			this.counter = counter;
+			this.size = size;
+		}
+
+		@Override
+		protected int[] compute() {
+			if (size <= GRAIN) {
+				return subtree(in, pos, counter, size);
+			}
+			long half = size / 2;
+			Subtree left = new Subtree(in, pos, counter, half);
+			left.fork();
+			int[] right = new Subtree(in, (int) (pos + half * CHUNK), counter + half, half).compute();
+			return parent(left.join(), right, 0);
+		}
+	}
+
+
+	private static int[] subtree(ByteBuffer in, int pos, long counter, long size) {
+		if (size == 1) {
+			return chunk(in, pos, counter);
+		}
+		long half = size / 2;
+		int[] left = subtree(in, pos, counter, half);
+		int[] right = subtree(in, (int) (pos + half * CHUNK), counter + half, half);
+		return parent(left, right, 0);
+	}
+
+
+	/*
+	 * The chaining value of one whole chunk that is not the root.
+	 */
+	private static int[] chunk(ByteBuffer in, int pos, long counter) {
+		int[] h = IV.clone();
+		int[] m = new int[16];
+		for (int b = 0; b < CHUNK / BLOCK; b++) {
+			for (int i = 0; i < 16; i++) {
+				m[i] = in.getInt(pos + b * BLOCK + 4 * i);
+			}
+			int flags = ((b == 0) ? CHUNK_START : 0) | ((b == CHUNK / BLOCK - 1) ? CHUNK_END : 0);
+			compress(h, m, counter, BLOCK, flags, h);
+		}
+		return h;
+	}
+
+
+	private static int[] parent(int[] left, int[] right, int flags) {
+		int[] m = new int[16];
+		System.arraycopy(left, 0, m, 0, 8);
+		System.arraycopy(right, 0, m, 8, 8);
+		int[] out = new int[8];
+		compress(IV, m, 0, BLOCK, PARENT | flags, out);
+		return out;
+	}
+
+
+	/*
+	 * Adds the chaining value of a complete subtree, merging it with its
+	 * left neighbours for as long as they make up complete subtrees
+	 * together: one entry remains per set bit of the chunk count.
+	 */
+	private void push(int[] value, long chunks) {
+		stack[depth++] = value;
+		while (depth > Long.bitCount(chunks)) {
+			int[] right = stack[--depth];
+			int[] left = stack[--depth];
+			stack[depth++] = parent(left, right, 0);
+		}
+	}
+
+
+	private void chunkUpdate(ByteBuffer in, int pos, int len) {
+		while (len > 0) {
+			if (blockLen == BLOCK) {
+				compressBlock(blockView, 0);
+				blockLen = 0;
+			}
+			if (blockLen == 0 && len > BLOCK) {
+				// straight from the input; more follows, so it is not the last block
+				compressBlock(in, pos);
+				pos += BLOCK;
+				len -= BLOCK;
+				continue;
+			}
+			int n = Math.min(len, BLOCK - blockLen);
+			for (int i = 0; i < n; i++) {
+				block[blockLen + i] = in.get(pos + i);
+			}
+			blockLen += n;
+			pos += n;
+			len -= n;
+		}
+	}
+
+
+	private void compressBlock(ByteBuffer in, int pos) {
+		for (int i = 0; i < 16; i++) {
+			words[i] = in.getInt(pos + 4 * i);
+		}
+		compress(cv, words, chunkCounter, BLOCK, (blocksDone == 0) ? CHUNK_START : 0, cv);
+		blocksDone++;
+	}
+
+
+	/*
+	 * The chaining value of the current chunk, which ends with the pending
+	 * block.
+	 */
+	private int[] chunkOutput(int flags) {
+		for (int i = blockLen; i < BLOCK; i++) {
+			block[i] = 0;
+		}
+		for (int i = 0; i < 16; i++) {
+			words[i] = blockView.getInt(4 * i);
+		}
+		int[] out = new int[8];
+		compress(cv, words, chunkCounter, blockLen, flags | CHUNK_END | ((blocksDone == 0) ? CHUNK_START : 0), out);
+		return out;
+	}
+
+
+	@Override
+	byte[] digest() {
+		flush();
+		int[] h;
+		if (depth == 0) {
+			h = chunkOutput(ROOT);
+		}
+		else {
+			h = chunkOutput(0);
+			for (int i = depth - 1; i >= 0; i--) {
+				h = parent(stack[i], h, (i == 0) ? ROOT : 0);
+			}
+		}
+		byte[] out = new byte[32];
+		for (int i = 0; i < 8; i++) {
+			out[4 * i] = (byte) h[i];
+			out[4 * i + 1] = (byte) (h[i] >>> 8);
+			out[4 * i + 2] = (byte) (h[i] >>> 16);
+			out[4 * i + 3] = (byte) (h[i] >>> 24);
+		}
+		return out;
+	}
+
+
+	/*
+	 * The compression function, writing the new chaining value (the first
+	 * half of the output) to out, which may be the input chaining value.
+	 */
+	private static void compress(int[] h, int[] m, long counter, int blockLen, int flags, int[] out) {
+		int v0 = h[0], v1 = h[1], v2 = h[2], v3 = h[3];
+		int v4 = h[4], v5 = h[5], v6 = h[6], v7 = h[7];
+		int v8 = IV[0], v9 = IV[1], v10 = IV[2], v11 = IV[3];
+		int v12 = (int) counter, v13 = (int) (counter >>> 32), v14 = blockLen, v15 = flags;
+
+		int m0 = m[0], m1 = m[1], m2 = m[2], m3 = m[3], m4 = m[4], m5 = m[5], m6 = m[6], m7 = m[7];
+		int m8 = m[8], m9 = m[9], m10 = m[10], m11 = m[11], m12 = m[12], m13 = m[13], m14 = m[14], m15 = m[15];
+
+		for (int round = 0; ; round++) {
+			// columns
+			v0 += v4 + m0; v12 = Integer.rotateRight(v12 ^ v0, 16); v8 += v12; v4 = Integer.rotateRight(v4 ^ v8, 12);
+			v0 += v4 + m1; v12 = Integer.rotateRight(v12 ^ v0, 8); v8 += v12; v4 = Integer.rotateRight(v4 ^ v8, 7);
+			v1 += v5 + m2; v13 = Integer.rotateRight(v13 ^ v1, 16); v9 += v13; v5 = Integer.rotateRight(v5 ^ v9, 12);
+			v1 += v5 + m3; v13 = Integer.rotateRight(v13 ^ v1, 8); v9 += v13; v5 = Integer.rotateRight(v5 ^ v9, 7);
+			v2 += v6 + m4; v14 = Integer.rotateRight(v14 ^ v2, 16); v10 += v14; v6 = Integer.rotateRight(v6 ^ v10, 12);
+			v2 += v6 + m5; v14 = Integer.rotateRight(v14 ^ v2, 8); v10 += v14; v6 = Integer.rotateRight(v6 ^ v10, 7);
+			v3 += v7 + m6; v15 = Integer.rotateRight(v15 ^ v3, 16); v11 += v15; v7 = Integer.rotateRight(v7 ^ v11, 12);
+			v3 += v7 + m7; v15 = Integer.rotateRight(v15 ^ v3, 8); v11 += v15; v7 = Integer.rotateRight(v7 ^ v11, 7);
+			// diagonals
+			v0 += v5 + m8; v15 = Integer.rotateRight(v15 ^ v0, 16); v10 += v15; v5 = Integer.rotateRight(v5 ^ v10, 12);
+			v0 += v5 + m9; v15 = Integer.rotateRight(v15 ^ v0, 8); v10 += v15; v5 = Integer.rotateRight(v5 ^ v10, 7);
+			v1 += v6 + m10; v12 = Integer.rotateRight(v12 ^ v1, 16); v11 += v12; v6 = Integer.rotateRight(v6 ^ v11, 12);
+			v1 += v6 + m11; v12 = Integer.rotateRight(v12 ^ v1, 8); v11 += v12; v6 = Integer.rotateRight(v6 ^ v11, 7);
+			v2 += v7 + m12; v13 = Integer.rotateRight(v13 ^ v2, 16); v8 += v13; v7 = Integer.rotateRight(v7 ^ v8, 12);
+			v2 += v7 + m13; v13 = Integer.rotateRight(v13 ^ v2, 8); v8 += v13; v7 = Integer.rotateRight(v7 ^ v8, 7);
+			v3 += v4 + m14; v14 = Integer.rotateRight(v14 ^ v3, 16); v9 += v14; v4 = Integer.rotateRight(v4 ^ v9, 12);
+			v3 += v4 + m15; v14 = Integer.rotateRight(v14 ^ v3, 8); v9 += v14; v4 = Integer.rotateRight(v4 ^ v9, 7);
+			if (round == 6) {
+				break;
+			}
+			// permute the message words for the next round
+			int t0 = m0, t1 = m1, t2 = m2, t3 = m3, t4 = m4, t5 = m5, t6 = m6, t7 = m7;
+			int t8 = m8, t9 = m9, t10 = m10, t11 = m11, t12 = m12, t13 = m13, t14 = m14, t15 = m15;
+			m0 = t2; m1 = t6; m2 = t3; m3 = t10; m4 = t7; m5 = t0; m6 = t4; m7 = t13;
+			m8 = t1; m9 = t11; m10 = t12; m11 = t5; m12 = t9; m13 = t14; m14 = t15; m15 = t8;
+		}
+
+		out[0] = v0 ^ v8;
+		out[1] = v1 ^ v9;
+		out[2] = v2 ^ v10;
+		out[3] = v3 ^ v11;
+		out[4] = v4 ^ v12;
+		out[5] = v5 ^ v13;
+		out[6] = v6 ^ v14;
+		out[7] = v7 ^ v15;
+	}
+}
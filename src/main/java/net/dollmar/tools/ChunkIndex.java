@@ -0,0 +1,209 @@
+package net.dollmar.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sidecar index of the per-chunk digests of one file, so that a file which
+ * changed in a few places, or only grew, does not have to be hashed again
+ * from start to end. The chunks are the fixed-size leaves of a
+ * {@link MerkleTree}, and the whole-file digest is the root of that tree.
+ *
+ * An index is brought up to date by one of the update methods:
+ * <ul>
+ * <li>if the file's size, modification time and file key are those
+ *     recorded, nothing is read;</li>
+ * <li>in append-only mode a file that grew only has its new tail read,
+ *     starting at the old last chunk;</li>
+ * <li>given the range that was written, only the chunks overlapping it
+ *     (and any new tail) are read;</li>
+ * <li>otherwise every chunk is read again, and the changed ones are still
+ *     reported.</li>
+ * </ul>
+ * The append-only and range forms take the caller's word that the rest of
+ * the file is unchanged.
+ *
+ * The index is kept in a file next to the data file, with the name of the
+ * data file plus {@link #SUFFIX}; it is the file's stat data followed by the
+ * leaf hash format of {@link MerkleTree}:
+ * <pre>
+ *   "HSCI" version:int mtimeNanos:long fileKey:UTF tree
+ * </pre>
+ */
+public class ChunkIndex {
+
+	public static final String SUFFIX = ".hci";
+
+	private static final int MAGIC = 0x48534349; // "HSCI"
+	private static final int VERSION = 1;
+
+	private final Path file;
+	private final Path indexFile;
+
+	private MerkleTree tree;
+	private long mtime;
+	private String fileKey = "";
+
+	private int[] changed = new int[0];
+
+
+	public ChunkIndex(String fileName) {
+		this(fileName, Paths.get(fileName + SUFFIX));
+	}
+
+	public ChunkIndex(String fileName, Path indexFile) {
+		this.file = Paths.get(fileName);
+		this.indexFile = indexFile;
+	}
+
+
+	/*
+	 * Re-hashes whatever is needed to bring the index up to date with the
+	 * file, and saves it.
+	 */
+	public void update(String algorithm, int chunkSize, boolean appendOnly)
+			throws IOException, GeneralSecurityException
+	{
+		BasicFileAttributes attrs = load(algorithm, chunkSize);
+		if (tree != null && unchanged(attrs)) {
+			changed = new int[0];
+			return;
+		}
+		// a file of the same size that changed was written in place
+		if (tree != null && appendOnly && attrs.size() > tree.getLength() && fileKey.equals(keyOf(attrs))) {
+			refresh(tree.rehash(file.toString(), tree.getLength(), 0), attrs);
+		}
+		else {
+			refresh(MerkleTree.build(algorithm, file.toString(), chunkSize), attrs);
+		}
+	}
+
+
+	/*
+	 * Re-hashes the chunks overlapping the given range, and any tail by which
+	 * the file grew, and saves the index. Without a usable index the whole
+	 * file is hashed.
+	 */
+	public void update(String algorithm, int chunkSize, long offset, long length)
+			throws IOException, GeneralSecurityException
+	{
+		BasicFileAttributes attrs = load(algorithm, chunkSize);
+		refresh((tree != null) 
+				? tree.rehash(file.toString(), offset, length) 
+				: MerkleTree.build(algorithm, file.toString(), chunkSize), attrs);
+	}
+
+
+	private void refresh(MerkleTree updated, BasicFileAttributes attrs) throws IOException {
+		if (tree != null) {
+			changed = updated.changedLeaves(tree);
+		}
+		else {
+			changed = new int[updated.getLeafCount()];
+			for (int i = 0; i < changed.length; i++) {
+				changed[i] = i;
+			}
+		}
+		tree = updated;
+		mtime = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+		fileKey = keyOf(attrs);
+		save();
+	}
+
+
+	private boolean unchanged(BasicFileAttributes attrs) {
+		return attrs.size() == tree.getLength()
+				&& attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS) == mtime
+				&& fileKey.equals(keyOf(attrs));
+	}
+
+
+	private static String keyOf(BasicFileAttributes attrs) {
+		Object key = attrs.fileKey();
+		return (key != null) ? key.toString() : "";
+	}
+
+
+	/*
+	 * Reads the index file, unless already loaded, and returns the current
+	 * attributes of the data file. An index for another algorithm or chunk
+	 * size is dropped.
+	 */
+	private BasicFileAttributes load(String algorithm, int chunkSize) throws IOException {
+		BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+		if (tree == null) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+					throw new IOException("Not a chunk index file: " + indexFile);
+				}
+				mtime = in.readLong();
+				fileKey = in.readUTF();
+				tree = MerkleTree.read(in, indexFile);
+			}
+			catch (NoSuchFileException e) {
+				// first time
+			}
+			catch (EOFException e) {
+				throw new IOException("Truncated chunk index file: " + indexFile, e);
+			}
+		}
+		if (tree != null && (!tree.getAlgorithm().equals(algorithm) || tree.getLeafSize() != chunkSize)) {
+			// of no use for this kind of update
+			tree = null;
+		}
+		return attrs;
+	}
+
+
+	private void save() throws IOException {
+		Path dir = indexFile.toAbsolutePath().getParent();
+		Path tmp = Files.createTempFile(dir, indexFile.getFileName().toString(), ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(mtime);
+				out.writeUTF(fileKey);
+				tree.write(out);
+			}
+			try {
+				Files.move(tmp, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+
+	public MerkleTree getTree() {
+		return tree;
+	}
+
+	public byte[] getRoot() throws GeneralSecurityException {
+		return tree.getRoot();
+	}
+
+	/*
+	 * The chunks that were found changed, added or removed by the last update.
+	 */
+	public int[] getChangedChunks() {
+		return changed.clone();
+	}
+}
@@ -0,0 +1,385 @@
+package net.dollmar.tools;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.commons.codec.DecoderException;
+
+/**
+ * Table driven hex and Base64 (RFC 4648, standard alphabet) encoding and
+ * decoding. The encoders produce lower or upper case hex in a single pass
+ * and, like the decoders, can work on caller supplied arrays and buffers so
+ * that high rate signing does not have to allocate per message.
+ *
+ * The array methods return the number of chars or bytes written; the
+ * required sizes are given by {@link #hexLength(int)},
+ * {@link #base64Length(int)} and {@link #decodedBase64Length(CharSequence)}.
+ * The buffer methods read the source's remaining bytes and write ASCII, or
+ * read ASCII, at the target's position, advancing both.
+ */
+public final class Codec {
+
+	private static final char[] HEX_LOWER = "0123456789abcdef".toCharArray();
+	private static final char[] HEX_UPPER = "0123456789ABCDEF".toCharArray();
+	private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+	private static final byte[] HEX_VALUES = new byte[128];
+	private static final byte[] BASE64_VALUES = new byte[128];
+
+	static {
+		Arrays.fill(HEX_VALUES, (byte) -1);
+		Arrays.fill(BASE64_VALUES, (byte) -1);
+		for (int i = 0; i < 16; i++) {
+			HEX_VALUES[HEX_LOWER[i]] = (byte) i;
+			HEX_VALUES[HEX_UPPER[i]] = (byte) i;
+		}
+		for (int i = 0; i < 64; i++) {
+			BASE64_VALUES[BASE64[i]] = (byte) i;
+		}
+	}
+
+	private Codec() {}
+
+
+	public static int hexLength(int byteCount) {
+		return byteCount * 2;
+	}
+
+	public static int base64Length(int byteCount) {
+		return ((byteCount + 2) / 3) * 4;
+	}
+
+
+	// ---- hex ----------------------------------------------------------------
+
+	public static String toHex(byte[] bytes, boolean upperCase) {
+		char[] chars = new char[hexLength(bytes.length)];
+		encodeHex(bytes, 0, bytes.length, chars, 0, upperCase);
+		return new String(chars);
+	}
+
+
+	public static int encodeHex(byte[] src, int off, int len, char[] dst, int dstOff, boolean upperCase) {
+		char[] digits = upperCase ? HEX_UPPER : HEX_LOWER;
+		int j = dstOff;
+		for (int i = off; i < off + len; i++) {
+			int b = src[i];
+			dst[j++] = digits[(b >> 4) & 0x0f];
+			dst[j++] = digits[b & 0x0f];
+		}
+		return j - dstOff;
+	}
+
+
+	/*
+	 * Writes the hex digits as ASCII bytes.
+	 */
+	public static int encodeHex(byte[] src, int off, int len, byte[] dst, int dstOff, boolean upperCase) {
+		char[] digits = upperCase ? HEX_UPPER : HEX_LOWER;
+		int j = dstOff;
+		for (int i = off; i < off + len; i++) {
+			int b = src[i];
+			dst[j++] = (byte) digits[(b >> 4) & 0x0f];
+			dst[j++] = (byte) digits[b & 0x0f];
+		}
+		return j - dstOff;
+	}
+
+
+	/*
+	 * Writes the hex digits of the source's remaining bytes as ASCII at the
+	 * target's position; both buffers are advanced.
+	 */
+	public static void encodeHex(ByteBuffer src, ByteBuffer dst, boolean upperCase) {
+		char[] digits = upperCase ? HEX_UPPER : HEX_LOWER;
+		while (src.hasRemaining()) {
+			int b = src.get();
+			dst.put((byte) digits[(b >> 4) & 0x0f]);
+			dst.put((byte) digits[b & 0x0f]);
+		}
+	}
+
+
+	public static byte[] fromHex(CharSequence hex) throws DecoderException {
+		if ((hex.length() & 1) != 0) {
+			throw new DecoderException("Odd number of characters.");
+		}
+		byte[] bytes = new byte[hex.length() / 2];
+		decodeHex(hex, bytes, 0);
+		return bytes;
+	}
+
+
+	public static int decodeHex(CharSequence hex, byte[] dst, int dstOff) throws DecoderException {
+		return decodeHex(hex, 0, hex.length(), dst, dstOff);
+	}
+
+
+	public static int decodeHex(CharSequence hex, int off, int len, byte[] dst, int dstOff) throws DecoderException {
+		if ((len & 1) != 0) {
+			throw new DecoderException("Odd number of characters.");
+		}
+		int j = dstOff;
+		for (int i = off; i < off + len; i += 2) {
+			dst[j++] = (byte) ((hexValue(hex, i) << 4) | hexValue(hex, i + 1));
+		}
+		return j - dstOff;
+	}
+
+
+	/*
+	 * Decodes the source's remaining ASCII hex digits; on an error neither
+	 * buffer is advanced, though bytes may have been written.
+	 */
+	public static void decodeHex(ByteBuffer src, ByteBuffer dst) throws DecoderException {
+		int len = src.remaining();
+		if ((len & 1) != 0) {
+			throw new DecoderException("Odd number of characters.");
+		}
+		CharSequence hex = new Ascii(src);
+		int j = dst.position();
+		for (int i = 0; i < len; i += 2) {
+			dst.put(j++, (byte) ((hexValue(hex, i) << 4) | hexValue(hex, i + 1)));
+		}
+		src.position(src.limit());
+		dst.position(j);
+	}
+
+
+	private static int hexValue(CharSequence hex, int index) throws DecoderException {
+		char c = hex.charAt(index);
+		int v = (c < 128) ? HEX_VALUES[c] : -1;
+		if (v < 0) {
+			throw new DecoderException("Illegal hexadecimal character " + c + " at index " + index);
+		}
+		return v;
+	}
+
+
+	// ---- Base64 -------------------------------------------------------------
+
+	public static String toBase64(byte[] bytes) {
+		char[] chars = new char[base64Length(bytes.length)];
+		encodeBase64(bytes, 0, bytes.length, chars, 0);
+		return new String(chars);
+	}
+
+
+	public static int encodeBase64(byte[] src, int off, int len, char[] dst, int dstOff) {
+		int j = dstOff;
+		int end = off + len;
+		int i = off;
+		for (; i + 2 < end; i += 3) {
+			int bits = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff);
+			dst[j++] = BASE64[(bits >>> 18) & 0x3f];
+			dst[j++] = BASE64[(bits >>> 12) & 0x3f];
+			dst[j++] = BASE64[(bits >>> 6) & 0x3f];
+			dst[j++] = BASE64[bits & 0x3f];
+		}
+		if (i < end) {
+			int bits = (src[i] & 0xff) << 16 | ((i + 1 < end) ? (src[i + 1] & 0xff) << 8 : 0);
+			dst[j++] = BASE64[(bits >>> 18) & 0x3f];
+			dst[j++] = BASE64[(bits >>> 12) & 0x3f];
+			dst[j++] = (i + 1 < end) ? BASE64[(bits >>> 6) & 0x3f] : '=';
+			dst[j++] = '=';
+		}
+		return j - dstOff;
+	}
+
+
+	/*
+	 * Writes the Base64 characters as ASCII bytes.
+	 */
+	public static int encodeBase64(byte[] src, int off, int len, byte[] dst, int dstOff) {
+		int j = dstOff;
+		int end = off + len;
+		int i = off;
+		for (; i + 2 < end; i += 3) {
+			int bits = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff);
+			dst[j++] = (byte) BASE64[(bits >>> 18) & 0x3f];
+			dst[j++] = (byte) BASE64[(bits >>> 12) & 0x3f];
+			dst[j++] = (byte) BASE64[(bits >>> 6) & 0x3f];
+			dst[j++] = (byte) BASE64[bits & 0x3f];
+		}
+		if (i < end) {
+			int bits = (src[i] & 0xff) << 16 | ((i + 1 < end) ? (src[i + 1] & 0xff) << 8 : 0);
+			dst[j++] = (byte) BASE64[(bits >>> 18) & 0x3f];
+			dst[j++] = (byte) BASE64[(bits >>> 12) & 0x3f];
+			dst[j++] = (byte) ((i + 1 < end) ? BASE64[(bits >>> 6) & 0x3f] : '=');
+			dst[j++] = '=';
+		}
+		return j - dstOff;
+	}
+
+
+	public static void encodeBase64(ByteBuffer src, ByteBuffer dst) {
+		while (src.remaining() >= 3) {
+			int bits = (src.get() & 0xff) << 16 | (src.get() & 0xff) << 8 | (src.get() & 0xff);
+			dst.put((byte) BASE64[(bits >>> 18) & 0x3f]);
+			dst.put((byte) BASE64[(bits >>> 12) & 0x3f]);
+			dst.put((byte) BASE64[(bits >>> 6) & 0x3f]);
+			dst.put((byte) BASE64[bits & 0x3f]);
+		}
+		int left = src.remaining();
+		if (left > 0) {
+			int bits = (src.get() & 0xff) << 16 | ((left > 1) ? (src.get() & 0xff) << 8 : 0);
+			dst.put((byte) BASE64[(bits >>> 18) & 0x3f]);
+			dst.put((byte) BASE64[(bits >>> 12) & 0x3f]);
+			dst.put((byte) ((left > 1) ? BASE64[(bits >>> 6) & 0x3f] : '='));
+			dst.put((byte) '=');
+		}
+	}
+
+
+	/*
+	 * The number of bytes the encoded text decodes to; padding is optional.
+	 */
+	public static int decodedBase64Length(CharSequence base64) {
+		int len = base64.length();
+		while (len > 0 && base64.charAt(len - 1) == '=') {
+			len--;
+		}
+		return (len * 6) / 8;
+	}
+
+
+	public static byte[] fromBase64(CharSequence base64) throws DecoderException {
+		byte[] bytes = new byte[decodedBase64Length(base64)];
+		decodeBase64(base64, bytes, 0);
+		return bytes;
+	}
+
+
+	public static int decodeBase64(CharSequence base64, byte[] dst, int dstOff) throws DecoderException {
+		return decodeBase64(base64, 0, base64.length(), dst, dstOff);
+	}
+
+
+	public static int decodeBase64(CharSequence base64, int off, int len, byte[] dst, int dstOff) throws DecoderException {
+		int end = off + base64Chars(base64, off, len);
+		int j = dstOff;
+		int bits = 0;
+		int count = 0;
+		for (int i = off; i < end; i++) {
+			bits = (bits << 6) | base64Value(base64, i);
+			if (++count == 4) {
+				dst[j++] = (byte) (bits >> 16);
+				dst[j++] = (byte) (bits >> 8);
+				dst[j++] = (byte) bits;
+				bits = 0;
+				count = 0;
+			}
+		}
+		if (count == 3) {
+			dst[j++] = (byte) (bits >> 10);
+			dst[j++] = (byte) (bits >> 2);
+		}
+		else if (count == 2) {
+			dst[j++] = (byte) (bits >> 4);
+		}
+		return j - dstOff;
+	}
+
+
+	/*
+	 * The number of characters before the padding, once the length and
+	 * padding have been checked.
+	 */
+	private static int base64Chars(CharSequence base64, int off, int len) throws DecoderException {
+		int end = len;
+		while (end > 0 && base64.charAt(off + end - 1) == '=') {
+			end--;
+		}
+		if (len - end > 2 || (end % 4) == 1 || (len != end && (len % 4) != 0)) {
+			throw new DecoderException("Invalid Base64 length.");
+		}
+		return end;
+	}
+
+
+	private static int base64Value(CharSequence base64, int index) throws DecoderException {
+		char c = base64.charAt(index);
+		int v = (c < 128) ? BASE64_VALUES[c] : -1;
+		if (v < 0) {
+			throw new DecoderException("Illegal Base64 character " + c + " at index " + index);
+		}
+		return v;
+	}
+
+
+	/*
+	 * Decodes the source's remaining ASCII Base64 text, padded or not; on
+	 * an error neither buffer is advanced, though bytes may have been
+	 * written.
+	 */
+	public static void decodeBase64(ByteBuffer src, ByteBuffer dst) throws DecoderException {
+		CharSequence base64 = new Ascii(src);
+		int end = base64Chars(base64, 0, base64.length());
+		int j = dst.position();
+		int bits = 0;
+		int count = 0;
+		for (int i = 0; i < end; i++) {
+			bits = (bits << 6) | base64Value(base64, i);
+			if (++count == 4) {
+				dst.put(j++, (byte) (bits >> 16));
+				dst.put(j++, (byte) (bits >> 8));
+				dst.put(j++, (byte) bits);
+				bits = 0;
+				count = 0;
+			}
+		}
+		if (count == 3) {
+			dst.put(j++, (byte) (bits >> 10));
+			dst.put(j++, (byte) (bits >> 2));
+		}
+		else if (count == 2) {
+			dst.put(j++, (byte) (bits >> 4));
+		}
+		src.position(src.limit());
+		dst.position(j);
+	}
+
+
+	/**
+	 * The remaining bytes of a buffer as chars, read in place.
+	 */
+	private static final class Ascii implements CharSequence {
+		private final ByteBuffer buffer;
+		private final int start;
+		private final int length;
+
+		Ascii(ByteBuffer buffer) {
+			this(buffer, buffer.position(), buffer.remaining());
+		}
+
+		private Ascii(ByteBuffer buffer, int start, int length) {
+			this.buffer = buffer;
+			this.start = start;
+			this.length = length;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char) (buffer.get(start + index) & 0xff);
+		}
+
+		@Override
+		public CharSequence subSequence(int from, int to) {
+			return new Ascii(buffer, start + from, to - from);
+		}
+
+		@Override
+		public String toString() {
+			char[] chars = new char[length];
+			for (int i = 0; i < length; i++) {
+				chars[i] = charAt(i);
+			}
+			return new String(chars);
+		}
+	}
+}
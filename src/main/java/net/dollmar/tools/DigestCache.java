@@ -0,0 +1,297 @@
+package net.dollmar.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import org.apache.commons.codec.DecoderException;
+
+/**
+ * On-disk cache of file digests, so that re-hashing a mostly unchanged tree
+ * only costs the I/O for the files that changed. An entry is trusted as long
+ * as the file's size, modification time and file key (device and inode on
+ * Unix) are the same as when the digests were recorded; any difference and
+ * the file is hashed again.
+ *
+ * The cache file is a compact binary format:
+ * <pre>
+ *   "HSHC" version:int count:int
+ *   count x { path:UTF size:long mtimeNanos:long fileKey:UTF
+ *             algorithms:byte algorithms x { name:UTF length:short digest:bytes } }
+ * </pre>
+ * and is replaced atomically on {@link #save()}: it is written to a
+ * temporary file in the same directory which is then moved over the old one.
+ *
+ * Only plain digests are cached; HMACs depend on a key which is not kept.
+ */
+public class DigestCache {
+
+	private static final int MAGIC = 0x48534843; // "HSHC"
+	private static final int VERSION = 1;
+
+	private static final class Entry {
+		final long size;
+		final long mtime;
+		final String fileKey;
+		final Map<String, byte[]> digests = new ConcurrentHashMap<>();
+
+		Entry(long size, long mtime, String fileKey) {
+			this.size = size;
+			this.mtime = mtime;
+			this.fileKey = fileKey;
+		}
+
+		boolean matches(Entry other) {
+			return size == other.size && mtime == other.mtime && fileKey.equals(other.fileKey);
+		}
+	}
+
+	private final Path cacheFile;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private volatile boolean modified;
+
+	private boolean verify;
+	private BiConsumer<String, String> mismatchListener = (f, a) -> {};
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+
+	public DigestCache(String cacheFile) {
+		this.cacheFile = Paths.get(cacheFile);
+	}
+
+
+	/**
+	 * In verify mode every file is hashed again and any cached digest that
+	 * differs from the fresh one is reported to the mismatch listener and
+	 * replaced.
+	 */
+	public void setVerify(boolean verify) {
+		this.verify = verify;
+	}
+
+	public void setMismatchListener(BiConsumer<String, String> listener) {
+		this.mismatchListener = listener;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+
+	/*
+	 * Loads the cache file; a missing file simply gives an empty cache.
+	 */
+	public void load() throws IOException {
+		entries.clear();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a digest cache file: " + cacheFile);
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String path = in.readUTF();
+				Entry entry = new Entry(in.readLong(), in.readLong(), in.readUTF());
+				int algorithms = in.readUnsignedByte();
+				for (int j = 0; j < algorithms; j++) {
+					String name = in.readUTF();
+					byte[] digest = new byte[in.readUnsignedShort()];
+					in.readFully(digest);
+					entry.digests.put(name, digest);
+				}
+				entries.put(path, entry);
+			}
+		}
+		catch (NoSuchFileException e) {
+			// nothing cached yet
+		}
+		catch (EOFException e) {
+			throw new IOException("Truncated digest cache file: " + cacheFile, e);
+		}
+		modified = false;
+	}
+
+
+	/*
+	 * Writes the cache if anything changed since it was loaded.
+	 */
+	public void save() throws IOException {
+		if (!modified) {
+			return;
+		}
+		Path dir = cacheFile.toAbsolutePath().getParent();
+		Path tmp = Files.createTempFile(dir, cacheFile.getFileName().toString(), ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				// take a snapshot, the map may still be written to by other threads
+				List<Map.Entry<String, Entry>> snapshot = new ArrayList<>(entries.entrySet());
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(snapshot.size());
+				for (Map.Entry<String, Entry> e : snapshot) {
+					Entry entry = e.getValue();
+					Map<String, byte[]> digests = new HashMap<>(entry.digests);
+					out.writeUTF(e.getKey());
+					out.writeLong(entry.size);
+					out.writeLong(entry.mtime);
+					out.writeUTF(entry.fileKey);
+					out.writeByte(digests.size());
+					for (Map.Entry<String, byte[]> d : digests.entrySet()) {
+						out.writeUTF(d.getKey());
+						out.writeShort(d.getValue().length);
+						out.write(d.getValue());
+					}
+				}
+			}
+			try {
+				Files.move(tmp, cacheFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+			modified = false;
+		}
+		finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+
+	/*
+	 * Drops every entry.
+	 */
+	public void clear() {
+		entries.clear();
+		modified = true;
+	}
+
+
+	/*
+	 * Drops the entries of files that no longer exist or have changed, and
+	 * returns how many were dropped.
+	 */
+	public int prune() {
+		int dropped = 0;
+		for (Map.Entry<String, Entry> e : entries.entrySet()) {
+			Entry current = stat(Paths.get(e.getKey()));
+			if (current == null || !current.matches(e.getValue())) {
+				entries.remove(e.getKey());
+				dropped++;
+			}
+		}
+		if (dropped > 0) {
+			modified = true;
+		}
+		return dropped;
+	}
+
+
+	private static Entry stat(Path path) {
+		try {
+			BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+			Object fileKey = attrs.fileKey();
+			return new Entry(attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+					(fileKey != null) ? fileKey.toString() : "");
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+
+	/*
+	 * Same contract as HashCalculator.calculateFileHashes, but digests held
+	 * in the cache for an unchanged file are returned without reading it,
+	 * and only the missing algorithms are calculated.
+	 */
+	public String[] calculateFileHashes(
+			final String[] algorithms,
+			final String fileName,
+			ReadMode mode,
+			boolean hexEncodedResult,
+			boolean upperCasedResult)
+	{
+		Path path = Paths.get(fileName).toAbsolutePath().normalize();
+		String key = path.toString();
+		Entry current = stat(path);
+		if (current == null) {
+			// let the calculator report the problem
+			return HashCalculator.calculateFileHashes(algorithms, fileName, mode, hexEncodedResult, upperCasedResult);
+		}
+
+		Entry cached = entries.get(key);
+		if (cached != null && !cached.matches(current)) {
+			cached = null;
+		}
+
+		String[] results = new String[algorithms.length];
+		List<Integer> missing = new ArrayList<>();
+		for (int i = 0; i < algorithms.length; i++) {
+			byte[] digest = (cached != null) ? cached.digests.get(algorithms[i]) : null;
+			if (digest != null && !verify) {
+				results[i] = HashCalculator.bytesToString(digest, hexEncodedResult, upperCasedResult);
+			}
+			else {
+				missing.add(i);
+			}
+		}
+		if (missing.isEmpty()) {
+			hits.increment();
+			Metrics.cache(true);
+			return results;
+		}
+		misses.increment();
+		Metrics.cache(false);
+
+		String[] names = new String[missing.size()];
+		for (int j = 0; j < names.length; j++) {
+			names[j] = algorithms[missing.get(j)];
+		}
+		String[] fresh = HashCalculator.calculateFileHashes(names, fileName, mode, hexEncodedResult, upperCasedResult);
+
+		Entry entry = (cached != null) ? cached : current;
+		for (int j = 0; j < names.length; j++) {
+			results[missing.get(j)] = fresh[j];
+			if (fresh[j].startsWith("Error: ")) {
+				continue;
+			}
+			try {
+				byte[] digest = HashCalculator.dataToBytes(fresh[j], hexEncodedResult ? DataLabel.HEX : DataLabel.BASE64);
+				byte[] old = entry.digests.put(names[j], digest);
+				if (old != null && !Arrays.equals(old, digest)) {
+					mismatchListener.accept(fileName, names[j]);
+				}
+			}
+			catch (DecoderException e) {
+				// cannot happen for our own encoding; just do not cache it
+			}
+		}
+		entries.put(key, entry);
+		modified = true;
+		return results;
+	}
+}
@@ -0,0 +1,312 @@
+package net.dollmar.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.EncodableDigest;
+import org.bouncycastle.crypto.digests.MD5Digest;
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.crypto.digests.SHA224Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA384Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+
+/**
+ * Hashes one file sequentially while saving the internal state of the
+ * digests, and the offset they have reached, to a sidecar file every
+ * {@link #setInterval(long) interval} bytes. A run that is killed, or
+ * cancelled through its {@link DigestMonitor}, loses at most one interval:
+ * the next run on the same, unchanged file carries on from the checkpoint
+ * instead of from byte 0. The checkpoint is removed once the digests are
+ * complete.
+ *
+ * The state is taken from the BouncyCastle lightweight digests that can
+ * encode it ({@link EncodableDigest}), so only MD5, SHA1 and the SHA-2
+ * family are supported; see {@link #isSupported(String)}. These are plain
+ * Java implementations and slower than the JDK's intrinsics, which is the
+ * price of being able to resume.
+ *
+ * The checkpoint is kept in a file next to the data file, with the name of
+ * the data file plus {@link #SUFFIX}, unless another place is given:
+ * <pre>
+ *   "HSCK" version:int size:long mtimeNanos:long fileKey:UTF
+ *   count:int (algorithm:UTF length:int state)* offset:long sha256
+ * </pre>
+ * where the SHA-256 is over everything before it. It is written to a
+ * temporary file, flushed to disk and then moved into place, so a crash
+ * leaves either the old checkpoint or the new one.
+ *
+ * It is only used if the checksum is right, nothing follows it, the data
+ * file's size, modification time and file key are still those recorded
+ * and the algorithms are the same. Otherwise, or if it cannot be read at
+ * all, it is ignored and hashing starts over from byte 0: a damaged or
+ * foreign checkpoint can cost time, but never give a wrong digest. If the
+ * checkpoint cannot be written, hashing carries on without one.
+ */
+public class DigestCheckpoint {
+
+	public static final String SUFFIX = ".hck";
+
+	public static final long DEFAULT_INTERVAL = 1L << 30;
+
+	private static final int MAGIC = 0x4853434B; // "HSCK"
+	private static final int VERSION = 2;
+
+	private static final int CHECKSUM_LENGTH = 32;
+
+	private final Path file;
+	private final Path checkpointFile;
+
+	private long interval = DEFAULT_INTERVAL;
+	private long resumedFrom;
+
+
+	public DigestCheckpoint(String fileName) {
+		this(fileName, Paths.get(fileName + SUFFIX));
+	}
+
+	public DigestCheckpoint(String fileName, Path checkpointFile) {
+		this.file = Paths.get(fileName);
+		this.checkpointFile = checkpointFile;
+	}
+
+
+	/*
+	 * The number of bytes hashed between two checkpoints.
+	 */
+	public void setInterval(long interval) {
+		this.interval = Math.max(MultiDigest.MIN_BUFFER_SIZE, interval);
+	}
+
+
+	/*
+	 * The offset the last digest call resumed from, 0 if it started afresh.
+	 */
+	public long getResumedFrom() {
+		return resumedFrom;
+	}
+
+
+	public static boolean isSupported(String algorithm) {
+		return create(algorithm, null) != null;
+	}
+
+
+	/*
+	 * A new lightweight digest for the algorithm, restored from the encoded
+	 * state if one is given, or null if its state cannot be encoded.
+	 */
+	private static Digest create(String algorithm, byte[] state) {
+		switch (algorithm.toUpperCase().replace("-", "")) {
+		case "MD5": return (state == null) ? new MD5Digest() : new MD5Digest(state);
+		case "SHA1": return (state == null) ? new SHA1Digest() : new SHA1Digest(state);
+		case "SHA224": return (state == null) ? new SHA224Digest() : new SHA224Digest(state);
+		case "SHA256": return (state == null) ? new SHA256Digest() : new SHA256Digest(state);
+		case "SHA384": return (state == null) ? new SHA384Digest() : new SHA384Digest(state);
+		case "SHA512": return (state == null) ? new SHA512Digest() : new SHA512Digest(state);
+		default:
+			return null;
+		}
+	}
+
+
+	/*
+	 * Hashes the file, from the checkpoint if there is a usable one, and
+	 * returns the digest for algorithms[i] in element i. On cancellation the
+	 * state reached so far is saved before the InterruptedIOException is
+	 * thrown.
+	 */
+	public byte[][] digest(String[] algorithms, DigestMonitor monitor) throws IOException, GeneralSecurityException {
+		Digest[] digests = new Digest[algorithms.length];
+		for (int i = 0; i < algorithms.length; i++) {
+			digests[i] = create(algorithms[i], null);
+			if (digests[i] == null) {
+				throw new NoSuchAlgorithmException("Cannot checkpoint the state of " + algorithms[i]);
+			}
+		}
+
+		BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+		long offset = load(algorithms, digests, attrs);
+		resumedFrom = offset;
+		boolean saving = true;
+
+		try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+			monitor.started(attrs.size());
+			if (offset > 0) {
+				monitor.resumed(offset);
+			}
+			fc.position(offset);
+			byte[] buffer = MultiDigest.buffer();
+			ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+			long next = offset + interval;
+			while (true) {
+				wrapped.clear();
+				long start = Metrics.start();
+				int n = fc.read(wrapped);
+				Metrics.read(start, n);
+				if (n == -1) {
+					break;
+				}
+				if (monitor.isCancelled()) {
+					if (saving) {
+						save(algorithms, digests, offset, attrs);
+					}
+					throw new InterruptedIOException("Cancelled");
+				}
+				for (Digest digest : digests) {
+					digest.update(buffer, 0, n);
+				}
+				monitor.progress(offset += n);
+				if (saving && offset >= next) {
+					saving = save(algorithms, digests, offset, attrs);
+					next = offset + interval;
+				}
+			}
+		}
+
+		byte[][] results = new byte[digests.length][];
+		for (int i = 0; i < digests.length; i++) {
+			results[i] = new byte[digests[i].getDigestSize()];
+			digests[i].doFinal(results[i], 0);
+		}
+		try {
+			Files.deleteIfExists(checkpointFile);
+		}
+		catch (IOException e) {
+			// a stale checkpoint is ignored once the file changes
+		}
+		return results;
+	}
+
+
+	/*
+	 * Restores the digests from the checkpoint and returns its offset, or
+	 * returns 0 and leaves them fresh if there is no checkpoint for this
+	 * version of the file and these algorithms.
+	 */
+	private long load(String[] algorithms, Digest[] digests, BasicFileAttributes attrs) {
+		byte[] record;
+		try {
+			record = Files.readAllBytes(checkpointFile);
+			if (record.length < CHECKSUM_LENGTH) {
+				return 0;
+			}
+			int length = record.length - CHECKSUM_LENGTH;
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			md.update(record, 0, length);
+			if (!MessageDigest.isEqual(md.digest(), Arrays.copyOfRange(record, length, record.length))) {
+				return 0;
+			}
+			record = Arrays.copyOf(record, length);
+		}
+		catch (IOException | GeneralSecurityException | RuntimeException e) {
+			return 0;
+		}
+
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION
+					|| in.readLong() != attrs.size()
+					|| in.readLong() != attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+					|| !in.readUTF().equals(keyOf(attrs))
+					|| in.readInt() != algorithms.length) {
+				return 0;
+			}
+			Digest[] restored = new Digest[algorithms.length];
+			for (int i = 0; i < algorithms.length; i++) {
+				if (!in.readUTF().equals(algorithms[i])) {
+					return 0;
+				}
+				byte[] state = new byte[in.readInt()];
+				in.readFully(state);
+				restored[i] = create(algorithms[i], state);
+			}
+			long offset = in.readLong();
+			if (offset < 0 || offset > attrs.size() || in.available() != 0) {
+				return 0;
+			}
+			System.arraycopy(restored, 0, digests, 0, digests.length);
+			return offset;
+		}
+		catch (IOException | RuntimeException e) {
+			// missing, truncated or corrupt: start over
+			return 0;
+		}
+	}
+
+
+	/*
+	 * Atomically replaces the checkpoint with one that is on disk; returns
+	 * false if it could not be written.
+	 */
+	private boolean save(String[] algorithms, Digest[] digests, long offset, BasicFileAttributes attrs) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (DataOutputStream out = new DataOutputStream(bytes)) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(attrs.size());
+				out.writeLong(attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+				out.writeUTF(keyOf(attrs));
+				out.writeInt(algorithms.length);
+				for (int i = 0; i < algorithms.length; i++) {
+					byte[] state = ((EncodableDigest) digests[i]).getEncodedState();
+					out.writeUTF(algorithms[i]);
+					out.writeInt(state.length);
+					out.write(state);
+				}
+				out.writeLong(offset);
+				out.write(MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray()));
+			}
+
+			Path dir = checkpointFile.toAbsolutePath().getParent();
+			Path tmp = Files.createTempFile(dir, checkpointFile.getFileName().toString(), ".tmp");
+			try {
+				try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+					ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+					while (record.hasRemaining()) {
+						fc.write(record);
+					}
+					fc.force(true);
+				}
+				try {
+					Files.move(tmp, checkpointFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				}
+				catch (AtomicMoveNotSupportedException e) {
+					Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+			finally {
+				Files.deleteIfExists(tmp);
+			}
+			return true;
+		}
+		catch (IOException | GeneralSecurityException e) {
+			return false;
+		}
+	}
+
+
+	private static String keyOf(BasicFileAttributes attrs) {
+		Object key = attrs.fileKey();
+		return (key != null) ? key.toString() : "";
+	}
+}
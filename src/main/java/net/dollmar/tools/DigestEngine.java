@@ -0,0 +1,82 @@
+package net.dollmar.tools;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+import javax.crypto.Mac;
+
+/**
+ * A thin common view over a {@link MessageDigest} or an initialised
+ * {@link Mac}, so that the file read loops can feed plain digests and HMACs
+ * alike without caring which one they are talking to.
+ */
+public abstract class DigestEngine {
+
+	public abstract String getAlgorithm();
+
+	public abstract void update(byte[] input, int offset, int len);
+
+	/**
+	 * Consumes the remaining bytes of the buffer, advancing its position
+	 * to its limit.
+	 */
+	public abstract void update(ByteBuffer input);
+
+	/**
+	 * Completes the calculation and resets the engine for further use.
+	 */
+	public abstract byte[] doFinal();
+
+
+	/*
+	 * The engines count towards the Metrics when these are enabled.
+	 */
+	public static DigestEngine of(final MessageDigest md) {
+		return Metrics.instrument(new DigestEngine() {
+			@Override
+			public String getAlgorithm() {
+				return md.getAlgorithm();
+			}
+
+			@Override
+			public void update(byte[] input, int offset, int len) {
+				md.update(input, offset, len);
+			}
+
+			@Override
+			public void update(ByteBuffer input) {
+				md.update(input);
+			}
+
+			@Override
+			public byte[] doFinal() {
+				return md.digest();
+			}
+		});
+	}
+
+
+	public static DigestEngine of(final Mac mac) {
+		return Metrics.instrument(new DigestEngine() {
+			@Override
+			public String getAlgorithm() {
+				return mac.getAlgorithm();
+			}
+
+			@Override
+			public void update(byte[] input, int offset, int len) {
+				mac.update(input, offset, len);
+			}
+
+			@Override
+			public void update(ByteBuffer input) {
+				mac.update(input);
+			}
+
+			@Override
+			public byte[] doFinal() {
+				return mac.doFinal();
+			}
+		});
+	}
+}
@@ -0,0 +1,40 @@
+package net.dollmar.tools;
+
+/**
+ * Receives progress from a running file calculation and lets the caller
+ * cancel it. The read loops check {@link #isCancelled()} once per buffer,
+ * so a cancellation takes effect promptly.
+ * 
+ * Progress callbacks are made on the thread doing the reading and
+ * completion callbacks on whichever thread finished the algorithm; an
+ * implementation that updates a GUI has to hand them over itself.
+ */
+public interface DigestMonitor {
+
+	DigestMonitor NONE = new DigestMonitor() {};
+
+	/**
+	 * Called once before reading starts; the total is -1 if unknown.
+	 */
+	default void started(long totalBytes) {}
+
+	/**
+	 * Called after started if reading continues from a checkpoint rather
+	 * than from the start; progress counts from bytesDone on.
+	 */
+	default void resumed(long bytesDone) {}
+
+	/**
+	 * Called after each buffer with the number of bytes read so far.
+	 */
+	default void progress(long bytesDone) {}
+
+	default boolean isCancelled() {
+		return false;
+	}
+
+	/**
+	 * Called as soon as the result for algorithms[index] is available.
+	 */
+	default void completed(int index, String result) {}
+}
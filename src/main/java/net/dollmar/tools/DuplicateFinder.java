@@ -0,0 +1,553 @@
+package net.dollmar.tools;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds files with identical contents while reading as little as possible.
+ * The trees are walked once, collecting each file's size and identity. A
+ * file whose size no other file has cannot have a duplicate and is never
+ * opened. Files that share a size have their first and last
+ * {@link #setSampleSize(int) sampleSize} bytes hashed, and only files that
+ * still agree on those are hashed in full with
+ * {@link HashCalculator#calculateFileHash(String, String, ReadMode, boolean, boolean)}.
+ * Small files, where the samples would cover most of the file anyway, go
+ * straight to the full hash. Unless the algorithm is
+ * {@link #isCollisionResistant(String) collision resistant}, files whose
+ * digests agree are then compared byte by byte, so that the fast
+ * non-cryptographic hashes can be used without trusting them.
+ *
+ * Hard links are recognised by their file key (device and inode) and are
+ * read once, as one file with several names; names that only link to the
+ * same file are not reported as duplicates, as removing them frees nothing.
+ * A file reached twice through overlapping inputs is counted once.
+ * Symbolic links are not followed and empty files are ignored.
+ */
+public class DuplicateFinder {
+
+	public static final int DEFAULT_SAMPLE_SIZE = 4096;
+
+	private static final Set<String> COLLISION_RESISTANT = Set.of("SHA256", "SHA384", "SHA512", "BLAKE3", "WHIRLPOOL");
+
+	/**
+	 * Receives the results once the search is over, on the thread that
+	 * called {@link DuplicateFinder#find(List, Listener)}.
+	 */
+	public interface Listener {
+		void duplicates(Group group);
+
+		void error(String name, String message);
+	}
+
+	/**
+	 * Files with the same contents. Each element of {@link #getFiles()} is
+	 * one file: the names it was found under, several if hard linked.
+	 */
+	public static final class Group {
+		private final String digest;
+		private final long size;
+		private final List<List<String>> files;
+
+		Group(String digest, long size, List<List<String>> files) {
+			this.digest = digest;
+			this.size = size;
+			this.files = Collections.unmodifiableList(files);
+		}
+
+		/*
+		 * The digest of the contents, encoded as set with setEncoding.
+		 */
+		public String getDigest() {
+			return digest;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public List<List<String>> getFiles() {
+			return files;
+		}
+
+		/*
+		 * The space freed by keeping a single copy.
+		 */
+		public long getReclaimable() {
+			return size * (files.size() - 1);
+		}
+	}
+
+	private final String algorithm;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private int virtualThreads;
+	private int sampleSize = DEFAULT_SAMPLE_SIZE;
+	private boolean hexEncodedResult = true;
+	private boolean upperCasedResult;
+
+	private long filesFound;
+	private long bytesFound;
+	private long bytesSampled;
+	private long bytesHashed;
+	private long bytesCompared;
+	private long filesHashed;
+
+
+	/**
+	 * A file, possibly under several names.
+	 */
+	private static final class Node {
+		final long size;
+		final TreeSet<String> names = new TreeSet<>();
+		String sample;
+		String digest;
+		// the file compared with, and whether the contents were the same
+		Node original;
+		Boolean same;
+
+		Node(long size) {
+			this.size = size;
+		}
+	}
+
+
+	public DuplicateFinder(String algorithm) {
+		this.algorithm = algorithm;
+	}
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Reads each file on a virtual thread of its own, at most concurrency
+	 * of them at a time; 0, the default, uses parallelism platform threads.
+	 */
+	public void setVirtualThreads(int concurrency) {
+		this.virtualThreads = Math.max(0, concurrency);
+	}
+
+	/**
+	 * The number of bytes hashed from each end of a file before it is read
+	 * in full.
+	 */
+	public void setSampleSize(int sampleSize) {
+		this.sampleSize = Math.max(1, sampleSize);
+	}
+
+	/**
+	 * The encoding of the digests of the groups; lower case hex by default.
+	 */
+	public void setEncoding(boolean hexEncodedResult, boolean upperCasedResult) {
+		this.hexEncodedResult = hexEncodedResult;
+		this.upperCasedResult = upperCasedResult;
+	}
+
+	/*
+	 * Regular, non-empty files seen, hard links counted once.
+	 */
+	public long getFilesFound() {
+		return filesFound;
+	}
+
+	public long getBytesFound() {
+		return bytesFound;
+	}
+
+	/*
+	 * Bytes read for the samples at both ends of files.
+	 */
+	public long getBytesSampled() {
+		return bytesSampled;
+	}
+
+	/*
+	 * Bytes read for full hashes.
+	 */
+	public long getBytesHashed() {
+		return bytesHashed;
+	}
+
+	/*
+	 * Bytes read to compare files whose digests agree, counting both files
+	 * of each comparison.
+	 */
+	public long getBytesCompared() {
+		return bytesCompared;
+	}
+
+	public long getFilesHashed() {
+		return filesHashed;
+	}
+
+
+	/*
+	 * Whether equal digests of the algorithm can be taken for equal contents;
+	 * if not, the files are compared as well.
+	 */
+	public static boolean isCollisionResistant(String algorithm) {
+		return COLLISION_RESISTANT.contains(algorithm.toUpperCase().replace("-", ""));
+	}
+
+
+	/*
+	 * Searches all the inputs, files and directories alike, as one set and
+	 * reports every group of duplicates, largest files first.
+	 */
+	public void find(List<String> inputs, Listener listener) throws InterruptedIOException {
+		Map<Long, List<Node>> bySize = scan(inputs, listener);
+
+		ExecutorService executor = (virtualThreads > 0)
+				? VirtualThreads.newExecutor(virtualThreads, "hasher-dedup")
+				: Executors.newFixedThreadPool(parallelism, r -> {
+					Thread t = new Thread(r, "hasher-dedup");
+					t.setDaemon(true);
+					return t;
+				});
+		try {
+			// sizes shared by more than one file, and of those the large ones need sampling
+			List<Node> sampled = new ArrayList<>();
+			List<List<Node>> candidates = new ArrayList<>();
+			for (List<Node> nodes : bySize.values()) {
+				if (nodes.size() < 2) {
+					continue;
+				}
+				if (nodes.get(0).size > 2L * sampleSize) {
+					sampled.addAll(nodes);
+				}
+				else {
+					candidates.add(nodes);
+				}
+			}
+
+			run(executor, sampled, node -> node.sample = sample(node), listener);
+			Map<String, List<Node>> bySample = new LinkedHashMap<>();
+			for (Node node : sampled) {
+				if (node.sample != null) {
+					bySample.computeIfAbsent(node.size + ":" + node.sample, k -> new ArrayList<>()).add(node);
+				}
+			}
+			for (List<Node> nodes : bySample.values()) {
+				if (nodes.size() > 1) {
+					candidates.add(nodes);
+				}
+			}
+
+			List<Node> hashed = new ArrayList<>();
+			for (List<Node> nodes : candidates) {
+				hashed.addAll(nodes);
+			}
+			run(executor, hashed, node -> node.digest = digest(node), listener);
+			List<List<Node>> groups = byDigest(hashed);
+			if (!isCollisionResistant(algorithm)) {
+				groups = compare(executor, groups, listener);
+			}
+			report(groups, listener);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+
+	/*
+	 * Walks the inputs and groups the files found by size, merging the
+	 * names of hard linked files into one node. A file reached more than
+	 * once under the same real path, through repeated or overlapping
+	 * inputs, keeps only the name it was first found under. Where the file
+	 * system has no file keys the real path stands in for one, so hard
+	 * links are not recognised there but repeated names still are.
+	 */
+	private Map<Long, List<Node>> scan(List<String> inputs, Listener listener) {
+		Map<Long, List<Node>> bySize = new HashMap<>();
+		Map<Object, Node> byKey = new HashMap<>();
+		Set<Path> seen = new HashSet<>();
+		SimpleFileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (!attrs.isRegularFile() || attrs.size() == 0) {
+					return FileVisitResult.CONTINUE;
+				}
+				Path real;
+				try {
+					real = file.toRealPath(LinkOption.NOFOLLOW_LINKS);
+				}
+				catch (IOException e) {
+					listener.error(file.toString(), TreeHasher.describe(e));
+					return FileVisitResult.CONTINUE;
+				}
+				if (!seen.add(real)) {
+					return FileVisitResult.CONTINUE;
+				}
+				Object key = (attrs.fileKey() != null) ? attrs.fileKey() : real;
+				Node node = byKey.get(key);
+				if (node == null) {
+					node = new Node(attrs.size());
+					byKey.put(key, node);
+					bySize.computeIfAbsent(attrs.size(), k -> new ArrayList<>()).add(node);
+					filesFound++;
+					bytesFound += attrs.size();
+				}
+				node.names.add(file.toString());
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				listener.error(file.toString(), TreeHasher.describe(e));
+				return FileVisitResult.CONTINUE;
+			}
+		};
+		for (String input : inputs) {
+			try {
+				Files.walkFileTree(Paths.get(input), visitor);
+			}
+			catch (IOException e) {
+				listener.error(input, TreeHasher.describe(e));
+			}
+		}
+		return bySize;
+	}
+
+
+	@FunctionalInterface
+	private interface Step {
+		void apply(Node node) throws IOException;
+	}
+
+
+	/*
+	 * Applies the step to every node in parallel; a node that fails is
+	 * reported and left out of the later stages.
+	 */
+	private void run(ExecutorService executor, List<Node> nodes, Step step, Listener listener) throws InterruptedIOException {
+		List<Future<?>> futures = new ArrayList<>(nodes.size());
+		for (Node node : nodes) {
+			futures.add(executor.submit(() -> {
+				step.apply(node);
+				return null;
+			}));
+		}
+		for (int i = 0; i < nodes.size(); i++) {
+			try {
+				futures.get(i).get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Search interrupted");
+			}
+			catch (ExecutionException e) {
+				listener.error(nodes.get(i).names.first(), TreeHasher.describe(e.getCause()));
+			}
+		}
+	}
+
+
+	/*
+	 * The hex digest of the first and last sampleSize bytes, read with two
+	 * positional reads.
+	 */
+	private String sample(Node node) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(2 * sampleSize);
+		try (FileChannel fc = FileChannel.open(Paths.get(node.names.first()), StandardOpenOption.READ)) {
+			readFully(fc, buffer, 0, sampleSize);
+			readFully(fc, buffer, node.size - sampleSize, sampleSize);
+		}
+		try {
+			MessageDigest md = EnginePool.digest(algorithm);
+			md.update(buffer.array(), 0, buffer.position());
+			return Codec.toHex(md.digest(), false);
+		}
+		catch (GeneralSecurityException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+
+	private void readFully(FileChannel fc, ByteBuffer buffer, long position, int len) throws IOException {
+		buffer.limit(buffer.position() + len);
+		while (buffer.hasRemaining()) {
+			long start = Metrics.start();
+			int n = fc.read(buffer, position);
+			Metrics.read(start, n);
+			if (n == -1) {
+				// shrunk since the walk; the full hash will tell
+				break;
+			}
+			position += n;
+			synchronized (this) {
+				bytesSampled += n;
+			}
+		}
+	}
+
+
+	private String digest(Node node) throws IOException {
+		String digest = HashCalculator.calculateFileHash(algorithm, node.names.first(),
+				(node.size >= TreeHasher.DEFAULT_LARGE_FILE_THRESHOLD) ? ReadMode.PARALLEL : ReadMode.STREAM,
+				hexEncodedResult, upperCasedResult);
+		if (digest.startsWith("Error: ")) {
+			throw new IOException(digest.substring("Error: ".length()));
+		}
+		synchronized (this) {
+			filesHashed++;
+			bytesHashed += node.size;
+		}
+		return digest;
+	}
+
+
+	/*
+	 * The hashed files grouped by size and digest, groups of one left out.
+	 */
+	private static List<List<Node>> byDigest(List<Node> hashed) {
+		Map<String, List<Node>> byDigest = new LinkedHashMap<>();
+		for (Node node : hashed) {
+			if (node.digest != null) {
+				byDigest.computeIfAbsent(node.size + ":" + node.digest, k -> new ArrayList<>()).add(node);
+			}
+		}
+		List<List<Node>> groups = new ArrayList<>();
+		for (List<Node> nodes : byDigest.values()) {
+			if (nodes.size() > 1) {
+				groups.add(nodes);
+			}
+		}
+		return groups;
+	}
+
+
+	/*
+	 * Splits the groups into files with really identical contents: each
+	 * file is compared with the first of its group, all groups at once, and
+	 * the files that differ from it, if any, go round again.
+	 */
+	private List<List<Node>> compare(ExecutorService executor, List<List<Node>> groups, Listener listener) throws InterruptedIOException {
+		List<List<Node>> confirmed = new ArrayList<>();
+		while (!groups.isEmpty()) {
+			List<Node> compared = new ArrayList<>();
+			for (List<Node> nodes : groups) {
+				for (Node node : nodes.subList(1, nodes.size())) {
+					node.original = nodes.get(0);
+					node.same = null;
+					compared.add(node);
+				}
+			}
+			run(executor, compared, node -> node.same = sameContents(node.original, node), listener);
+
+			List<List<Node>> remaining = new ArrayList<>();
+			for (List<Node> nodes : groups) {
+				List<Node> same = new ArrayList<>();
+				List<Node> different = new ArrayList<>();
+				same.add(nodes.get(0));
+				for (Node node : nodes.subList(1, nodes.size())) {
+					if (Boolean.TRUE.equals(node.same)) {
+						same.add(node);
+					}
+					else if (Boolean.FALSE.equals(node.same)) {
+						different.add(node);
+					}
+				}
+				if (same.size() > 1) {
+					confirmed.add(same);
+				}
+				if (different.size() > 1) {
+					remaining.add(different);
+				}
+			}
+			groups = remaining;
+		}
+		return confirmed;
+	}
+
+
+	/*
+	 * Reads both files side by side, up to the first difference.
+	 */
+	private boolean sameContents(Node a, Node b) throws IOException {
+		int size = MultiDigest.getBufferSize();
+		ByteBuffer bufferA = ByteBuffer.allocate(size);
+		ByteBuffer bufferB = ByteBuffer.allocate(size);
+		try (FileChannel fa = FileChannel.open(Paths.get(a.names.first()), StandardOpenOption.READ);
+				FileChannel fb = FileChannel.open(Paths.get(b.names.first()), StandardOpenOption.READ)) {
+			long position = 0;
+			while (true) {
+				bufferA.clear();
+				bufferB.clear();
+				int na = fill(fa, bufferA, position);
+				int nb = fill(fb, bufferB, position);
+				synchronized (this) {
+					bytesCompared += na + nb;
+				}
+				if (na != nb || !Arrays.equals(bufferA.array(), 0, na, bufferB.array(), 0, nb)) {
+					return false;
+				}
+				if (na < size) {
+					return true;
+				}
+				position += na;
+			}
+		}
+	}
+
+
+	/*
+	 * Fills the buffer from the position on, short only at the end of the
+	 * file; returns the number of bytes read.
+	 */
+	private static int fill(FileChannel fc, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			long start = Metrics.start();
+			int n = fc.read(buffer, position + buffer.position());
+			Metrics.read(start, n);
+			if (n == -1) {
+				break;
+			}
+		}
+		return buffer.position();
+	}
+
+
+	private void report(List<List<Node>> candidates, Listener listener) {
+		List<Group> groups = new ArrayList<>();
+		for (List<Node> nodes : candidates) {
+			nodes.sort((a, b) -> a.names.first().compareTo(b.names.first()));
+			List<List<String>> files = new ArrayList<>();
+			for (Node node : nodes) {
+				files.add(new ArrayList<>(node.names));
+			}
+			groups.add(new Group(nodes.get(0).digest, nodes.get(0).size, files));
+		}
+		groups.sort((a, b) -> (a.size != b.size)
+				? Long.compare(b.size, a.size)
+				: a.files.get(0).get(0).compareTo(b.files.get(0).get(0)));
+		for (Group group : groups) {
+			listener.duplicates(group);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package net.dollmar.tools;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Per-thread caches of {@link MessageDigest} and initialised {@link Mac}
+ * instances. Looking up an engine through the provider framework and
+ * initialising a Mac with its key costs far more than hashing a short
+ * message, so the calculators take their engines from here instead.
+ *
+ * An engine is reset when it is handed out and stays bound to the calling
+ * thread; it must not be used again by that thread before the current use
+ * is over. Initialised Macs are keyed by algorithm and key, and at most
+ * {@link #MAX_MACS_PER_THREAD} of them are kept, least recently used first
+ * out. New engines come from the provider chosen by {@link ProviderSelector}.
+ * On the virtual threads of {@link VirtualThreads} executors the caches are
+ * handed on from one thread to the next.
+ */
+public final class EnginePool {
+
+	public static final int MAX_MACS_PER_THREAD = 16;
+
+	private static final ThreadLocal<Map<String, MessageDigest>> DIGESTS = 
+			VirtualThreads.carried(HashMap::new);
+
+	private static final ThreadLocal<Map<MacKey, Mac>> MACS = 
+			VirtualThreads.carried(() -> new LinkedHashMap<MacKey, Mac>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<MacKey, Mac> eldest) {
+					return size() > MAX_MACS_PER_THREAD;
+				}
+			});
+
+
+	private static final class MacKey {
+		private final String algorithm;
+		private final byte[] key;
+		private final int hash;
+
+		MacKey(String algorithm, byte[] key) {
+			this.algorithm = algorithm;
+			this.key = key.clone();
+			this.hash = 31 * algorithm.hashCode() + Arrays.hashCode(key);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof MacKey)) {
+				return false;
+			}
+			MacKey other = (MacKey) o;
+			return hash == other.hash && algorithm.equals(other.algorithm) && Arrays.equals(key, other.key);
+		}
+	}
+
+
+	private EnginePool() {}
+
+
+	public static MessageDigest digest(String algorithm) throws GeneralSecurityException {
+		Map<String, MessageDigest> digests = DIGESTS.get();
+		MessageDigest md = digests.get(algorithm);
+		if (md == null) {
+			md = ProviderSelector.newDigest(algorithm);
+			digests.put(algorithm, md);
+		}
+		else {
+			md.reset();
+		}
+		return md;
+	}
+
+
+	public static Mac mac(String algorithm, byte[] key) throws GeneralSecurityException {
+		Map<MacKey, Mac> macs = MACS.get();
+		MacKey mk = new MacKey(algorithm, key);
+		Mac mac = macs.get(mk);
+		if (mac == null) {
+			mac = ProviderSelector.newMac(algorithm);
+			mac.init(new SecretKeySpec(key, algorithm));
+			macs.put(mk, mac);
+		}
+		else {
+			// back to the state right after init
+			mac.reset();
+		}
+		return mac;
+	}
+}
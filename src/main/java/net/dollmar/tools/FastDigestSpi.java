@@ -0,0 +1,81 @@
+package net.dollmar.tools;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigestSpi;
+
+/**
+ * Common base of the digests of {@link FastHashProvider}. Arrays and
+ * buffers, heap or direct, all reach {@link #update(ByteBuffer, int, int)}
+ * as a little endian view read with absolute indexes, so each algorithm
+ * has a single read loop and direct buffers are read in place rather than
+ * copied out 4 KiB at a time as {@link MessageDigestSpi} does by default.
+ */
+abstract class FastDigestSpi extends MessageDigestSpi {
+
+	private final byte[] single = new byte[1];
+	private final int length;
+
+
+	FastDigestSpi(int length) {
+		this.length = length;
+	}
+
+
+	/*
+	 * Consumes len bytes of the little endian buffer from index pos on,
+	 * leaving its position alone.
+	 */
+	abstract void update(ByteBuffer in, int pos, int len);
+
+	/*
+	 * The digest of everything consumed since the last reset; the caller
+	 * resets afterwards.
+	 */
+	abstract byte[] digest();
+
+
+	@Override
+	protected int engineGetDigestLength() {
+		return length;
+	}
+
+	@Override
+	protected void engineUpdate(byte input) {
+		single[0] = input;
+		update(ByteBuffer.wrap(single).order(ByteOrder.LITTLE_ENDIAN), 0, 1);
+	}
+
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int len) {
+		if (len > 0) {
+			update(ByteBuffer.wrap(input).order(ByteOrder.LITTLE_ENDIAN), offset, len);
+		}
+	}
+
+	@Override
+	protected void engineUpdate(ByteBuffer input) {
+		int len = input.remaining();
+		if (len > 0) {
+			update(input.duplicate().order(ByteOrder.LITTLE_ENDIAN), input.position(), len);
+			input.position(input.limit());
+		}
+	}
+
+	@Override
+	protected byte[] engineDigest() {
+		byte[] digest = digest();
+		engineReset();
+		return digest;
+	}
+
+
+	static byte[] bigEndian(long value, int bytes) {
+		byte[] out = new byte[bytes];
+		for (int i = bytes - 1; i >= 0; i--) {
+			out[i] = (byte) value;
+			value >>>= 8;
+		}
+		return out;
+	}
+}
@@ -0,0 +1,26 @@
+package net.dollmar.tools;
+
+import java.security.Provider;
+
+/**
+ * A security provider for the algorithms neither the JDK nor BouncyCastle
+ * offer: the non-cryptographic XXH64, XXH3 and CRC32C, meant for
+ * duplicate and change detection, and BLAKE3. Installed next to
+ * BouncyCastle, it makes them available to every path that looks engines
+ * up through {@link ProviderSelector}.
+ */
+public final class FastHashProvider extends Provider {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String NAME = "Hasher";
+
+
+	public FastHashProvider() {
+		super(NAME, "1.0", "Hasher fast digests (XXH64, XXH3, CRC32C, BLAKE3)");
+		put("MessageDigest.XXH64", XxHash64.class.getName());
+		put("MessageDigest.XXH3", Xxh3.class.getName());
+		put("MessageDigest.CRC32C", Crc32cDigest.class.getName());
+		put("MessageDigest.BLAKE3", Blake3.class.getName());
+	}
+}
@@ -1,16 +1,16 @@
 package net.dollmar.tools;
 
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.security.DigestInputStream;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
-import java.util.Base64;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.apache.commons.codec.DecoderException;
-import org.apache.commons.codec.binary.Hex;
 
 public class HashCalculator {
 
@@ -19,27 +19,18 @@ public class HashCalculator {
 
 	public static byte[] dataToBytes(String data, DataLabel encoding) throws DecoderException {
 		switch (encoding) {
-		case TEXT: return data.getBytes(Charset.forName("UTF-8")); 
-		case HEX: return  Hex.decodeHex(data); 
-		case BASE64: return  Base64.getDecoder().decode(data); 
+		case TEXT: return data.getBytes(StandardCharsets.UTF_8); 
+		case HEX: return  Codec.fromHex(data); 
+		case BASE64: return  Codec.fromBase64(data); 
 		default:
 			return null;
 		}
 	}
 	
 	public static String bytesToString(final byte[] bytes, boolean hexEncodedResult, boolean upperCasedResult) {
-		String result = null;
-		if (hexEncodedResult) {
-			result = Hex.encodeHexString(bytes);
-			if (upperCasedResult) {
-				result = result.toUpperCase();
-			}
-		}
-		else {
-			result = Base64.getEncoder().encodeToString(bytes);
-		}
-
-		return result;
+		return hexEncodedResult 
+				? Codec.toHex(bytes, upperCasedResult) 
+				: Codec.toBase64(bytes);
 	}
 
 	
@@ -57,7 +48,7 @@ public class HashCalculator {
 				return "Error: Invalid data encoding."; 
 			}
 
-			MessageDigest md = MessageDigest.getInstance(algorithm, SEC_PROVIDER);
+			MessageDigest md = EnginePool.digest(algorithm);
 			md.update(dataBytes);
 			byte[] hashBytes = md.digest();
 			return bytesToString(hashBytes, hexEncodedResult, upperCasedResult);
@@ -75,31 +66,218 @@ public class HashCalculator {
 			boolean hexEncodedResult,
 			boolean upperCasedResult) 
 	{
-		DigestInputStream dis = null;
 		try {
-			MessageDigest md = MessageDigest.getInstance(algorithm, SEC_PROVIDER);
-			BufferedInputStream bis = new BufferedInputStream(new FileInputStream(fileName));
-			dis = new DigestInputStream(bis, md); 
-
-			while (dis.read() != -1) {
-				// read the file
-			}
+			MessageDigest md = EnginePool.digest(algorithm);
+			MultiDigest.digestFile(fileName, new DigestEngine[] { DigestEngine.of(md) });
 			byte[] hashBytes = md.digest();
 			return bytesToString(hashBytes, hexEncodedResult, upperCasedResult);
 		}
 		catch (GeneralSecurityException | IOException e) {
 			return "Error: " + e.getMessage();
 		}
-		finally {
-			if (dis != null) {
-				try {
-					dis.close();
-				}
-				catch(IOException e) {
-					//
+	}
+
+
+	public static String calculateFileHash(
+			final String algorithm, 
+			final String fileName,
+			ReadMode mode,
+			boolean hexEncodedResult,
+			boolean upperCasedResult) 
+	{
+		return calculateFileHashes(new String[] { algorithm }, fileName, mode, hexEncodedResult, upperCasedResult)[0];
+	}
+
+
+	/*
+	 * Calculates the hash of the file contents for each of the given algorithms
+	 * while reading the file only once. The result for algorithms[i] is returned
+	 * in element i; failures are reported in the same "Error: " form as the single
+	 * algorithm variant.
+	 */
+	public static String[] calculateFileHashes(
+			final String[] algorithms, 
+			final String fileName,
+			boolean hexEncodedResult,
+			boolean upperCasedResult) 
+	{
+		return calculateFileHashes(algorithms, fileName, ReadMode.STREAM, hexEncodedResult, upperCasedResult);
+	}
+
+
+	public static String[] calculateFileHashes(
+			final String[] algorithms, 
+			final String fileName,
+			ReadMode mode,
+			boolean hexEncodedResult,
+			boolean upperCasedResult) 
+	{
+		return calculateFileHashes(algorithms, fileName, mode, DigestMonitor.NONE, hexEncodedResult, upperCasedResult);
+	}
+
+
+	public static String[] calculateFileHashes(
+			final String[] algorithms, 
+			final String fileName,
+			ReadMode mode,
+			DigestMonitor monitor,
+			boolean hexEncodedResult,
+			boolean upperCasedResult) 
+	{
+		String[] results = new String[algorithms.length];
+		DigestEngine[] engines = createEngines(algorithms, results, monitor);
+		return digest(engines, results, MultiDigest.file(fileName, mode), monitor, hexEncodedResult, upperCasedResult);
+	}
+
+
+	/*
+	 * Calculates the hash of the file for each of the given algorithms in a
+	 * single sequential pass that can be resumed, see DigestCheckpoint. Only
+	 * algorithms whose state can be saved are supported.
+	 */
+	public static String[] calculateResumableFileHashes(
+			final String[] algorithms, 
+			final String fileName,
+			long checkpointInterval,
+			DigestMonitor monitor,
+			boolean hexEncodedResult,
+			boolean upperCasedResult) 
+	{
+		String[] results = new String[algorithms.length];
+		long start = Metrics.start();
+		try {
+			DigestCheckpoint checkpoint = new DigestCheckpoint(fileName);
+			checkpoint.setInterval(checkpointInterval);
+			byte[][] digests = checkpoint.digest(algorithms, monitor);
+			for (int i = 0; i < digests.length; i++) {
+				results[i] = bytesToString(digests[i], hexEncodedResult, upperCasedResult);
+			}
+		}
+		catch (GeneralSecurityException | IOException e) {
+			Arrays.fill(results, "Error: " + e.getMessage());
+		}
+		for (int i = 0; i < results.length; i++) {
+			monitor.completed(i, results[i]);
+		}
+		if (Metrics.isEnabled()) {
+			Metrics.file(start, !results[0].startsWith("Error: "));
+		}
+		return results;
+	}
+
+
+	/*
+	 * Calculates the tree hash of the file, see MerkleTree for the format.
+	 * The leaves are hashed in parallel, so unlike calculateFileHash this is
+	 * not limited to a single core for one large file, but the result is a
+	 * different value.
+	 */
+	public static String calculateFileTreeHash(
+			final String algorithm, 
+			final String fileName,
+			int leafSize,
+			boolean hexEncodedResult,
+			boolean upperCasedResult) 
+	{
+		try {
+			byte[] root = MerkleTree.build(algorithm, fileName, leafSize).getRoot();
+			return bytesToString(root, hexEncodedResult, upperCasedResult);
+		}
+		catch (GeneralSecurityException | IOException e) {
+			return "Error: " + e.getMessage();
+		}
+	}
+
+
+	/*
+	 * Calculates the hash of everything that can be read from the stream, for
+	 * each of the given algorithms, in a single pass and with bounded memory.
+	 * The stream is read to its end but not closed.
+	 */
+	public static String[] calculateStreamHashes(
+			final String[] algorithms, 
+			final InputStream is,
+			boolean hexEncodedResult,
+			boolean upperCasedResult) 
+	{
+		String[] results = new String[algorithms.length];
+		DigestEngine[] engines = createEngines(algorithms, results, DigestMonitor.NONE);
+		return digest(engines, results, MultiDigest.stream(is), DigestMonitor.NONE, hexEncodedResult, upperCasedResult);
+	}
+
+
+	public static String[] calculateStreamHashes(
+			final String[] algorithms, 
+			final ReadableByteChannel channel,
+			boolean hexEncodedResult,
+			boolean upperCasedResult) 
+	{
+		String[] results = new String[algorithms.length];
+		DigestEngine[] engines = createEngines(algorithms, results, DigestMonitor.NONE);
+		return digest(engines, results, MultiDigest.channel(channel), DigestMonitor.NONE, hexEncodedResult, upperCasedResult);
+	}
+
+
+	/*
+	 * Creates one engine per algorithm; algorithms that are not available
+	 * get a null engine and an error result.
+	 */
+	private static DigestEngine[] createEngines(final String[] algorithms, final String[] results, DigestMonitor monitor) {
+		DigestEngine[] engines = new DigestEngine[algorithms.length];
+		Set<String> pooled = new HashSet<>();
+		for (int i = 0; i < algorithms.length; i++) {
+			try {
+				// a pooled engine can only serve one of the algorithms at a time
+				MessageDigest md = pooled.add(algorithms[i]) 
+						? EnginePool.digest(algorithms[i]) 
+						: ProviderSelector.newDigest(algorithms[i]);
+				engines[i] = DigestEngine.of(md);
+			}
+			catch (GeneralSecurityException e) {
+				results[i] = "Error: " + e.getMessage();
+				monitor.completed(i, results[i]);
+			}
+		}
+		return engines;
+	}
+
+
+	/*
+	 * Runs the prepared engines over the source and fills in the results of
+	 * those that are not null, reporting each one to the monitor as soon as
+	 * it is known.
+	 */
+	static String[] digest(
+			final DigestEngine[] engines,
+			final String[] results,
+			final MultiDigest.Source source,
+			DigestMonitor monitor,
+			boolean hexEncodedResult,
+			boolean upperCasedResult) 
+	{
+		long start = Metrics.start();
+		try {
+			source.digest(engines, monitor, i -> {
+				results[i] = bytesToString(engines[i].doFinal(), hexEncodedResult, upperCasedResult);
+				monitor.completed(i, results[i]);
+			});
+		}
+		catch (IOException e) {
+			for (int i = 0; i < engines.length; i++) {
+				if (engines[i] != null && results[i] == null) {
+					results[i] = "Error: " + e.getMessage();
+					monitor.completed(i, results[i]);
 				}
 			}
 		}
+		if (Metrics.isEnabled()) {
+			boolean ok = true;
+			for (String result : results) {
+				ok &= (result != null && !result.startsWith("Error: "));
+			}
+			Metrics.file(start, ok);
+		}
+		return results;
 	}
 
 }
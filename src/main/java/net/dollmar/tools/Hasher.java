@@ -7,9 +7,14 @@ import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.io.File;
 import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.swing.*;
 import javax.swing.filechooser.FileSystemView;
+import javax.swing.table.DefaultTableModel;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
@@ -101,29 +106,24 @@ public class Hasher extends JFrame {
 	}
 
 
-	private static DigestAlgorithm[] ALGOS = 
-		{
-				new DigestAlgorithm("MD5", "HmacMD5"),
-				new DigestAlgorithm("RIPEMD128", "HmacRIPEMD128"),
-				new DigestAlgorithm("RIPEMD160", "HmacRIPEMD160"),
-				new DigestAlgorithm("RIPEMD256", null),
-				new DigestAlgorithm("SHA1", "HmacSHA1"),
-				new DigestAlgorithm("SHA256", "HmacSHA256"),
-				new DigestAlgorithm("SHA384", "HmacSHA384"),
-				new DigestAlgorithm("SHA512", "HmacSHA512"),
-				new DigestAlgorithm("Tiger", null),
-				new DigestAlgorithm("Whirlpool", null)
-		};
+	private static DigestAlgorithm[] ALGOS = Algorithms.ALGOS;
 
 	private JComboBox<String> dataSource;
 	private JTextField dataToHash;
 	private JButton fsButton;
+	private JCheckBox resumable;
 
 	private JCheckBox hmac;
 	private JComboBox<String> keyFormat;
 	private JTextField hmacKey;
+	private JButton moreKeysBtn;
+
+	// keys HMAC'd in the same pass as the one in hmacKey
+	private final List<String> moreKeys = new ArrayList<>();
+	private final List<DataLabel> moreKeyFormats = new ArrayList<>();
 
 	private JButton calculateBtn;
+	private JButton cancelBtn;
 	private JButton clearBtn;
 	private JButton quitBtn;
 	
@@ -132,6 +132,17 @@ public class Hasher extends JFrame {
 
 	private DigestWidget[] digestWidgets = new DigestWidget[ALGOS.length];
 
+	private JProgressBar progressBar;
+	private JLabel progressInfo;
+
+	// calculations run one at a time, away from the event dispatch thread
+	private final ExecutorService calculator = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "hasher-calculator");
+		t.setDaemon(true);
+		return t;
+	});
+	private HashTask currentTask;
+
 	private void buildDisgestWidgets(JPanel parent) {
 		for (int i = 0; i < ALGOS.length; i++) {
 			digestWidgets[i] = new DigestWidget(ALGOS[i].algName, parent);
@@ -168,11 +179,27 @@ public class Hasher extends JFrame {
 		if (fsButton != null) {
 			fsButton.setEnabled(isFileSourceSelected());
 		}
+		setResumableState();
+	}
+
+	/*
+	 * Checkpoints are only kept for plain digests of files.
+	 */
+	private void setResumableState() {
+		if (resumable != null) {
+			resumable.setEnabled(isFileSourceSelected() && !isHmacSelected());
+		}
+	}
+
+	private boolean isResumableSelected() {
+		return (resumable != null) ? resumable.isEnabled() && resumable.isSelected() : false;
 	}
 
 	
 	/*
-	 * Performs calculation of Hash or HMAC values
+	 * Performs calculation of Hash or HMAC values. The inputs are gathered
+	 * here on the event dispatch thread; the calculation itself runs on the
+	 * background executor.
 	 */
 	private void calculateHashValues() {
 		// data source
@@ -186,40 +213,221 @@ public class Hasher extends JFrame {
 			this.showErrorMessageDialog("Error: Missing HMAC Key");
 			return;
 		}
-		
-		if (DataLabel.FILE.equals(ds)) {
-			String fileName = dataToHash.getText().trim();
-			for (int i = 0; i < digestWidgets.length; i++) {
-				DigestWidget dw = digestWidgets[i];
-				if (dw != null & dw.isEnabled() && dw.isSelected()) {
-					String result = null;
-					if (isHmacSelected()) {
-						result = HmacCalculator.calculateFileHmac(ALGOS[i].hmacAlgName, fileName, keyData, kf, hexEncodedOutput, upcasedOutput);
-					}
-					else {
-						result = HashCalculator.calculateFileHash(ALGOS[i].algName, fileName, hexEncodedOutput, upcasedOutput);
-					}
-					dw.setValue(result);
-				}
+
+		List<Integer> selected = new ArrayList<>();
+		for (int i = 0; i < digestWidgets.length; i++) {
+			DigestWidget dw = digestWidgets[i];
+			if (dw != null & dw.isEnabled() && dw.isSelected()) {
+				selected.add(i);
+			}
+		}
+		String[] algorithms = new String[selected.size()];
+		for (int j = 0; j < algorithms.length; j++) {
+			DigestAlgorithm da = ALGOS[selected.get(j)];
+			algorithms[j] = isHmacSelected() ? da.hmacAlgName : da.algName;
+			if (isResumableSelected() && !DigestCheckpoint.isSupported(algorithms[j])) {
+				this.showErrorMessageDialog("Error: Resumable hashing is not supported for " + algorithms[j]);
+				return;
+			}
+		}
+
+		clearHashValues();
+		currentTask = new HashTask(selected, algorithms, dataToHash.getText().trim(), ds, isHmacSelected() ? keyData : null, kf);
+		currentTask.setResumable(isResumableSelected());
+		if (isHmacSelected() && !moreKeys.isEmpty()) {
+			List<String> keys = new ArrayList<>(moreKeys);
+			List<DataLabel> formats = new ArrayList<>(moreKeyFormats);
+			keys.add(0, keyData);
+			formats.add(0, kf);
+			currentTask.setKeys(keys.toArray(new String[0]), formats.toArray(new DataLabel[0]));
+		}
+		setCalculating(true);
+		calculator.execute(currentTask);
+	}
+
+
+	private void setCalculating(boolean calculating) {
+		calculateBtn.setEnabled(!calculating);
+		cancelBtn.setEnabled(calculating);
+		setCursor(calculating ? CursorController.busyCursor : CursorController.defaultCursor);
+		if (calculating) {
+			progressBar.setValue(0);
+			progressBar.setIndeterminate(false);
+			progressInfo.setText(" ");
+		}
+	}
+
+
+	private void showProgress(long done, long resumed, long total, long startNanos) {
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		double rate = (seconds > 0) ? (done - resumed) / seconds : 0;
+		StringBuilder sb = new StringBuilder(String.format("%.1f MB/s", rate / (1024 * 1024)));
+		if (total > 0) {
+			progressBar.setValue((int) (done * 100 / total));
+			if (rate > 0) {
+				sb.append(", ETA ").append(formatDuration((long) ((total - done) / rate)));
 			}
 		}
 		else {
-			String messageData = dataToHash.getText().trim();
-			
-			for (int i = 0; i < digestWidgets.length; i++) {
-				DigestWidget dw = digestWidgets[i];
-				if (dw != null & dw.isEnabled() && dw.isSelected()) {
-					String result = null;
-					if (isHmacSelected()) {
-						result = HmacCalculator.calculateHmac(ALGOS[i].hmacAlgName, messageData, ds, keyData, kf, hexEncodedOutput, upcasedOutput);
-					}
-					else {
-						result = HashCalculator.calculateHash(ALGOS[i].algName, messageData, ds, hexEncodedOutput, upcasedOutput);
+			progressBar.setIndeterminate(true);
+		}
+		progressInfo.setText(sb.toString());
+	}
+
+
+	private static String formatDuration(long seconds) {
+		if (seconds >= 3600) {
+			return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+		}
+		return String.format("%d:%02d", seconds / 60, seconds % 60);
+	}
+
+
+	/*
+	 * One calculation run. Each result is published to its widget as soon as
+	 * its algorithm finishes; progress is pushed to the GUI at most every
+	 * PROGRESS_INTERVAL_MS so that the event queue is not flooded.
+	 */
+	private class HashTask extends SwingWorker<Void, Object[]> implements DigestMonitor {
+		private static final long PROGRESS_INTERVAL_MS = 200;
+		private final List<Integer> widgets;
+		private final String[] algorithms;
+		private final String input;
+		private final DataLabel dataSource;
+		private final String key;
+		private final DataLabel keyFormat;
+		private final boolean hexEncoded = hexEncodedOutput;
+		private final boolean upperCased = upcasedOutput;
+		private String[] keys;
+		private DataLabel[] keyFormats;
+		private String[][] matrix;
+		private boolean resumable;
+
+		private volatile long totalBytes = -1;
+		private volatile long resumedBytes;
+		private volatile long startNanos = System.nanoTime();
+		private long lastReport;
+
+		HashTask(List<Integer> widgets, String[] algorithms, String input, DataLabel dataSource, String key, DataLabel keyFormat) {
+			this.widgets = widgets;
+			this.algorithms = algorithms;
+			this.input = input;
+			this.dataSource = dataSource;
+			this.key = key;
+			this.keyFormat = keyFormat;
+		}
+
+		/*
+		 * Calculates the HMACs under all of the keys, the first of which is
+		 * the one shown in the digest widgets.
+		 */
+		void setKeys(String[] keys, DataLabel[] keyFormats) {
+			this.keys = keys;
+			this.keyFormats = keyFormats;
+		}
+
+		/*
+		 * Keeps checkpoints of a file's digests, so that a cancelled run or a
+		 * closed window can be picked up again later.
+		 */
+		void setResumable(boolean resumable) {
+			this.resumable = resumable;
+		}
+
+		@Override
+		protected Void doInBackground() {
+			if (keys != null) {
+				matrix = DataLabel.FILE.equals(dataSource)
+						? HmacCalculator.calculateFileHmacMatrix(algorithms, input, ReadMode.PARALLEL, this, keys, keyFormats, hexEncoded, upperCased)
+						: HmacCalculator.calculateHmacMatrix(algorithms, input, dataSource, keys, keyFormats, hexEncoded, upperCased);
+				for (int j = 0; j < algorithms.length; j++) {
+					publish(new Object[] { widgets.get(j), matrix[0][j] });
+				}
+			}
+			else if (DataLabel.FILE.equals(dataSource)) {
+				String[] results = (key != null)
+						? HmacCalculator.calculateFileHmacs(algorithms, input, ReadMode.PARALLEL, this, key, keyFormat, hexEncoded, upperCased)
+						: resumable
+						? HashCalculator.calculateResumableFileHashes(algorithms, input, DigestCheckpoint.DEFAULT_INTERVAL, this, hexEncoded, upperCased)
+						: HashCalculator.calculateFileHashes(algorithms, input, ReadMode.PARALLEL, this, hexEncoded, upperCased);
+				// picks up anything that failed before reading started
+				for (int j = 0; j < results.length; j++) {
+					publish(new Object[] { widgets.get(j), results[j] });
+				}
+			}
+			else {
+				for (int j = 0; j < algorithms.length && !isCancelled(); j++) {
+					String result = (key != null)
+							? HmacCalculator.calculateHmac(algorithms[j], input, dataSource, key, keyFormat, hexEncoded, upperCased)
+							: HashCalculator.calculateHash(algorithms[j], input, dataSource, hexEncoded, upperCased);
+					publish(new Object[] { widgets.get(j), result });
+				}
+			}
+			return null;
+		}
+
+		@Override
+		protected void process(List<Object[]> chunks) {
+			if (isCancelled()) {
+				return;
+			}
+			for (Object[] chunk : chunks) {
+				digestWidgets[(Integer) chunk[0]].setValue((String) chunk[1]);
+			}
+		}
+
+		@Override
+		protected void done() {
+			if (currentTask == this) {
+				currentTask = null;
+				setCalculating(false);
+				if (isCancelled()) {
+					progressInfo.setText("Cancelled");
+				}
+				else {
+					progressBar.setIndeterminate(false);
+					progressBar.setValue(100);
+					if (matrix != null) {
+						showHmacMatrix(algorithms, matrix);
 					}
-					dw.setValue(result);
 				}
 			}
 		}
+
+		@Override
+		public void started(long total) {
+			totalBytes = total;
+			startNanos = System.nanoTime();
+		}
+
+		@Override
+		public void resumed(long done) {
+			resumedBytes = done;
+		}
+
+		@Override
+		public void progress(long done) {
+			long now = System.currentTimeMillis();
+			if (now - lastReport >= PROGRESS_INTERVAL_MS) {
+				lastReport = now;
+				long total = totalBytes;
+				long resumed = resumedBytes;
+				long start = startNanos;
+				SwingUtilities.invokeLater(() -> {
+					if (currentTask == this) {
+						showProgress(done, resumed, total, start);
+					}
+				});
+			}
+		}
+
+		@Override
+		public void completed(int index, String result) {
+			// with several keys only those of the first one have a widget
+			if (index < widgets.size()) {
+				publish(new Object[] { widgets.get(index), result });
+			}
+		}
 	}
 
 	
@@ -255,12 +463,13 @@ public class Hasher extends JFrame {
 
 		JPanel dataPanel = new JPanel();
 		dataPanel.setBorder(BorderFactory.createTitledBorder("Data"));
-		dataPanel.setLayout(new GridLayout2(2, 3, 5, 0));
+		dataPanel.setLayout(new GridLayout2(2, 4, 5, 0));
 		contentPane.add(dataPanel);
 
 		dataPanel.add(new JLabel("Source")); 
 		dataPanel.add(new JLabel("Data"));
 		dataPanel.add(new JLabel(""));
+		dataPanel.add(new JLabel(""));
 
 		String sources[] = {DataLabel.TEXT.getLabel(), DataLabel.HEX.getLabel(), DataLabel.BASE64.getLabel(), DataLabel.FILE.getLabel()};
 		dataSource = new JComboBox<String>(sources);
@@ -299,14 +508,22 @@ public class Hasher extends JFrame {
 		});
 		dataPanel.add(fsButton);
 
+		resumable = new JCheckBox("Resumable");
+		resumable.setToolTipText("<html>Save the state of the digests to FILE" + DigestCheckpoint.SUFFIX 
+				+ " as the file is read, so that a cancelled run can be continued.<br>"
+				+ "MD5, SHA1 and SHA-2 only, and slower than normal hashing.</html>");
+		setResumableState();
+		dataPanel.add(resumable);
+
 		JPanel hmacPanel = new JPanel();
 		hmacPanel.setBorder(BorderFactory.createTitledBorder("HMAC"));
-		hmacPanel.setLayout(new GridLayout2(2, 3, 5, 0));
+		hmacPanel.setLayout(new GridLayout2(2, 4, 5, 0));
 		contentPane.add(hmacPanel);
 
 		hmacPanel.add(new JLabel()); 
 		hmacPanel.add(new JLabel("Key Format"));
 		hmacPanel.add(new JLabel("Key"));
+		hmacPanel.add(new JLabel(""));
 
 		hmac = new JCheckBox("Apply HMAC Key");
 		hmac.addItemListener(new ItemListener() {
@@ -315,6 +532,8 @@ public class Hasher extends JFrame {
 				boolean state = isHmacSelected();
 				if (keyFormat != null) keyFormat.setEnabled(state);
 				if (hmacKey != null) hmacKey.setEnabled(state);
+				if (moreKeysBtn != null) moreKeysBtn.setEnabled(state);
+				setResumableState();
 				setDisgestWidgets();
 				clearHashValues();
 			}
@@ -341,6 +560,17 @@ public class Hasher extends JFrame {
 		});
 		hmacPanel.add(hmacKey);
 
+		moreKeysBtn = new JButton("More Keys...");
+		moreKeysBtn.setToolTipText("Further keys, e.g. the old and new keys of a rotation, all calculated in one pass");
+		moreKeysBtn.setEnabled(hmac.isSelected());
+		moreKeysBtn.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent ae) {
+				editMoreKeys();
+			}
+		});
+		hmacPanel.add(moreKeysBtn);
+
 		// Result Encoding Panel
 		JPanel rePanel = new JPanel();
 		rePanel.setBorder(BorderFactory.createTitledBorder("Output Encoding"));
@@ -394,21 +624,45 @@ public class Hasher extends JFrame {
 		
 		this.buildDisgestWidgets(resultsPanel);
 
+		JPanel progressPanel = new JPanel();
+		progressPanel.setBorder(BorderFactory.createTitledBorder("Progress"));
+		progressPanel.setLayout(new GridLayout2(2, 1, 5, 5));
+		contentPane.add(progressPanel);
+
+		progressBar = new JProgressBar(0, 100);
+		progressBar.setStringPainted(true);
+		progressPanel.add(progressBar);
+		progressInfo = new JLabel(" ", JLabel.CENTER);
+		progressPanel.add(progressInfo);
+
 		JPanel btnPanel = new JPanel();
 		btnPanel.setBorder(BorderFactory.createTitledBorder(""));
-		btnPanel.setLayout(new GridLayout(1, 3));
+		btnPanel.setLayout(new GridLayout(1, 4));
 		contentPane.add(btnPanel);
 
 		calculateBtn = new JButton("Calculate");
 		calculateBtn.setToolTipText("Calculates hash values");
-		calculateBtn.addActionListener(CursorController.createListener(this, new ActionListener() {
+		calculateBtn.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent ae) {
 				calculateHashValues();
 			}
-		}));
+		});
 		btnPanel.add(calculateBtn);
 
+		cancelBtn = new JButton("Cancel");
+		cancelBtn.setToolTipText("Stops the running calculation");
+		cancelBtn.setEnabled(false);
+		cancelBtn.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent ae) {
+				if (currentTask != null) {
+					currentTask.cancel(false);
+				}
+			}
+		});
+		btnPanel.add(cancelBtn);
+
 
 		clearBtn = new JButton("Clear");
 		clearBtn.setToolTipText("Clears all hash values");
@@ -453,6 +707,70 @@ public class Hasher extends JFrame {
 	}
 
 
+	/*
+	 * Lets the user enter the further HMAC keys, each with its own format.
+	 * Rows with an empty key are dropped.
+	 */
+	private void editMoreKeys() {
+		String[] formats = {DataLabel.TEXT.getLabel(), DataLabel.HEX.getLabel(), DataLabel.BASE64.getLabel()};
+		DefaultTableModel model = new DefaultTableModel(new Object[] { "Key Format", "Key" }, 0);
+		for (int i = 0; i < moreKeys.size(); i++) {
+			model.addRow(new Object[] { moreKeyFormats.get(i).getLabel(), moreKeys.get(i) });
+		}
+		while (model.getRowCount() < 4) {
+			model.addRow(new Object[] { formats[0], "" });
+		}
+		JTable table = new JTable(model);
+		table.getColumnModel().getColumn(0).setCellEditor(new DefaultCellEditor(new JComboBox<String>(formats)));
+		table.getColumnModel().getColumn(1).setPreferredWidth(300);
+		table.setPreferredScrollableViewportSize(new Dimension(420, 8 * table.getRowHeight()));
+
+		JButton addRow = new JButton("Add Row");
+		addRow.addActionListener(e -> model.addRow(new Object[] { formats[0], "" }));
+		JPanel panel = new JPanel(new BorderLayout(0, 5));
+		panel.add(new JLabel("Keys to use besides the main HMAC key:"), BorderLayout.NORTH);
+		panel.add(new JScrollPane(table), BorderLayout.CENTER);
+		panel.add(addRow, BorderLayout.SOUTH);
+
+		int rc = JOptionPane.showConfirmDialog(this, panel, "More HMAC Keys", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+		if (rc != JOptionPane.OK_OPTION) {
+			return;
+		}
+		if (table.isEditing()) {
+			table.getCellEditor().stopCellEditing();
+		}
+		moreKeys.clear();
+		moreKeyFormats.clear();
+		for (int i = 0; i < model.getRowCount(); i++) {
+			String key = String.valueOf(model.getValueAt(i, 1)).trim();
+			if (!key.isEmpty()) {
+				moreKeys.add(key);
+				moreKeyFormats.add(DataLabel.valueOfLabel(String.valueOf(model.getValueAt(i, 0))));
+			}
+		}
+		moreKeysBtn.setText(moreKeys.isEmpty() ? "More Keys..." : "More Keys (" + moreKeys.size() + ")...");
+		clearHashValues();
+	}
+
+
+	/*
+	 * Shows the HMACs under every key, the first being the main key, in a
+	 * form that can be copied.
+	 */
+	private void showHmacMatrix(String[] algorithms, String[][] matrix) {
+		StringBuilder sb = new StringBuilder();
+		for (int k = 0; k < matrix.length; k++) {
+			for (int a = 0; a < algorithms.length; a++) {
+				sb.append(String.format("Key %d  %-14s %s%n", k + 1, algorithms[a], matrix[k][a]));
+			}
+		}
+		JTextArea area = new JTextArea(sb.toString(), Math.min(20, matrix.length * algorithms.length), 90);
+		area.setEditable(false);
+		area.setFont(new Font(Font.MONOSPACED, Font.PLAIN, area.getFont().getSize()));
+		JOptionPane.showMessageDialog(this, new JScrollPane(area), "HMACs for Each Key", JOptionPane.INFORMATION_MESSAGE);
+	}
+
+
 	private void showErrorMessageDialog(final String msg) {
 		JOptionPane.showMessageDialog(this, msg, "ERROR", JOptionPane.ERROR_MESSAGE);
 	}
@@ -460,6 +778,7 @@ public class Hasher extends JFrame {
 
 	public static void main(String[] args) {
 		Security.addProvider(new BouncyCastleProvider());
+		Security.addProvider(new FastHashProvider());
 		setLook();
 		new Hasher();
 	}
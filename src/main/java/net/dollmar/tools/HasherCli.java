@@ -0,0 +1,944 @@
+package net.dollmar.tools;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import net.dollmar.tools.Hasher.DigestAlgorithm;
+
+/**
+ * Command line front end for batch and scripted hashing. It uses the same
+ * calculators as the GUI but never touches AWT/Swing.
+ *
+ * With a single algorithm the output lines have the sha256sum format
+ * ("digest  file"), so they can be checked with the usual tools; with
+ * several algorithms, or Base64 digests, which no such tool understands,
+ * the BSD tagged format ("ALG (file) = digest") is used.
+ * Directories are hashed recursively by {@link TreeHasher}; output is
+ * always in path order. "-", or no input at all, reads standard input.
+ */
+public final class HasherCli {
+
+	private static final String USAGE =
+			"Usage: hasher [options] [file|directory|-]...\n" +
+			"       hasher -c [options] [manifest|-]...\n" +
+			"       hasher -d [options] file|directory...\n" +
+			"  -a, --algorithm LIST     comma separated algorithms (default SHA256)\n" +
+			"  -k, --key KEY            calculate HMACs using this key; repeat for several\n" +
+			"                           keys, all HMACs coming from a single read\n" +
+			"  -f, --key-format LIST    key format: text, hex or base64 (default text), or\n" +
+			"                           a comma separated list with one format per key\n" +
+			"  -s, --string DATA        hash DATA instead of files\n" +
+			"  -i, --input-format FMT   format of DATA: text, hex or base64 (default text)\n" +
+			"  -b, --base64             Base64 encoded output, always tagged (default hex)\n" +
+			"  -u, --upper              upper case hex output\n" +
+			"  -m, --mode MODE          file read mode: stream, channel, mapped, parallel or\n" +
+			"                           read_ahead\n" +
+			"                           (default: stream, parallel for large files)\n" +
+			"  -j, --jobs N             number of files hashed concurrently (default: CPUs)\n" +
+			"      --virtual-threads N  hash small files on a virtual thread each, at most N\n" +
+			"                           at a time, for trees of very many small files\n" +
+			"                           (Java 21; on older runtimes at most 4 platform\n" +
+			"                           threads per CPU instead)\n" +
+			"  -t, --tree SIZE          tree hash each file with leaves of SIZE bytes (K, M\n" +
+			"                           or G suffix), hashing the leaves in parallel\n" +
+			"      --index              with --tree, keep the leaf hashes of each file in a\n" +
+			"                           FILE.hci index, re-hash only what changed and\n" +
+			"                           list the changed chunks on stderr\n" +
+			"      --append-only        with --index, read only the tail of grown files\n" +
+			"      --resume             save the digest state of large files to FILE.hck as\n" +
+			"                           they are read, and continue from there if run\n" +
+			"                           again after an interruption (MD5, SHA1, SHA-2)\n" +
+			"      --checkpoint SIZE    with --resume, bytes between two saves (default 1G)\n" +
+			"      --archive            hash each member of the given ZIP/JAR or TAR(.gz)\n" +
+			"                           archives, printed as ARCHIVE!/MEMBER, without\n" +
+			"                           extracting them\n" +
+			"  -c, --check              verify the files listed in sha256sum style or tagged\n" +
+			"                           manifests; -a sets the algorithm of untagged lines\n" +
+			"      --quiet              with --check, do not print OK for each file\n" +
+			"      --fail-fast          with --check, stop at the first file that is not OK\n" +
+			"  -d, --duplicates         list groups of identical files, reading only the\n" +
+			"                           files that share a size, and those only in full if\n" +
+			"                           their first and last 4 KiB agree; unless -a is\n" +
+			"                           SHA256, SHA384, SHA512, BLAKE3 or Whirlpool, files\n" +
+			"                           with equal digests are also compared byte by byte\n" +
+			"      --cache FILE         reuse digests of unchanged files from FILE\n" +
+			"      --cache-verify       re-hash cached files and report changed digests\n" +
+			"      --cache-clear        discard the cached digests before hashing\n" +
+			"      --cache-prune        drop cache entries of missing or changed files\n" +
+			"      --calibrate          time the installed providers for every algorithm and\n" +
+			"                           save the fastest in the provider profile\n" +
+			"      --metrics            print I/O and digest metrics as JSON to stderr at\n" +
+			"                           the end, and publish them over JMX\n" +
+			"  -l, --list               list the supported algorithms\n" +
+			"  -h, --help               show this help\n" +
+			"Without any arguments the GUI is started.";
+
+	private final PrintStream out;
+	private final PrintStream err;
+
+	private final List<DigestAlgorithm> algorithms = new ArrayList<>();
+	private final List<String> inputs = new ArrayList<>();
+	private String key;
+	private DataLabel keyFormat = DataLabel.TEXT;
+	private final List<String> keys = new ArrayList<>();
+	private final List<DataLabel> keyFormats = new ArrayList<>();
+	private String data;
+	private DataLabel dataFormat = DataLabel.TEXT;
+	private boolean hexEncoded = true;
+	private boolean upperCased = false;
+	private ReadMode mode;
+	private int jobs;
+	private int virtualThreads;
+	private int treeLeafSize;
+	private boolean treeIndex;
+	private boolean appendOnly;
+	private boolean resume;
+	private long checkpointInterval = DigestCheckpoint.DEFAULT_INTERVAL;
+	private boolean archive;
+	private boolean check;
+	private boolean duplicates;
+	private boolean quiet;
+	private boolean failFast;
+	private boolean metrics;
+	private String cacheFile;
+	private boolean cacheVerify;
+	private boolean cacheClear;
+	private boolean cachePrune;
+	private DigestCache cache;
+
+	private volatile int exitCode = 0;
+
+
+	HasherCli(PrintStream out, PrintStream err) {
+		this.out = out;
+		this.err = err;
+	}
+
+
+	public static void main(String[] args) {
+		System.exit(run(args));
+	}
+
+
+	/*
+	 * Runs the tool and returns the process exit code: 0 on success, 1 if
+	 * any input could not be hashed and 2 for usage errors.
+	 */
+	public static int run(String[] args) {
+		Security.addProvider(new BouncyCastleProvider());
+		Security.addProvider(new FastHashProvider());
+		HasherCli cli = new HasherCli(System.out, System.err);
+		try {
+			if (!cli.parse(args)) {
+				// e.g. --calibrate, which fails if its profile cannot be saved
+				return cli.exitCode;
+			}
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println("hasher: " + e.getMessage());
+			System.err.println(USAGE);
+			return 2;
+		}
+		cli.execute();
+		System.out.flush();
+		if (cli.metrics) {
+			System.err.println(Metrics.summary());
+		}
+		return cli.exitCode;
+	}
+
+
+	/*
+	 * Returns false if the arguments asked for something other than hashing
+	 * (help, list, calibrate) which has already been dealt with; exitCode
+	 * tells whether that succeeded.
+	 */
+	boolean parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			switch (arg) {
+			case "-a": case "--algorithm":
+				for (String name : value(args, ++i, arg).split(",")) {
+					DigestAlgorithm da = Algorithms.forName(name.trim());
+					if (da == null) {
+						throw new IllegalArgumentException("unknown algorithm: " + name);
+					}
+					algorithms.add(da);
+				}
+				break;
+			case "-k": case "--key":
+				keys.add(value(args, ++i, arg));
+				key = keys.get(0);
+				break;
+			case "-f": case "--key-format":
+				keyFormats.clear();
+				for (String name : value(args, ++i, arg).split(",")) {
+					keyFormats.add(format(name.trim()));
+				}
+				keyFormat = keyFormats.get(0);
+				break;
+			case "-s": case "--string":
+				data = value(args, ++i, arg);
+				break;
+			case "-i": case "--input-format":
+				dataFormat = format(value(args, ++i, arg));
+				break;
+			case "-b": case "--base64":
+				hexEncoded = false;
+				break;
+			case "-u": case "--upper":
+				upperCased = true;
+				break;
+			case "-m": case "--mode":
+				try {
+					mode = ReadMode.valueOf(value(args, ++i, arg).toUpperCase());
+				}
+				catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException("unknown read mode: " + args[i]);
+				}
+				break;
+			case "-j": case "--jobs":
+				try {
+					jobs = Integer.parseInt(value(args, ++i, arg));
+				}
+				catch (NumberFormatException e) {
+					throw new IllegalArgumentException("invalid number of jobs: " + args[i]);
+				}
+				break;
+			case "--virtual-threads":
+				try {
+					virtualThreads = Integer.parseInt(value(args, ++i, arg));
+				}
+				catch (NumberFormatException e) {
+					throw new IllegalArgumentException("invalid number of virtual threads: " + args[i]);
+				}
+				break;
+			case "-t": case "--tree":
+				treeLeafSize = leafSize(value(args, ++i, arg));
+				break;
+			case "--index":
+				treeIndex = true;
+				break;
+			case "--append-only":
+				appendOnly = true;
+				break;
+			case "--resume":
+				resume = true;
+				break;
+			case "--checkpoint":
+				checkpointInterval = byteSize(value(args, ++i, arg), "checkpoint interval");
+				break;
+			case "--archive":
+				archive = true;
+				break;
+			case "-c": case "--check":
+				check = true;
+				break;
+			case "-d": case "--duplicates":
+				duplicates = true;
+				break;
+			case "--quiet":
+				quiet = true;
+				break;
+			case "--fail-fast":
+				failFast = true;
+				break;
+			case "--metrics":
+				metrics = true;
+				Metrics.enable();
+				break;
+			case "--cache":
+				cacheFile = value(args, ++i, arg);
+				break;
+			case "--cache-verify":
+				cacheVerify = true;
+				break;
+			case "--cache-clear":
+				cacheClear = true;
+				break;
+			case "--cache-prune":
+				cachePrune = true;
+				break;
+			case "--calibrate":
+				calibrate();
+				return false;
+			case "-l": case "--list":
+				for (DigestAlgorithm da : Algorithms.ALGOS) {
+					out.println(da.getAlgName() + (da.isHmacEligible() ? "  (" + da.getHmacAlgName() + ")" : ""));
+				}
+				return false;
+			case "-h": case "--help":
+				out.println(USAGE);
+				return false;
+			default:
+				if (arg.startsWith("-") && arg.length() > 1) {
+					throw new IllegalArgumentException("unknown option: " + arg);
+				}
+				inputs.add(arg);
+			}
+		}
+
+		if (check && (data != null || treeLeafSize > 0 || cacheFile != null || algorithms.size() > 1)) {
+			throw new IllegalArgumentException("--check cannot be combined with --string, --tree, --cache or several algorithms");
+		}
+		if (duplicates && (check || data != null || treeLeafSize > 0 || key != null || cacheFile != null || algorithms.size() > 1)) {
+			throw new IllegalArgumentException("--duplicates cannot be combined with --check, --string, --tree, --key, --cache or several algorithms");
+		}
+		if (duplicates && (inputs.isEmpty() || inputs.contains("-"))) {
+			throw new IllegalArgumentException("--duplicates needs files or directories");
+		}
+		if (virtualThreads > 0 && !VirtualThreads.isAvailable()) {
+			err.println("hasher: virtual threads need Java 21; using " 
+					+ VirtualThreads.fallbackThreads(virtualThreads) + " platform threads instead");
+		}
+		if ((quiet || failFast) && !check) {
+			throw new IllegalArgumentException("--quiet and --fail-fast need --check");
+		}
+		if (algorithms.isEmpty() && !check) {
+			algorithms.add(Algorithms.forName("SHA256"));
+		}
+		if (keyFormats.size() > 1 && keyFormats.size() != keys.size()) {
+			throw new IllegalArgumentException("--key-format needs one format, or one for each key");
+		}
+		if (keys.size() > 1 && check) {
+			throw new IllegalArgumentException("--check takes a single key");
+		}
+		if (key != null) {
+			for (DigestAlgorithm da : algorithms) {
+				if (!da.isHmacEligible()) {
+					throw new IllegalArgumentException("HMAC is not supported for " + da.getAlgName());
+				}
+			}
+		}
+		if (treeLeafSize > 0 && (key != null || cacheFile != null || data != null)) {
+			throw new IllegalArgumentException("tree hashing cannot be combined with --key, --cache or --string");
+		}
+		if ((treeIndex || appendOnly) && treeLeafSize == 0) {
+			throw new IllegalArgumentException("--index and --append-only need --tree");
+		}
+		if (treeIndex && algorithms.size() > 1) {
+			throw new IllegalArgumentException("--index takes a single algorithm");
+		}
+		if (resume && (check || duplicates || data != null || treeLeafSize > 0 || key != null || cacheFile != null)) {
+			throw new IllegalArgumentException("--resume cannot be combined with --check, --duplicates, --string, --tree, --key or --cache");
+		}
+		if (resume) {
+			for (DigestAlgorithm da : algorithms) {
+				if (!DigestCheckpoint.isSupported(da.getAlgName())) {
+					throw new IllegalArgumentException("--resume is not supported for " + da.getAlgName());
+				}
+			}
+		}
+		if (checkpointInterval != DigestCheckpoint.DEFAULT_INTERVAL && !resume) {
+			throw new IllegalArgumentException("--checkpoint needs --resume");
+		}
+		if (archive && (check || duplicates || data != null || treeLeafSize > 0 || cacheFile != null || resume)) {
+			throw new IllegalArgumentException("--archive cannot be combined with --check, --duplicates, --string, --tree, --cache or --resume");
+		}
+		if (cacheFile != null && key != null) {
+			// the cache holds plain digests only
+			throw new IllegalArgumentException("--cache cannot be combined with --key");
+		}
+		if ((cacheVerify || cacheClear || cachePrune) && cacheFile == null) {
+			throw new IllegalArgumentException("no cache file given");
+		}
+		if (data == null && inputs.isEmpty() && !cachePrune) {
+			// like sha256sum, read stdin when nothing else is given
+			inputs.add("-");
+		}
+		return true;
+	}
+
+
+	private void calibrate() {
+		List<String> digests = new ArrayList<>();
+		List<String> macs = new ArrayList<>();
+		for (DigestAlgorithm da : Algorithms.ALGOS) {
+			digests.add(da.getAlgName());
+			if (da.isHmacEligible()) {
+				macs.add(da.getHmacAlgName());
+			}
+		}
+		Map<String, String> routes = ProviderSelector.calibrate(digests.toArray(new String[0]), macs.toArray(new String[0]));
+		for (Map.Entry<String, String> route : routes.entrySet()) {
+			out.println(route.getKey() + " = " + route.getValue());
+		}
+		try {
+			ProviderSelector.saveProfile(ProviderSelector.DEFAULT_PROFILE);
+			out.println("Saved to " + ProviderSelector.DEFAULT_PROFILE);
+		}
+		catch (IOException e) {
+			error(ProviderSelector.DEFAULT_PROFILE.toString(), e.getMessage());
+		}
+	}
+
+
+	private static String value(String[] args, int i, String option) {
+		if (i >= args.length) {
+			throw new IllegalArgumentException("missing value for " + option);
+		}
+		return args[i];
+	}
+
+
+	private static int leafSize(String size) {
+		long bytes = byteSize(size, "leaf size");
+		if (bytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("invalid leaf size: " + size);
+		}
+		return (int) bytes;
+	}
+
+
+	private static long byteSize(String size, String what) {
+		long multiplier = 1;
+		String digits = size;
+		switch (size.isEmpty() ? ' ' : Character.toUpperCase(size.charAt(size.length() - 1))) {
+		case 'K': multiplier = 1L << 10; break;
+		case 'M': multiplier = 1L << 20; break;
+		case 'G': multiplier = 1L << 30; break;
+		}
+		if (multiplier > 1) {
+			digits = size.substring(0, size.length() - 1);
+		}
+		try {
+			long bytes = Long.parseLong(digits);
+			if (bytes > 0 && bytes <= Long.MAX_VALUE / multiplier) {
+				return bytes * multiplier;
+			}
+		}
+		catch (NumberFormatException e) {
+			// reported below
+		}
+		throw new IllegalArgumentException("invalid " + what + ": " + size);
+	}
+
+
+	private static DataLabel format(String name) {
+		switch (name.toLowerCase()) {
+		case "text": return DataLabel.TEXT;
+		case "hex": return DataLabel.HEX;
+		case "base64": return DataLabel.BASE64;
+		default:
+			throw new IllegalArgumentException("unknown format: " + name);
+		}
+	}
+
+
+	String[] algorithmNames() {
+		String[] names = new String[algorithms.size()];
+		for (int i = 0; i < names.length; i++) {
+			DigestAlgorithm da = algorithms.get(i);
+			names[i] = (key != null) ? da.getHmacAlgName() : da.getAlgName();
+		}
+		return names;
+	}
+
+
+	void execute() {
+		if (check) {
+			checkManifests();
+			return;
+		}
+		String[] names = algorithmNames();
+		if (duplicates) {
+			findDuplicates(names[0]);
+			return;
+		}
+		if (archive) {
+			hashArchives(names);
+			return;
+		}
+		if (data != null && keys.size() > 1) {
+			report("-", names, flatten(HmacCalculator.calculateHmacMatrix(names, data, dataFormat, 
+					keyArray(), keyFormatArray(), hexEncoded, upperCased)));
+		}
+		else if (data != null) {
+			String[] results = new String[names.length];
+			for (int i = 0; i < names.length; i++) {
+				results[i] = (key != null)
+						? HmacCalculator.calculateHmac(names[i], data, dataFormat, key, keyFormat, hexEncoded, upperCased)
+						: HashCalculator.calculateHash(names[i], data, dataFormat, hexEncoded, upperCased);
+			}
+			report("-", names, results);
+		}
+
+		if (cacheFile != null && !openCache()) {
+			return;
+		}
+		if (!inputs.isEmpty()) {
+			hashInputs(names);
+		}
+		if (cache != null) {
+			try {
+				cache.save();
+			}
+			catch (IOException e) {
+				error(cacheFile, e.getMessage());
+			}
+		}
+	}
+
+
+	/*
+	 * Verifies every manifest in turn, "-" being stdin, and prints a summary
+	 * unless all is well and --quiet was given.
+	 */
+	private void checkManifests() {
+		ManifestVerifier verifier = new ManifestVerifier(this::checkFile);
+		if (jobs > 0) {
+			verifier.setParallelism(jobs);
+		}
+		verifier.setVirtualThreads(virtualThreads);
+		verifier.setFailFast(failFast);
+		if (!algorithms.isEmpty()) {
+			verifier.setAlgorithm(algorithms.get(0).getAlgName());
+		}
+		ManifestVerifier.Listener listener = new ManifestVerifier.Listener() {
+			@Override
+			public void checked(String fileName, ManifestVerifier.Status status, String message) {
+				if (status != ManifestVerifier.Status.OK) {
+					exitCode = 1;
+				}
+				if (status != ManifestVerifier.Status.OK || !quiet) {
+					out.println(formatName(fileName) + ": " + status);
+				}
+				if (status == ManifestVerifier.Status.FAILED && message != null && !message.endsWith("does not match")) {
+					err.println("hasher: " + fileName + ": " + message);
+				}
+			}
+
+			@Override
+			public void malformed(String manifest, int lineNumber) {
+				error(manifest, "line " + lineNumber + ": improperly formatted checksum line");
+			}
+		};
+
+		for (String manifest : inputs) {
+			try (BufferedReader reader = "-".equals(manifest)
+					? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+					: Files.newBufferedReader(Paths.get(manifest), StandardCharsets.UTF_8)) {
+				if (!verifier.verify(reader, manifest, listener)) {
+					break;
+				}
+			}
+			catch (IOException e) {
+				error(manifest, TreeHasher.describe(e));
+			}
+		}
+
+		int ok = verifier.getCount(ManifestVerifier.Status.OK);
+		int failed = verifier.getCount(ManifestVerifier.Status.FAILED);
+		int missing = verifier.getCount(ManifestVerifier.Status.MISSING);
+		if (!quiet || failed + missing + verifier.getMalformed() > 0) {
+			err.println("hasher: " + ok + " OK, " + failed + " FAILED, " + missing + " MISSING"
+					+ ((verifier.getMalformed() > 0) ? ", " + verifier.getMalformed() + " improperly formatted lines" : ""));
+		}
+	}
+
+
+	/*
+	 * Prints each group of identical files in sha256sum format, a blank line
+	 * after each, and a summary of what was found and read.
+	 */
+	private void findDuplicates(String algorithm) {
+		DuplicateFinder finder = new DuplicateFinder(algorithm);
+		if (jobs > 0) {
+			finder.setParallelism(jobs);
+		}
+		finder.setVirtualThreads(virtualThreads);
+		finder.setEncoding(hexEncoded, upperCased);
+		long[] totals = new long[2];
+		DuplicateFinder.Listener listener = new DuplicateFinder.Listener() {
+			@Override
+			public void duplicates(DuplicateFinder.Group group) {
+				for (List<String> links : group.getFiles()) {
+					for (String name : links) {
+						out.println(formatLine(algorithm, name, group.getDigest(), !hexEncoded));
+					}
+				}
+				out.println();
+				totals[0]++;
+				totals[1] += group.getReclaimable();
+			}
+
+			@Override
+			public void error(String name, String message) {
+				HasherCli.this.error(name, message);
+			}
+		};
+		try {
+			finder.find(inputs, listener);
+		}
+		catch (InterruptedIOException e) {
+			error("-", e.getMessage());
+			return;
+		}
+		err.println("hasher: " + totals[0] + " groups of duplicates, " + totals[1] + " bytes reclaimable; "
+				+ finder.getFilesFound() + " files of " + finder.getBytesFound() + " bytes, read " 
+				+ finder.getBytesSampled() + " bytes for samples, " + finder.getBytesHashed() + " for hashes and " 
+				+ finder.getBytesCompared() + " for comparisons");
+	}
+
+
+	/*
+	 * Hashes one manifest entry. The algorithms are the manifest's labels:
+	 * digest names, HMAC names when a key is given, or the tree labels
+	 * printed by --tree.
+	 */
+	String[] checkFile(String fileName, String[] labels) {
+		String[] results = new String[labels.length];
+		List<Integer> plain = new ArrayList<>();
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < labels.length; i++) {
+			int tree = labels[i].lastIndexOf("-TREE-");
+			String label = (tree > 0) ? labels[i].substring(0, tree) : labels[i];
+			String name = (key != null && label.regionMatches(true, 0, "Hmac", 0, 4)) ? label.substring(4) : label;
+			DigestAlgorithm da = Algorithms.forName(name);
+			if (da == null || (key != null && !da.isHmacEligible())) {
+				results[i] = "Error: unsupported algorithm " + labels[i];
+			}
+			else if (tree > 0) {
+				try {
+					int leafSize = Integer.parseInt(labels[i].substring(tree + "-TREE-".length()));
+					results[i] = HashCalculator.calculateFileTreeHash(da.getAlgName(), fileName, leafSize, true, false);
+				}
+				catch (IllegalArgumentException e) {
+					results[i] = "Error: unsupported algorithm " + labels[i];
+				}
+			}
+			else {
+				plain.add(i);
+				names.add((key != null) ? da.getHmacAlgName() : da.getAlgName());
+			}
+		}
+
+		if (!plain.isEmpty()) {
+			String[] algs = names.toArray(new String[0]);
+			ReadMode readMode = (mode != null) ? mode 
+					: (sizeOf(fileName) >= TreeHasher.DEFAULT_LARGE_FILE_THRESHOLD) ? ReadMode.PARALLEL : ReadMode.STREAM;
+			String[] digests = (key != null)
+					? HmacCalculator.calculateFileHmacs(algs, fileName, readMode, key, keyFormat, true, false)
+					: HashCalculator.calculateFileHashes(algs, fileName, readMode, true, false);
+			for (int j = 0; j < digests.length; j++) {
+				results[plain.get(j)] = digests[j];
+			}
+		}
+		return results;
+	}
+
+
+	private static long sizeOf(String fileName) {
+		try {
+			return Files.size(Paths.get(fileName));
+		}
+		catch (IOException e) {
+			return 0;
+		}
+	}
+
+
+	private boolean openCache() {
+		cache = new DigestCache(cacheFile);
+		try {
+			cache.load();
+		}
+		catch (IOException e) {
+			error(cacheFile, e.getMessage());
+			return false;
+		}
+		if (cacheClear) {
+			cache.clear();
+		}
+		if (cachePrune) {
+			cache.prune();
+		}
+		cache.setVerify(cacheVerify);
+		cache.setMismatchListener((fileName, algorithm) -> 
+				error(fileName, algorithm + " digest differs from the cached one"));
+		return true;
+	}
+
+
+	private void hashInputs(String[] names) {
+		TreeHasher tree = new TreeHasher((fileName, readMode) -> hashFile(fileName, readMode, names));
+		tree.setReadMode(mode);
+		if (treeIndex) {
+			tree.setFilter(p -> !p.toString().endsWith(ChunkIndex.SUFFIX));
+		}
+		if (jobs > 0) {
+			tree.setParallelism(jobs);
+		}
+		tree.setVirtualThreads(virtualThreads);
+		TreeHasher.Sink sink = new TreeHasher.Sink() {
+			@Override
+			public void result(String fileName, String[] results) {
+				report(fileName, names, results);
+			}
+
+			@Override
+			public void error(String name, String message) {
+				HasherCli.this.error(name, message);
+			}
+		};
+		try {
+			// "-" stands for stdin; everything between two of them goes to the tree hasher
+			List<String> files = new ArrayList<>();
+			for (String input : inputs) {
+				if ("-".equals(input)) {
+					if (!files.isEmpty()) {
+						tree.hash(files, sink);
+						files.clear();
+					}
+					report("-", names, hashStdin(names));
+				}
+				else {
+					files.add(input);
+				}
+			}
+			if (!files.isEmpty()) {
+				tree.hash(files, sink);
+			}
+		}
+		catch (IOException e) {
+			error("hasher", e.getMessage());
+		}
+	}
+
+
+	String[] hashStdin(String[] names) {
+		if (treeLeafSize > 0) {
+			String[] results = new String[names.length];
+			Arrays.fill(results, "Error: tree hashing needs a file");
+			return results;
+		}
+		return hashStream(names, Channels.newChannel(System.in));
+	}
+
+
+	String[] hashStream(String[] names, ReadableByteChannel channel) {
+		if (keys.size() > 1) {
+			return flatten(HmacCalculator.calculateStreamHmacMatrix(names, channel, keyArray(), keyFormatArray(), hexEncoded, upperCased));
+		}
+		return (key != null)
+				? HmacCalculator.calculateStreamHmacs(names, channel, key, keyFormat, hexEncoded, upperCased)
+				: HashCalculator.calculateStreamHashes(names, channel, hexEncoded, upperCased);
+	}
+
+
+	/*
+	 * Reads the stream straight into the shared buffer rather than through
+	 * Channels.newChannel, which would copy it 8 KiB at a time.
+	 */
+	String[] hashStream(String[] names, InputStream is) {
+		if (keys.size() > 1) {
+			return flatten(HmacCalculator.calculateStreamHmacMatrix(names, is, keyArray(), keyFormatArray(), hexEncoded, upperCased));
+		}
+		return (key != null)
+				? HmacCalculator.calculateStreamHmacs(names, is, key, keyFormat, hexEncoded, upperCased)
+				: HashCalculator.calculateStreamHashes(names, is, hexEncoded, upperCased);
+	}
+
+
+	/*
+	 * Hashes the members of each input archive; "-" is a TAR archive on
+	 * stdin.
+	 */
+	private void hashArchives(String[] names) {
+		ArchiveHasher hasher = new ArchiveHasher(is -> hashStream(names, is));
+		if (jobs > 0) {
+			hasher.setParallelism(jobs);
+		}
+		TreeHasher.Sink sink = new TreeHasher.Sink() {
+			@Override
+			public void result(String member, String[] results) {
+				report(member, names, results);
+			}
+
+			@Override
+			public void error(String name, String message) {
+				HasherCli.this.error(name, message);
+			}
+		};
+		for (String input : inputs) {
+			try {
+				if ("-".equals(input)) {
+					hasher.hash(input, System.in, sink);
+				}
+				else if (Files.isDirectory(Paths.get(input))) {
+					error(input, "Is a directory");
+				}
+				else {
+					hasher.hash(input, sink);
+				}
+			}
+			catch (IOException e) {
+				error(input, TreeHasher.describe(e));
+				if (e instanceof InterruptedIOException) {
+					return;
+				}
+			}
+		}
+	}
+
+
+	String[] hashFile(String fileName, ReadMode readMode, String[] names) {
+		if (treeLeafSize > 0) {
+			String[] results = new String[names.length];
+			for (int i = 0; i < names.length; i++) {
+				results[i] = treeIndex 
+						? indexedTreeHash(names[i], fileName) 
+						: HashCalculator.calculateFileTreeHash(names[i], fileName, treeLeafSize, hexEncoded, upperCased);
+			}
+			return results;
+		}
+		if (keys.size() > 1) {
+			return flatten(HmacCalculator.calculateFileHmacMatrix(names, fileName, readMode, DigestMonitor.NONE, 
+					keyArray(), keyFormatArray(), hexEncoded, upperCased));
+		}
+		if (key != null) {
+			return HmacCalculator.calculateFileHmacs(names, fileName, readMode, key, keyFormat, hexEncoded, upperCased);
+		}
+		if (cache != null) {
+			return cache.calculateFileHashes(names, fileName, readMode, hexEncoded, upperCased);
+		}
+		if (resume && sizeOf(fileName) >= TreeHasher.DEFAULT_LARGE_FILE_THRESHOLD) {
+			return HashCalculator.calculateResumableFileHashes(names, fileName, checkpointInterval, DigestMonitor.NONE, hexEncoded, upperCased);
+		}
+		return HashCalculator.calculateFileHashes(names, fileName, readMode, hexEncoded, upperCased);
+	}
+
+
+	/*
+	 * The tree hash of the file, re-hashing only the chunks that changed since
+	 * its index was last updated. If there was an index, the chunks that
+	 * changed are listed on stderr with their new leaf digests.
+	 */
+	String indexedTreeHash(String algorithm, String fileName) {
+		try {
+			ChunkIndex index = new ChunkIndex(fileName);
+			boolean indexed = Files.exists(Paths.get(fileName + ChunkIndex.SUFFIX));
+			index.update(algorithm, treeLeafSize, appendOnly);
+			if (indexed) {
+				MerkleTree tree = index.getTree();
+				for (int chunk : index.getChangedChunks()) {
+					err.println("hasher: " + fileName + ": chunk " + chunk + " at " + (long) chunk * treeLeafSize 
+							+ ((chunk < tree.getLeafCount()) 
+									? " changed: " + HashCalculator.bytesToString(tree.getLeaf(chunk), hexEncoded, upperCased)
+									: " removed"));
+				}
+			}
+			return HashCalculator.bytesToString(index.getRoot(), hexEncoded, upperCased);
+		}
+		catch (GeneralSecurityException | IOException e) {
+			return "Error: " + e.getMessage();
+		}
+	}
+
+
+	private String[] keyArray() {
+		return keys.toArray(new String[0]);
+	}
+
+
+	/*
+	 * The format of each key: the one given for it, or the single (or
+	 * default) format for all of them.
+	 */
+	private DataLabel[] keyFormatArray() {
+		DataLabel[] formats = new DataLabel[keys.size()];
+		for (int k = 0; k < formats.length; k++) {
+			formats[k] = (keyFormats.size() > 1) ? keyFormats.get(k) : keyFormat;
+		}
+		return formats;
+	}
+
+
+	/*
+	 * The key by algorithm matrix as one array, key by key, the way report
+	 * expects it.
+	 */
+	private static String[] flatten(String[][] matrix) {
+		List<String> results = new ArrayList<>();
+		for (String[] row : matrix) {
+			results.addAll(Arrays.asList(row));
+		}
+		return results.toArray(new String[0]);
+	}
+
+
+	/*
+	 * Prints the results for one input, sending failures to stderr. With
+	 * several keys there are results for each key in turn, labelled with the
+	 * algorithm name and the key's position, e.g. HmacSHA256-KEY-2.
+	 */
+	void report(String name, String[] names, String[] results) {
+		String lastError = null;
+		for (int i = 0; i < results.length; i++) {
+			if (results[i].startsWith("Error: ")) {
+				// an I/O failure shows up once per algorithm; report it once
+				if (!results[i].equals(lastError)) {
+					error(name, results[i].substring("Error: ".length()));
+				}
+				lastError = results[i];
+			}
+			else {
+				if (treeLeafSize > 0) {
+					// a tree hash is not the plain digest, so never print it in sha256sum format
+					out.println(formatLine(names[i] + "-TREE-" + treeLeafSize, name, results[i], true));
+				}
+				else if (results.length > names.length) {
+					out.println(formatLine(names[i % names.length] + "-KEY-" + (i / names.length + 1), name, results[i], true));
+				}
+				else {
+					// sha256sum format is hex only
+					out.println(formatLine(names[i], name, results[i], names.length > 1 || !hexEncoded));
+				}
+			}
+		}
+	}
+
+
+	void error(String name, String message) {
+		err.println("hasher: " + name + ": " + message);
+		exitCode = 1;
+	}
+
+
+	private static String formatName(String name) {
+		return (name.indexOf('\\') >= 0 || name.indexOf('\n') >= 0)
+				? "\\" + name.replace("\\", "\\\\").replace("\n", "\\n")
+				: name;
+	}
+
+
+	/*
+	 * Formats a result line the way sha256sum (or its --tag variant) does,
+	 * including the leading backslash for names that had to be escaped.
+	 */
+	static String formatLine(String algorithm, String name, String digest, boolean tagged) {
+		boolean escaped = name.indexOf('\\') >= 0 || name.indexOf('\n') >= 0;
+		String n = escaped ? name.replace("\\", "\\\\").replace("\n", "\\n") : name;
+		String prefix = escaped ? "\\" : "";
+		return tagged
+				? prefix + algorithm + " (" + n + ") = " + digest
+				: prefix + digest + "  " + n;
+	}
+}
@@ -1,9 +1,12 @@
 package net.dollmar.tools;
 
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -35,9 +38,7 @@ public class HmacCalculator {
 			}			
 
 			
-			Mac mac = Mac.getInstance(algorithm, SEC_PROVIDER);
-			SecretKeySpec keySpec = new SecretKeySpec(keyBytes, algorithm);
-			mac.init(keySpec);
+			Mac mac = EnginePool.mac(algorithm, keyBytes);
 			byte[] hmacBytes = mac.doFinal(dataBytes);
 			
 			return HashCalculator.bytesToString(hmacBytes, hexEncodedResult, upperCasedResult);
@@ -49,6 +50,55 @@ public class HmacCalculator {
 	}
 	
 	
+	/*
+	 * Calculates the HMAC of each of the messages with the same key. The key
+	 * is decoded and the Mac initialised only once; see HmacSigner for the
+	 * allocation free form of this. The result for data[i] is returned in
+	 * element i.
+	 */
+	public static String[] calculateHmacs(
+			final String algorithm, 
+			final String[] data, 
+			DataLabel dataEncoding,
+			final String key,
+			DataLabel keyEncoding,
+			boolean hexEncodedResult,
+			boolean upperCasedResult) 
+	{
+		String[] results = new String[data.length];
+		HmacSigner signer = null;
+		try {
+			byte[] keyBytes = HashCalculator.dataToBytes(key, keyEncoding);
+			if (keyBytes == null) {
+				Arrays.fill(results, "Error: Invalid key encoding.");
+				return results;
+			}
+			signer = new HmacSigner(algorithm, keyBytes);
+		}
+		catch (GeneralSecurityException | DecoderException e) {
+			Arrays.fill(results, "Error: " + e.getMessage());
+			return results;
+		}
+
+		byte[] hmacBytes = new byte[signer.getMacLength()];
+		for (int i = 0; i < data.length; i++) {
+			try {
+				byte[] dataBytes = HashCalculator.dataToBytes(data[i], dataEncoding);
+				if (dataBytes == null) {
+					results[i] = "Error: Invalid data encoding.";
+					continue;
+				}
+				signer.sign(dataBytes, 0, dataBytes.length, hmacBytes, 0);
+				results[i] = HashCalculator.bytesToString(hmacBytes, hexEncodedResult, upperCasedResult);
+			}
+			catch (DecoderException e) {
+				results[i] = "Error: " + e.getMessage();
+			}
+		}
+		return results;
+	}
+
+
 	public static String calculateFileHmac(
 			final String algorithm, 
 			final String fileName,
@@ -57,23 +107,15 @@ public class HmacCalculator {
 			boolean hexEncodedResult,
 			boolean upperCasedResult) 
 	{
-		HmacInputStream his = null;
 		try {
 			byte[] keyBytes = HashCalculator.dataToBytes(key, keyEncoding);
 			if (keyBytes == null) {
 				return "Error: Invalid key encoding."; 
 			}			
 			
-			Mac mac = Mac.getInstance(algorithm, SEC_PROVIDER);
-			SecretKeySpec keySpec = new SecretKeySpec(keyBytes, algorithm);
-			mac.init(keySpec);
+			Mac mac = EnginePool.mac(algorithm, keyBytes);
 			
-			BufferedInputStream bis = new BufferedInputStream(new FileInputStream(fileName));
-			his = new HmacInputStream(bis, mac); 
-			
-			while (his.read() != -1) {
-				// read the file
-			}
+			MultiDigest.digestFile(fileName, new DigestEngine[] { DigestEngine.of(mac) });
 			byte[] hmacBytes = mac.doFinal();
 			
 			return HashCalculator.bytesToString(hmacBytes, hexEncodedResult, upperCasedResult);
@@ -81,15 +123,302 @@ public class HmacCalculator {
 		catch (GeneralSecurityException | DecoderException | IOException e) {
 			return "Error: " + e.getMessage();
 		}
-		finally {
-			if (his != null) {
-				try {
-					his.close();
+	}
+	
+	
+	public static String calculateFileHmac(
+			final String algorithm, 
+			final String fileName,
+			ReadMode mode,
+			final String key,
+			DataLabel keyEncoding,
+			boolean hexEncodedResult,
+			boolean upperCasedResult) 
+	{
+		return calculateFileHmacs(new String[] { algorithm }, fileName, mode, key, keyEncoding, hexEncodedResult, upperCasedResult)[0];
+	}
+
+
+	/*
+	 * Calculates the HMAC of the file contents for each of the given algorithms
+	 * while reading the file only once. The result for algorithms[i] is returned
+	 * in element i.
+	 */
+	public static String[] calculateFileHmacs(
+			final String[] algorithms, 
+			final String fileName,
+			final String key,
+			DataLabel keyEncoding,
+			boolean hexEncodedResult,
+			boolean upperCasedResult) 
+	{
+		return calculateFileHmacs(algorithms, fileName, ReadMode.STREAM, key, keyEncoding, hexEncodedResult, upperCasedResult);
+	}
+
+
+	public static String[] calculateFileHmacs(
+			final String[] algorithms, 
+			final String fileName,
+			ReadMode mode,
+			final String key,
+			DataLabel keyEncoding,
+			boolean hexEncodedResult,
+			boolean upperCasedResult) 
+	{
+		return calculateFileHmacs(algorithms, fileName, mode, DigestMonitor.NONE, key, keyEncoding, hexEncodedResult, upperCasedResult);
+	}
+
+
+	public static String[] calculateFileHmacs(
+			final String[] algorithms, 
+			final String fileName,
+			ReadMode mode,
+			DigestMonitor monitor,
+			final String key,
+			DataLabel keyEncoding,
+			boolean hexEncodedResult,
+			boolean upperCasedResult) 
+	{
+		String[] results = new String[algorithms.length];
+		byte[] keyBytes = null;
+		try {
+			keyBytes = HashCalculator.dataToBytes(key, keyEncoding);
+		}
+		catch (DecoderException e) {
+			Arrays.fill(results, "Error: " + e.getMessage());
+			return results;
+		}
+		if (keyBytes == null) {
+			Arrays.fill(results, "Error: Invalid key encoding.");
+			return results;
+		}
+
+		DigestEngine[] engines = createEngines(algorithms, keyBytes, results, monitor);
+		return HashCalculator.digest(engines, results, MultiDigest.file(fileName, mode), monitor, hexEncodedResult, upperCasedResult);
+	}
+
+
+	/*
+	 * Calculates the HMAC of everything that can be read from the stream, for
+	 * each of the given algorithms, in a single pass and with bounded memory.
+	 * The stream is read to its end but not closed.
+	 */
+	public static String[] calculateStreamHmacs(
+			final String[] algorithms, 
+			final InputStream is,
+			final String key,
+			DataLabel keyEncoding,
+			boolean hexEncodedResult,
+			boolean upperCasedResult) 
+	{
+		return calculateSourceHmacs(algorithms, MultiDigest.stream(is), key, keyEncoding, hexEncodedResult, upperCasedResult);
+	}
+
+
+	public static String[] calculateStreamHmacs(
+			final String[] algorithms, 
+			final ReadableByteChannel channel,
+			final String key,
+			DataLabel keyEncoding,
+			boolean hexEncodedResult,
+			boolean upperCasedResult) 
+	{
+		return calculateSourceHmacs(algorithms, MultiDigest.channel(channel), key, keyEncoding, hexEncodedResult, upperCasedResult);
+	}
+
+
+	private static String[] calculateSourceHmacs(
+			final String[] algorithms, 
+			final MultiDigest.Source source,
+			final String key,
+			DataLabel keyEncoding,
+			boolean hexEncodedResult,
+			boolean upperCasedResult) 
+	{
+		String[] results = new String[algorithms.length];
+		byte[] keyBytes = null;
+		try {
+			keyBytes = HashCalculator.dataToBytes(key, keyEncoding);
+		}
+		catch (DecoderException e) {
+			Arrays.fill(results, "Error: " + e.getMessage());
+			return results;
+		}
+		if (keyBytes == null) {
+			Arrays.fill(results, "Error: Invalid key encoding.");
+			return results;
+		}
+		DigestEngine[] engines = createEngines(algorithms, keyBytes, results, DigestMonitor.NONE);
+		return HashCalculator.digest(engines, results, source, DigestMonitor.NONE, hexEncodedResult, upperCasedResult);
+	}
+
+
+	/*
+	 * Calculates the HMAC of the data under each of the keys with each of the
+	 * algorithms. keyEncodings[k] is the encoding of keys[k], and the result
+	 * for keys[k] and algorithms[a] is returned in element [k][a].
+	 */
+	public static String[][] calculateHmacMatrix(
+			final String[] algorithms, 
+			final String data, 
+			DataLabel dataEncoding,
+			final String[] keys,
+			DataLabel[] keyEncodings,
+			boolean hexEncodedResult,
+			boolean upperCasedResult) 
+	{
+		String[][] results = new String[keys.length][algorithms.length];
+		for (int k = 0; k < keys.length; k++) {
+			for (int a = 0; a < algorithms.length; a++) {
+				results[k][a] = calculateHmac(algorithms[a], data, dataEncoding, keys[k], keyEncodings[k], hexEncodedResult, upperCasedResult);
+			}
+		}
+		return results;
+	}
+
+
+	/*
+	 * Calculates the HMAC of the file contents under each of the keys with
+	 * each of the algorithms while reading the file only once, as is needed
+	 * to check a file against the old and new keys of a rotation. The result
+	 * for keys[k] and algorithms[a] is returned in element [k][a], and is
+	 * reported to the monitor with the index k * algorithms.length + a. A
+	 * key that cannot be decoded gets an error for each algorithm.
+	 */
+	public static String[][] calculateFileHmacMatrix(
+			final String[] algorithms, 
+			final String fileName,
+			ReadMode mode,
+			DigestMonitor monitor,
+			final String[] keys,
+			DataLabel[] keyEncodings,
+			boolean hexEncodedResult,
+			boolean upperCasedResult) 
+	{
+		return calculateSourceHmacMatrix(algorithms, MultiDigest.file(fileName, mode), monitor, keys, keyEncodings, hexEncodedResult, upperCasedResult);
+	}
+
+
+	/*
+	 * The stream is read to its end but not closed.
+	 */
+	public static String[][] calculateStreamHmacMatrix(
+			final String[] algorithms, 
+			final InputStream is,
+			final String[] keys,
+			DataLabel[] keyEncodings,
+			boolean hexEncodedResult,
+			boolean upperCasedResult) 
+	{
+		return calculateSourceHmacMatrix(algorithms, MultiDigest.stream(is), DigestMonitor.NONE, keys, keyEncodings, hexEncodedResult, upperCasedResult);
+	}
+
+
+	public static String[][] calculateStreamHmacMatrix(
+			final String[] algorithms, 
+			final ReadableByteChannel channel,
+			final String[] keys,
+			DataLabel[] keyEncodings,
+			boolean hexEncodedResult,
+			boolean upperCasedResult) 
+	{
+		return calculateSourceHmacMatrix(algorithms, MultiDigest.channel(channel), DigestMonitor.NONE, keys, keyEncodings, hexEncodedResult, upperCasedResult);
+	}
+
+
+	private static String[][] calculateSourceHmacMatrix(
+			final String[] algorithms, 
+			final MultiDigest.Source source,
+			DigestMonitor monitor,
+			final String[] keys,
+			DataLabel[] keyEncodings,
+			boolean hexEncodedResult,
+			boolean upperCasedResult) 
+	{
+		// one engine per key and algorithm, key by key
+		int n = algorithms.length;
+		String[] flatAlgorithms = new String[keys.length * n];
+		byte[][] flatKeys = new byte[keys.length * n][];
+		String[] results = new String[keys.length * n];
+		for (int k = 0; k < keys.length; k++) {
+			String error = null;
+			byte[] keyBytes = null;
+			try {
+				keyBytes = HashCalculator.dataToBytes(keys[k], keyEncodings[k]);
+				if (keyBytes == null) {
+					error = "Error: Invalid key encoding.";
+				}
+			}
+			catch (DecoderException e) {
+				error = "Error: " + e.getMessage();
+			}
+			for (int a = 0; a < n; a++) {
+				flatAlgorithms[k * n + a] = algorithms[a];
+				flatKeys[k * n + a] = keyBytes;
+				if (error != null) {
+					results[k * n + a] = error;
+					monitor.completed(k * n + a, error);
+				}
+			}
+		}
+
+		DigestEngine[] engines = createEngines(flatAlgorithms, flatKeys, results, monitor);
+		HashCalculator.digest(engines, results, source, monitor, hexEncodedResult, upperCasedResult);
+		String[][] matrix = new String[keys.length][];
+		for (int k = 0; k < keys.length; k++) {
+			matrix[k] = Arrays.copyOfRange(results, k * n, (k + 1) * n);
+		}
+		return matrix;
+	}
+
+
+	private static DigestEngine[] createEngines(
+			final String[] algorithms, 
+			final byte[] keyBytes, 
+			final String[] results, 
+			DigestMonitor monitor) 
+	{
+		byte[][] keys = new byte[algorithms.length][];
+		Arrays.fill(keys, keyBytes);
+		return createEngines(algorithms, keys, results, monitor);
+	}
+
+
+	/*
+	 * Creates one engine per algorithm, initialised with the key of the same
+	 * index; algorithms that are not available get a null engine and an
+	 * error result, as do those without a key, which already have one.
+	 */
+	private static DigestEngine[] createEngines(
+			final String[] algorithms, 
+			final byte[][] keys, 
+			final String[] results, 
+			DigestMonitor monitor) 
+	{
+		DigestEngine[] engines = new DigestEngine[algorithms.length];
+		Set<String> pooled = new HashSet<>();
+		for (int i = 0; i < algorithms.length; i++) {
+			if (keys[i] == null) {
+				continue;
+			}
+			byte[] keyBytes = keys[i];
+			try {
+				Mac mac = null;
+				if (pooled.add(algorithms[i])) {
+					mac = EnginePool.mac(algorithms[i], keyBytes);
 				}
-				catch(IOException e) {
-					//
+				else {
+					// a pooled engine can only serve one of the algorithms at a time
+					mac = ProviderSelector.newMac(algorithms[i]);
+					mac.init(new SecretKeySpec(keyBytes, algorithms[i]));
 				}
+				engines[i] = DigestEngine.of(mac);
+			}
+			catch (GeneralSecurityException e) {
+				results[i] = "Error: " + e.getMessage();
+				monitor.completed(i, results[i]);
 			}
 		}
+		return engines;
 	}
 }
@@ -0,0 +1,140 @@
+package net.dollmar.tools;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Signs many messages with one key. The key is decoded and the {@link Mac}
+ * initialised once, when the signer is created; each message after that only
+ * costs the hashing, and the results go straight into a buffer supplied by
+ * the caller rather than into a new array or String per message.
+ *
+ * After each message the Mac is returned to its just-initialised state by
+ * doFinal. With BouncyCastle's HMAC this restores precomputed inner and outer
+ * pad states, so the key blocks are not hashed again for every message.
+ *
+ * A signer holds a single Mac and is not thread safe; use one per thread.
+ */
+public class HmacSigner {
+
+	private final String algorithm;
+	private final Mac mac;
+	private final int macLength;
+	private final byte[] scratch;
+
+
+	public HmacSigner(String algorithm, byte[] key) throws GeneralSecurityException {
+		this.algorithm = algorithm;
+		this.mac = ProviderSelector.newMac(algorithm);
+		this.mac.init(new SecretKeySpec(key, algorithm));
+		this.macLength = mac.getMacLength();
+		this.scratch = new byte[macLength];
+	}
+
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	/*
+	 * The number of bytes each signature takes in the output buffer.
+	 */
+	public int getMacLength() {
+		return macLength;
+	}
+
+
+	/*
+	 * Writes the raw HMAC of the message into out at outOffset.
+	 */
+	public void sign(byte[] message, int offset, int length, byte[] out, int outOffset) {
+		checkSpace(out.length - outOffset);
+		mac.update(message, offset, length);
+		doFinal(out, outOffset);
+	}
+
+
+	/*
+	 * Signs the message's remaining bytes and writes the raw HMAC at the
+	 * target's position; both buffers are advanced.
+	 */
+	public void sign(ByteBuffer message, ByteBuffer out) {
+		checkSpace(out.remaining());
+		mac.update(message);
+		if (out.hasArray()) {
+			doFinal(out.array(), out.arrayOffset() + out.position());
+			out.position(out.position() + macLength);
+		}
+		else {
+			doFinal(scratch, 0);
+			out.put(scratch);
+		}
+	}
+
+
+	/*
+	 * Signs every message in turn, writing the raw HMACs back to back into out
+	 * from outOffset, and returns the number of bytes written. The output
+	 * must have room for count x getMacLength() bytes.
+	 */
+	public int signAll(Iterable<byte[]> messages, byte[] out, int outOffset) {
+		int pos = outOffset;
+		for (byte[] message : messages) {
+			checkSpace(out.length - pos);
+			mac.update(message);
+			doFinal(out, pos);
+			pos += macLength;
+		}
+		return pos - outOffset;
+	}
+
+
+	public void signAll(Iterable<byte[]> messages, ByteBuffer out) {
+		for (byte[] message : messages) {
+			checkSpace(out.remaining());
+			mac.update(message);
+			doFinal(scratch, 0);
+			out.put(scratch);
+		}
+	}
+
+
+	/*
+	 * As signAll, but writes each HMAC as Codec.hexLength(getMacLength())
+	 * hex digits, and returns the number of chars written.
+	 */
+	public int signAllHex(Iterable<byte[]> messages, char[] out, int outOffset, boolean upperCase) {
+		int pos = outOffset;
+		for (byte[] message : messages) {
+			if (out.length - pos < Codec.hexLength(macLength)) {
+				throw new IllegalArgumentException("Output buffer too small");
+			}
+			mac.update(message);
+			doFinal(scratch, 0);
+			pos += Codec.encodeHex(scratch, 0, macLength, out, pos, upperCase);
+		}
+		return pos - outOffset;
+	}
+
+
+	private void checkSpace(int available) {
+		if (available < macLength) {
+			throw new IllegalArgumentException("Output buffer too small");
+		}
+	}
+
+
+	private void doFinal(byte[] out, int outOffset) {
+		try {
+			mac.doFinal(out, outOffset);
+		}
+		catch (ShortBufferException e) {
+			// the space has been checked beforehand
+			throw new IllegalStateException(e);
+		}
+	}
+}
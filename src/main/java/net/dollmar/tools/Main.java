@@ -0,0 +1,20 @@
+package net.dollmar.tools;
+
+/**
+ * Entry point of the jar. Without arguments the GUI is started; with
+ * arguments the command line tool runs and Swing is never loaded, so
+ * the tool can be used on headless servers.
+ */
+public final class Main {
+
+	private Main() {}
+
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			Hasher.main(args);
+		}
+		else {
+			System.exit(HasherCli.run(args));
+		}
+	}
+}
@@ -0,0 +1,373 @@
+package net.dollmar.tools;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.codec.DecoderException;
+
+/**
+ * Checks the files listed in a checksum manifest. Two line formats are
+ * understood, and may be mixed:
+ * <pre>
+ *   digest  name               sha256sum, md5sum etc. ("digest *name" too)
+ *   ALG (name) = digest        BSD tagged, as written by "sha256sum --tag"
+ *                              and by this tool for several algorithms
+ * </pre>
+ * Names starting with a backslash are unescaped as sha256sum does. Digests
+ * may be hex or Base64. Consecutive tagged lines for the same file make up
+ * one entry, so a manifest with several algorithms per file still reads
+ * each file only once. Untagged lines use the configured algorithm or, by
+ * default, the usual one for the digest length (MD5, SHA1, SHA256...).
+ *
+ * The manifest is read as it is verified; at most
+ * {@link #setWindowSize(int) windowSize} entries are held at a time, so
+ * manifests of any length can be checked. Files are checked in parallel,
+ * on a separate lane of {@link #setParallelism(int) parallelism} threads
+ * for each file store (device), each lane taking its files in manifest
+ * order, and the results are reported in manifest order. With
+ * {@link #setVirtualThreads(int)} each lane runs a virtual thread per file
+ * instead, which keeps far more files in flight on slow or remote stores.
+ */
+public class ManifestVerifier {
+
+	public enum Status { OK, FAILED, MISSING }
+
+	/**
+	 * Hashes one file, returning one lower case hex result (or "Error: "
+	 * message) per algorithm, in the form used by the calculators.
+	 */
+	@FunctionalInterface
+	public interface DigestFunction {
+		String[] hash(String fileName, String[] algorithms);
+	}
+
+	/**
+	 * Receives the outcome of every entry in manifest order, on the thread
+	 * that called {@link ManifestVerifier#verify(BufferedReader, String, Listener)}.
+	 */
+	public interface Listener {
+		/*
+		 * The message is null for OK, otherwise says what went wrong.
+		 */
+		void checked(String fileName, Status status, String message);
+
+		void malformed(String manifest, int lineNumber);
+	}
+
+	private static final int MAX_CACHED_DIRECTORIES = 1024;
+
+	private static final Map<Integer, String> DEFAULT_ALGORITHMS = new HashMap<>();
+
+	static {
+		DEFAULT_ALGORITHMS.put(16, "MD5");
+		DEFAULT_ALGORITHMS.put(20, "SHA1");
+		DEFAULT_ALGORITHMS.put(24, "Tiger");
+		DEFAULT_ALGORITHMS.put(32, "SHA256");
+		DEFAULT_ALGORITHMS.put(48, "SHA384");
+		DEFAULT_ALGORITHMS.put(64, "SHA512");
+	}
+
+	private final DigestFunction function;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private int windowSize = TreeHasher.DEFAULT_WINDOW_SIZE;
+	private int virtualThreads;
+	private boolean failFast;
+	private String algorithm;
+
+	private final int[] counts = new int[Status.values().length];
+	private int malformed;
+
+	private Map<String, ExecutorService> lanes;
+	private Map<Path, String> devices;
+
+
+	private static final class Entry {
+		final String name;
+		final List<String> algorithms = new ArrayList<>();
+		final List<String> expected = new ArrayList<>();
+		Future<String[]> result;
+
+		Entry(String name) {
+			this.name = name;
+		}
+	}
+
+
+	public ManifestVerifier(DigestFunction function) {
+		this.function = function;
+	}
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	public void setWindowSize(int windowSize) {
+		this.windowSize = Math.max(1, windowSize);
+	}
+
+	/**
+	 * Checks each file on a virtual thread of its own, at most concurrency
+	 * of them at a time per file store; 0, the default, uses lanes of
+	 * parallelism platform threads.
+	 */
+	public void setVirtualThreads(int concurrency) {
+		this.virtualThreads = Math.max(0, concurrency);
+	}
+
+	/**
+	 * Stops at the first entry that is not OK; entries after it are not
+	 * reported.
+	 */
+	public void setFailFast(boolean failFast) {
+		this.failFast = failFast;
+	}
+
+	/**
+	 * The algorithm for untagged lines, instead of going by digest length.
+	 */
+	public void setAlgorithm(String algorithm) {
+		this.algorithm = algorithm;
+	}
+
+	public int getCount(Status status) {
+		return counts[status.ordinal()];
+	}
+
+	public int getMalformed() {
+		return malformed;
+	}
+
+
+	/*
+	 * Verifies every entry of the manifest, adding to the counts. Returns
+	 * false if it stopped early because of fail fast.
+	 */
+	public boolean verify(BufferedReader manifest, String manifestName, Listener listener) throws IOException {
+		Deque<Entry> window = new ArrayDeque<>();
+		lanes = new HashMap<>();
+		devices = lruMap();
+		try {
+			Entry entry = null;
+			String line;
+			int lineNumber = 0;
+			while ((line = manifest.readLine()) != null) {
+				lineNumber++;
+				String[] parsed = parse(line);
+				if (parsed == null) {
+					if (!line.trim().isEmpty() && !line.startsWith("#")) {
+						malformed++;
+						listener.malformed(manifestName, lineNumber);
+					}
+					continue;
+				}
+				if (entry != null && !entry.name.equals(parsed[1])) {
+					if (!enqueue(window, entry, listener)) {
+						return false;
+					}
+					entry = null;
+				}
+				if (entry == null) {
+					entry = new Entry(parsed[1]);
+				}
+				entry.algorithms.add(parsed[0]);
+				entry.expected.add(parsed[2]);
+			}
+			if (entry != null && !enqueue(window, entry, listener)) {
+				return false;
+			}
+			while (!window.isEmpty()) {
+				if (!emit(window.removeFirst(), listener)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		finally {
+			for (ExecutorService lane : lanes.values()) {
+				lane.shutdownNow();
+			}
+		}
+	}
+
+
+	private static Map<Path, String> lruMap() {
+		return new LinkedHashMap<Path, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Path, String> eldest) {
+				return size() > MAX_CACHED_DIRECTORIES;
+			}
+		};
+	}
+
+
+	/*
+	 * Splits a manifest line into algorithm, file name and lower case hex
+	 * digest, or returns null if it is not a checksum line.
+	 */
+	String[] parse(String line) {
+		if (line.endsWith("\r")) {
+			line = line.substring(0, line.length() - 1);
+		}
+		boolean escaped = line.startsWith("\\");
+		if (escaped) {
+			line = line.substring(1);
+		}
+
+		String alg;
+		String name;
+		String digest;
+		int tag = line.indexOf(" (");
+		int eq = line.lastIndexOf(") = ");
+		if (tag > 0 && eq > tag && line.indexOf(' ') == tag) {
+			alg = line.substring(0, tag);
+			name = line.substring(tag + 2, eq);
+			digest = line.substring(eq + 4);
+		}
+		else {
+			int sp = line.indexOf(' ');
+			if (sp <= 0 || sp + 2 > line.length() || (line.charAt(sp + 1) != ' ' && line.charAt(sp + 1) != '*')) {
+				return null;
+			}
+			alg = null;
+			digest = line.substring(0, sp);
+			name = line.substring(sp + 2);
+		}
+		if (name.isEmpty()) {
+			return null;
+		}
+
+		byte[] bytes;
+		try {
+			boolean hex = digest.chars().allMatch(c -> Character.digit(c, 16) >= 0);
+			bytes = hex ? Codec.fromHex(digest) : Codec.fromBase64(digest);
+		}
+		catch (DecoderException e) {
+			return null;
+		}
+		if (bytes.length == 0) {
+			return null;
+		}
+		if (alg == null) {
+			alg = (algorithm != null) ? algorithm : DEFAULT_ALGORITHMS.get(bytes.length);
+			if (alg == null) {
+				return null;
+			}
+		}
+		if (escaped) {
+			name = unescape(name);
+		}
+		return new String[] { alg, name, Codec.toHex(bytes, false) };
+	}
+
+
+	private static String unescape(String name) {
+		StringBuilder sb = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c == '\\' && i + 1 < name.length()) {
+				char next = name.charAt(++i);
+				sb.append((next == 'n') ? '\n' : next);
+			}
+			else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+
+	private boolean enqueue(Deque<Entry> window, Entry entry, Listener listener) throws InterruptedIOException {
+		String[] algorithms = entry.algorithms.toArray(new String[0]);
+		entry.result = lane(entry.name).submit(() -> function.hash(entry.name, algorithms));
+		window.addLast(entry);
+		while (!window.isEmpty() && (window.size() >= windowSize || window.peekFirst().result.isDone())) {
+			if (!emit(window.removeFirst(), listener)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/*
+	 * The lane of the file store holding the file. The stores are looked up
+	 * once per directory, as that is not cheap.
+	 */
+	private ExecutorService lane(String fileName) {
+		Path dir = Paths.get(fileName).toAbsolutePath().getParent();
+		String device = devices.get(dir);
+		if (device == null) {
+			try {
+				FileStore store = Files.getFileStore(dir);
+				device = store.toString();
+			}
+			catch (IOException e) {
+				// a missing directory; the check will report it
+				device = "";
+			}
+			devices.put(dir, device);
+		}
+		return lanes.computeIfAbsent(device, d -> (virtualThreads > 0)
+				? VirtualThreads.newExecutor(virtualThreads, "hasher-check")
+				: Executors.newFixedThreadPool(parallelism, r -> {
+					Thread t = new Thread(r, "hasher-check");
+					t.setDaemon(true);
+					return t;
+				}));
+	}
+
+
+	/*
+	 * Reports the entry, waiting for it if need be. Returns false if
+	 * verification is to stop.
+	 */
+	private boolean emit(Entry entry, Listener listener) throws InterruptedIOException {
+		String[] results;
+		try {
+			results = entry.result.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Verification interrupted");
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			results = new String[] { "Error: " + ((cause.getMessage() != null) ? cause.getMessage() : cause) };
+		}
+
+		Status status = Status.OK;
+		String message = null;
+		for (int i = 0; i < entry.expected.size() && status == Status.OK; i++) {
+			String result = results[Math.min(i, results.length - 1)];
+			if (result.startsWith("Error: ")) {
+				status = Files.exists(Paths.get(entry.name)) ? Status.FAILED : Status.MISSING;
+				message = result.substring("Error: ".length());
+			}
+			else if (!result.equalsIgnoreCase(entry.expected.get(i))) {
+				status = Status.FAILED;
+				message = entry.algorithms.get(i) + " digest does not match";
+			}
+		}
+		counts[status.ordinal()]++;
+		listener.checked(entry.name, status, message);
+		return !(failFast && status != Status.OK);
+	}
+}
@@ -0,0 +1,349 @@
+package net.dollmar.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tree (Merkle) hash of a single file. The file is split into leaves of a
+ * fixed size which are hashed in parallel, each worker mapping its part of
+ * the file, so one huge file is no longer limited to the speed of a single
+ * core. The root is a function of the algorithm, the leaf size and the data:
+ * <pre>
+ *   leaf[i] = H(0x00 || data[i * leafSize, min((i + 1) * leafSize, length)))
+ *   node    = H(0x01 || left || right)
+ * </pre>
+ * Each level is built from the one below by hashing neighbours in pairs; an
+ * unpaired last node is carried up unchanged. The root is the single node
+ * left at the top. An empty file has one, empty, leaf. The 0x00 and 0x01
+ * prefixes keep leaf and node hashes apart, as in RFC 6962.
+ *
+ * The leaf hashes can be saved with {@link #save(Path)} and loaded again to
+ * re-verify only the parts of the file that may have changed:
+ * <pre>
+ *   "HSHM" version:int algorithm:UTF leafSize:int length:long
+ *   digestLength:short count:int count x digest:bytes
+ * </pre>
+ */
+public class MerkleTree {
+
+	public static final int DEFAULT_LEAF_SIZE = 1024 * 1024;
+
+	private static final int MAGIC = 0x4853484D; // "HSHM"
+	private static final int VERSION = 1;
+
+	private static final byte LEAF = 0x00;
+	private static final byte NODE = 0x01;
+
+	// the most each worker task maps at a time
+	private static final long TASK_SIZE = 64L * 1024 * 1024;
+
+	private static final ExecutorService WORKERS = Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(), r -> {
+				Thread t = new Thread(r, "hasher-tree-worker");
+				t.setDaemon(true);
+				return t;
+			});
+
+	private final String algorithm;
+	private final int leafSize;
+	private final long length;
+	private final byte[][] leaves;
+
+
+	private MerkleTree(String algorithm, int leafSize, long length, byte[][] leaves) {
+		this.algorithm = algorithm;
+		this.leafSize = leafSize;
+		this.length = length;
+		this.leaves = leaves;
+	}
+
+
+	/*
+	 * Hashes all the leaves of the file.
+	 */
+	public static MerkleTree build(String algorithm, String fileName, int leafSize)
+			throws IOException, GeneralSecurityException
+	{
+		if (leafSize <= 0) {
+			throw new IllegalArgumentException("Invalid leaf size: " + leafSize);
+		}
+		try (FileChannel fc = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+			long length = fc.size();
+			int count = leafCount(length, leafSize);
+			byte[][] leaves = new byte[count][];
+			hashLeaves(algorithm, fc, leafSize, length, leaves, 0, count);
+			return new MerkleTree(algorithm, leafSize, length, leaves);
+		}
+	}
+
+
+	private static int leafCount(long length, int leafSize) throws IOException {
+		long count = Math.max(1, (length + leafSize - 1) / leafSize);
+		if (count > Integer.MAX_VALUE) {
+			throw new IOException("Too many leaves; use a larger leaf size");
+		}
+		return (int) count;
+	}
+
+
+	/*
+	 * Hashes leaves [from, to) into the array, spreading them over the
+	 * workers in runs of at most TASK_SIZE bytes.
+	 */
+	private static void hashLeaves(String algorithm, FileChannel fc, int leafSize, long length,
+			byte[][] leaves, int from, int to) throws IOException, GeneralSecurityException
+	{
+		int perTask = (int) Math.max(1, TASK_SIZE / leafSize);
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int first = from; first < to; first += perTask) {
+			int start = first;
+			int end = Math.min(to, first + perTask);
+			tasks.add(() -> {
+				hashRun(algorithm, fc, leafSize, length, leaves, start, end);
+				return null;
+			});
+		}
+
+		try {
+			for (Future<Void> f : WORKERS.invokeAll(tasks)) {
+				f.get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Tree hashing interrupted");
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof GeneralSecurityException) {
+				throw (GeneralSecurityException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+
+	private static void hashRun(String algorithm, FileChannel fc, int leafSize, long length,
+			byte[][] leaves, int first, int end) throws IOException, GeneralSecurityException
+	{
+		MessageDigest md = EnginePool.digest(algorithm);
+		long pos = (long) first * leafSize;
+		long size = Math.min(length, (long) end * leafSize) - pos;
+		ByteBuffer run = (size > 0)
+				? fc.map(FileChannel.MapMode.READ_ONLY, pos, size)
+				: ByteBuffer.allocate(0);
+		for (int i = first; i < end; i++) {
+			int offset = (int) ((long) (i - first) * leafSize);
+			ByteBuffer leaf = run.duplicate();
+			leaf.position(Math.min(offset, leaf.limit()));
+			leaf.limit(Math.min(offset + leafSize, leaf.limit()));
+			md.update(LEAF);
+			md.update(leaf);
+			leaves[i] = md.digest();
+		}
+	}
+
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	public int getLeafSize() {
+		return leafSize;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public int getLeafCount() {
+		return leaves.length;
+	}
+
+	public byte[] getLeaf(int index) {
+		return leaves[index].clone();
+	}
+
+
+	public byte[] getRoot() throws GeneralSecurityException {
+		MessageDigest md = EnginePool.digest(algorithm);
+		byte[][] level = leaves;
+		while (level.length > 1) {
+			byte[][] next = new byte[(level.length + 1) / 2][];
+			for (int i = 0; i < level.length / 2; i++) {
+				md.update(NODE);
+				md.update(level[2 * i]);
+				md.update(level[2 * i + 1]);
+				next[i] = md.digest();
+			}
+			if ((level.length & 1) != 0) {
+				next[next.length - 1] = level[level.length - 1];
+			}
+			level = next;
+		}
+		return level[0].clone();
+	}
+
+
+	/*
+	 * Hashes again only the leaves that overlap the given byte range of the
+	 * file and returns the indices of those that no longer match, in
+	 * ascending order. The file must still have the recorded length.
+	 */
+	public int[] verify(String fileName, long offset, long rangeLength)
+			throws IOException, GeneralSecurityException
+	{
+		try (FileChannel fc = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+			long size = fc.size();
+			if (size != length) {
+				throw new IOException("File length changed from " + length + " to " + size);
+			}
+			int from = (int) Math.min(leaves.length, Math.max(0, offset) / leafSize);
+			int to = (int) Math.min(leaves.length, (Math.max(0, offset + rangeLength) + leafSize - 1) / leafSize);
+			if (length == 0) {
+				to = 1;
+			}
+			byte[][] fresh = new byte[leaves.length][];
+			hashLeaves(algorithm, fc, leafSize, length, fresh, from, to);
+
+			int[] changed = new int[to - from];
+			int n = 0;
+			for (int i = from; i < to; i++) {
+				if (!MessageDigest.isEqual(leaves[i], fresh[i])) {
+					changed[n++] = i;
+				}
+			}
+			return Arrays.copyOf(changed, n);
+		}
+	}
+
+
+	public int[] verify(String fileName) throws IOException, GeneralSecurityException {
+		return verify(fileName, 0, length);
+	}
+
+
+	/*
+	 * Returns the tree of the file as it is now, assuming that only the bytes
+	 * in the given range may have changed and that the file may have grown
+	 * or shrunk at its end. Only the leaves overlapping the range, and those
+	 * from the old last leaf onwards if the length changed, are read again;
+	 * all others are taken from this tree. An append is rehash(fileName,
+	 * getLength(), 0).
+	 */
+	public MerkleTree rehash(String fileName, long offset, long rangeLength)
+			throws IOException, GeneralSecurityException
+	{
+		try (FileChannel fc = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+			long size = fc.size();
+			int count = leafCount(size, leafSize);
+			byte[][] fresh = Arrays.copyOf(leaves, count);
+
+			if (size != length) {
+				int tail = Math.min(leaves.length, count) - 1;
+				hashLeaves(algorithm, fc, leafSize, size, fresh, tail, count);
+			}
+			int from = (int) Math.min(count, Math.max(0, offset) / leafSize);
+			int to = (int) Math.min(count, (Math.max(0, offset + rangeLength) + leafSize - 1) / leafSize);
+			if (from < to) {
+				hashLeaves(algorithm, fc, leafSize, size, fresh, from, to);
+			}
+			return new MerkleTree(algorithm, leafSize, size, fresh);
+		}
+	}
+
+
+	/*
+	 * The indices of the leaves in which the other tree, of the same file at
+	 * another time, differs from this one, including any leaves only one of
+	 * them has.
+	 */
+	public int[] changedLeaves(MerkleTree other) {
+		int count = Math.max(leaves.length, other.leaves.length);
+		int[] changed = new int[count];
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			if (i >= leaves.length || i >= other.leaves.length || !MessageDigest.isEqual(leaves[i], other.leaves[i])) {
+				changed[n++] = i;
+			}
+		}
+		return Arrays.copyOf(changed, n);
+	}
+
+
+	public void save(Path file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+			write(out);
+		}
+	}
+
+
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(algorithm);
+		out.writeInt(leafSize);
+		out.writeLong(length);
+		out.writeShort(leaves[0].length);
+		out.writeInt(leaves.length);
+		for (byte[] leaf : leaves) {
+			out.write(leaf);
+		}
+	}
+
+
+	public static MerkleTree load(Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			return read(in, file);
+		}
+	}
+
+
+	static MerkleTree read(DataInputStream in, Path file) throws IOException {
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a leaf hash file: " + file);
+			}
+			String algorithm = in.readUTF();
+			int leafSize = in.readInt();
+			long length = in.readLong();
+			int digestLength = in.readUnsignedShort();
+			int count = in.readInt();
+			if (leafSize <= 0 || count != leafCount(length, leafSize)) {
+				throw new IOException("Corrupt leaf hash file: " + file);
+			}
+			byte[][] leaves = new byte[count][digestLength];
+			for (byte[] leaf : leaves) {
+				in.readFully(leaf);
+			}
+			return new MerkleTree(algorithm, leafSize, length, leaves);
+		}
+		catch (EOFException e) {
+			throw new IOException("Truncated leaf hash file: " + file, e);
+		}
+	}
+}
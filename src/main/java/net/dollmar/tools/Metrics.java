@@ -0,0 +1,311 @@
+package net.dollmar.tools;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms for the hashing hot paths: bytes and time
+ * spent reading, time spent in each algorithm's update, per-file latency,
+ * provider lookups and cache hits.
+ *
+ * Metrics are off unless enabled with {@link #enable()} or the system
+ * property "hasher.metrics". While off, each instrumented point costs one
+ * read of a static field: no clock is read and nothing is counted, and the
+ * digest engines are not wrapped. Enabling them also registers the
+ * {@link MetricsMXBean} with the platform MBean server.
+ */
+public final class Metrics {
+
+	public static final String OBJECT_NAME = "net.dollmar.tools:type=Metrics";
+
+	// deliberately not volatile; it is set once, before hashing starts
+	private static boolean enabled;
+
+	private static final LongAdder bytesRead = new LongAdder();
+	private static final LongAdder reads = new LongAdder();
+	private static final LongAdder readNanos = new LongAdder();
+	private static final LongAdder files = new LongAdder();
+	private static final LongAdder fileErrors = new LongAdder();
+	private static final LongAdder providerLookups = new LongAdder();
+	private static final LongAdder providerNanos = new LongAdder();
+	private static final LongAdder cacheHits = new LongAdder();
+	private static final LongAdder cacheMisses = new LongAdder();
+
+	private static final Histogram readLatency = new Histogram();
+	private static final Histogram fileLatency = new Histogram();
+
+	private static final Map<String, LongAdder[]> algorithms = new ConcurrentHashMap<>();
+
+	static {
+		if (Boolean.getBoolean("hasher.metrics")) {
+			enable();
+		}
+	}
+
+
+	/**
+	 * Latencies in power of two buckets, which is precise enough to tell a
+	 * page cache hit from a disk read at a cost of one increment.
+	 */
+	static final class Histogram {
+		private final LongAdder[] buckets = new LongAdder[64];
+		private final LongAdder sum = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+		Histogram() {
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		void record(long nanos) {
+			long v = Math.max(1, nanos);
+			buckets[63 - Long.numberOfLeadingZeros(v)].increment();
+			sum.add(v);
+			max.accumulate(v);
+		}
+
+		long count() {
+			long n = 0;
+			for (LongAdder b : buckets) {
+				n += b.sum();
+			}
+			return n;
+		}
+
+		/*
+		 * The upper bound of the bucket holding the given fraction of the
+		 * recorded values, or 0 if there are none.
+		 */
+		long percentile(double p) {
+			long total = count();
+			if (total == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(p * total);
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i].sum();
+				if (seen >= rank) {
+					return Math.min(max.get(), (i == 62) ? Long.MAX_VALUE : (1L << (i + 1)) - 1);
+				}
+			}
+			return max.get();
+		}
+
+		void reset() {
+			for (LongAdder b : buckets) {
+				b.reset();
+			}
+			sum.reset();
+			max.reset();
+		}
+
+		String toJson() {
+			return "{\"count\":" + count() + ",\"sumNanos\":" + sum.sum() + ",\"maxNanos\":" + max.get()
+					+ ",\"p50Nanos\":" + percentile(0.5) + ",\"p90Nanos\":" + percentile(0.9)
+					+ ",\"p99Nanos\":" + percentile(0.99) + "}";
+		}
+	}
+
+
+	private Metrics() {}
+
+
+	public static synchronized void enable() {
+		if (enabled) {
+			return;
+		}
+		enabled = true;
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(OBJECT_NAME));
+		}
+		catch (JMException e) {
+			// metrics still work, just not over JMX
+		}
+	}
+
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+
+	/*
+	 * The start time for a measurement, or 0 when metrics are off.
+	 */
+	static long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+
+	/*
+	 * Records one read of n bytes (-1 at the end of input) started at the
+	 * given time.
+	 */
+	static void read(long start, long n) {
+		if (enabled) {
+			long nanos = System.nanoTime() - start;
+			reads.increment();
+			readNanos.add(nanos);
+			readLatency.record(nanos);
+			if (n > 0) {
+				bytesRead.add(n);
+			}
+		}
+	}
+
+
+	/*
+	 * Records bytes that were not read by a timed call, such as mapped ones.
+	 */
+	static void bytes(long n) {
+		if (enabled) {
+			bytesRead.add(n);
+		}
+	}
+
+
+	static void file(long start, boolean ok) {
+		if (enabled) {
+			fileLatency.record(System.nanoTime() - start);
+			(ok ? files : fileErrors).increment();
+		}
+	}
+
+
+	static void providerLookup(long start) {
+		if (enabled) {
+			providerLookups.increment();
+			providerNanos.add(System.nanoTime() - start);
+		}
+	}
+
+
+	static void cache(boolean hit) {
+		if (enabled) {
+			(hit ? cacheHits : cacheMisses).increment();
+		}
+	}
+
+
+	/*
+	 * Returns the engine wrapped so that the bytes it digests and the time
+	 * it takes are counted against its algorithm, or the engine itself when
+	 * metrics are off.
+	 */
+	static DigestEngine instrument(final DigestEngine engine) {
+		if (!enabled) {
+			return engine;
+		}
+		final LongAdder[] stats = algorithms.computeIfAbsent(engine.getAlgorithm(),
+				k -> new LongAdder[] { new LongAdder(), new LongAdder() });
+		return new DigestEngine() {
+			@Override
+			public String getAlgorithm() {
+				return engine.getAlgorithm();
+			}
+
+			@Override
+			public void update(byte[] input, int offset, int len) {
+				long t = System.nanoTime();
+				engine.update(input, offset, len);
+				stats[1].add(System.nanoTime() - t);
+				stats[0].add(len);
+			}
+
+			@Override
+			public void update(ByteBuffer input) {
+				int len = input.remaining();
+				long t = System.nanoTime();
+				engine.update(input);
+				stats[1].add(System.nanoTime() - t);
+				stats[0].add(len);
+			}
+
+			@Override
+			public byte[] doFinal() {
+				return engine.doFinal();
+			}
+		};
+	}
+
+
+	public static void reset() {
+		for (LongAdder a : new LongAdder[] { bytesRead, reads, readNanos, files, fileErrors,
+				providerLookups, providerNanos, cacheHits, cacheMisses }) {
+			a.reset();
+		}
+		readLatency.reset();
+		fileLatency.reset();
+		algorithms.clear();
+	}
+
+
+	/*
+	 * A machine readable summary of all the metrics as a JSON object.
+	 */
+	public static String summary() {
+		StringBuilder sb = new StringBuilder("{");
+		sb.append("\"bytesRead\":").append(bytesRead.sum());
+		sb.append(",\"reads\":").append(reads.sum());
+		sb.append(",\"readNanos\":").append(readNanos.sum());
+		sb.append(",\"files\":").append(files.sum());
+		sb.append(",\"fileErrors\":").append(fileErrors.sum());
+		sb.append(",\"providerLookups\":").append(providerLookups.sum());
+		sb.append(",\"providerLookupNanos\":").append(providerNanos.sum());
+		sb.append(",\"cacheHits\":").append(cacheHits.sum());
+		sb.append(",\"cacheMisses\":").append(cacheMisses.sum());
+		sb.append(",\"readLatency\":").append(readLatency.toJson());
+		sb.append(",\"fileLatency\":").append(fileLatency.toJson());
+		sb.append(",\"algorithms\":{");
+		String sep = "";
+		for (Map.Entry<String, LongAdder[]> e : new TreeMap<>(algorithms).entrySet()) {
+			long bytes = e.getValue()[0].sum();
+			long nanos = e.getValue()[1].sum();
+			sb.append(sep).append('"').append(e.getKey()).append("\":{\"bytes\":").append(bytes)
+					.append(",\"nanos\":").append(nanos)
+					.append(",\"mbPerSecond\":").append((nanos > 0) ? Math.round(bytes * 1000.0 / nanos) : 0)
+					.append('}');
+			sep = ",";
+		}
+		return sb.append("}}").toString();
+	}
+
+
+	private static Map<String, Long> algorithmTotals(int index) {
+		Map<String, Long> totals = new TreeMap<>();
+		for (Map.Entry<String, LongAdder[]> e : algorithms.entrySet()) {
+			totals.put(e.getKey(), e.getValue()[index].sum());
+		}
+		return totals;
+	}
+
+
+	private static final class Bean implements MetricsMXBean {
+		@Override public long getBytesRead() { return bytesRead.sum(); }
+		@Override public long getReads() { return reads.sum(); }
+		@Override public long getReadNanos() { return readNanos.sum(); }
+		@Override public long getFilesHashed() { return files.sum(); }
+		@Override public long getFileErrors() { return fileErrors.sum(); }
+		@Override public long getProviderLookups() { return providerLookups.sum(); }
+		@Override public long getProviderLookupNanos() { return providerNanos.sum(); }
+		@Override public long getCacheHits() { return cacheHits.sum(); }
+		@Override public long getCacheMisses() { return cacheMisses.sum(); }
+		@Override public Map<String, Long> getAlgorithmBytes() { return algorithmTotals(0); }
+		@Override public Map<String, Long> getAlgorithmNanos() { return algorithmTotals(1); }
+		@Override public long getFileLatencyP50Nanos() { return fileLatency.percentile(0.5); }
+		@Override public long getFileLatencyP99Nanos() { return fileLatency.percentile(0.99); }
+		@Override public long getReadLatencyP99Nanos() { return readLatency.percentile(0.99); }
+		@Override public String getSummary() { return summary(); }
+		@Override public void reset() { Metrics.reset(); }
+	}
+}
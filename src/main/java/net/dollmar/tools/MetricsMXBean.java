@@ -0,0 +1,46 @@
+package net.dollmar.tools;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link Metrics}, registered as
+ * {@value Metrics#OBJECT_NAME} once metrics are enabled. Times are in
+ * nanoseconds.
+ */
+public interface MetricsMXBean {
+
+	long getBytesRead();
+
+	long getReads();
+
+	long getReadNanos();
+
+	long getFilesHashed();
+
+	long getFileErrors();
+
+	long getProviderLookups();
+
+	long getProviderLookupNanos();
+
+	long getCacheHits();
+
+	long getCacheMisses();
+
+	Map<String, Long> getAlgorithmBytes();
+
+	Map<String, Long> getAlgorithmNanos();
+
+	long getFileLatencyP50Nanos();
+
+	long getFileLatencyP99Nanos();
+
+	long getReadLatencyP99Nanos();
+
+	/**
+	 * Everything above as one JSON object.
+	 */
+	String getSummary();
+
+	void reset();
+}
@@ -0,0 +1,268 @@
+package net.dollmar.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntConsumer;
+
+/**
+ * Reads the input once and feeds every chunk to each of the supplied
+ * engines, so that selecting several algorithms costs a single pass over
+ * the file rather than one pass per algorithm.
+ * 
+ * Reads are done in bulk into a per-thread buffer whose size defaults to
+ * 64 KiB and may be changed with the system property "hasher.buffer.size"
+ * or {@link #setBufferSize(int)}.
+ * 
+ * The {@link ReadMode#CHANNEL} and {@link ReadMode#MAPPED} modes hand
+ * {@code ByteBuffer}s straight to the engines instead of copying the data
+ * into a heap array first. Mapped files are processed in windows of at
+ * most 1 GiB (system property "hasher.map.window") so that files larger
+ * than 2 GB can be mapped too.
+ */
+public class MultiDigest {
+
+	/**
+	 * Something that can be read once and fed to a set of engines. The
+	 * callback is made with the index of each engine once it has seen all
+	 * of the input.
+	 */
+	@FunctionalInterface
+	public interface Source {
+		void digest(DigestEngine[] engines, DigestMonitor monitor, IntConsumer onComplete) throws IOException;
+	}
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	public static final int MIN_BUFFER_SIZE = 4 * 1024;
+
+	private static volatile int bufferSize = Math.max(MIN_BUFFER_SIZE, 
+			Integer.getInteger("hasher.buffer.size", DEFAULT_BUFFER_SIZE));
+
+	public static final long DEFAULT_MAP_WINDOW = 1L << 30;
+
+	private static final long mapWindow = Math.max(MIN_BUFFER_SIZE,
+			Math.min(Integer.MAX_VALUE, Long.getLong("hasher.map.window", DEFAULT_MAP_WINDOW)));
+
+	private static final ThreadLocal<byte[]> BUFFERS = VirtualThreads.carried();
+	private static final ThreadLocal<ByteBuffer> DIRECT_BUFFERS = VirtualThreads.carried();
+
+
+	public static int getBufferSize() {
+		return bufferSize;
+	}
+
+	public static void setBufferSize(int size) {
+		bufferSize = Math.max(MIN_BUFFER_SIZE, size);
+	}
+
+
+	/*
+	 * Returns this thread's read buffer, replacing it if the configured size
+	 * has changed since it was allocated.
+	 */
+	static byte[] buffer() {
+		byte[] buffer = BUFFERS.get();
+		if (buffer == null || buffer.length != bufferSize) {
+			buffer = new byte[bufferSize];
+			BUFFERS.set(buffer);
+		}
+		return buffer;
+	}
+
+
+	/*
+	 * Returns this thread's direct read buffer, cleared and ready for filling.
+	 */
+	static ByteBuffer directBuffer() {
+		ByteBuffer buffer = DIRECT_BUFFERS.get();
+		if (buffer == null || buffer.capacity() != bufferSize) {
+			buffer = ByteBuffer.allocateDirect(bufferSize);
+			DIRECT_BUFFERS.set(buffer);
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+
+	public static Source file(final String fileName, final ReadMode mode) {
+		return (engines, monitor, onComplete) -> digestFile(fileName, engines, mode, monitor, onComplete);
+	}
+
+
+	/*
+	 * A source that reads the stream to its end, without closing it.
+	 */
+	public static Source stream(final InputStream is) {
+		return (engines, monitor, onComplete) -> {
+			digestStream(is, engines, monitor);
+			completeAll(engines, onComplete);
+		};
+	}
+
+
+	/*
+	 * A source that reads the channel to its end, without closing it.
+	 */
+	public static Source channel(final ReadableByteChannel ch) {
+		return (engines, monitor, onComplete) -> {
+			digestChannel(ch, engines, monitor);
+			completeAll(engines, onComplete);
+		};
+	}
+
+
+	private static void completeAll(final DigestEngine[] engines, IntConsumer onComplete) {
+		for (int i = 0; i < engines.length; i++) {
+			if (engines[i] != null) {
+				onComplete.accept(i);
+			}
+		}
+	}
+
+
+	public static void digestFile(final String fileName, final DigestEngine[] engines) throws IOException {
+		digestFile(fileName, engines, ReadMode.STREAM);
+	}
+
+
+	public static void digestFile(final String fileName, final DigestEngine[] engines, ReadMode mode) throws IOException {
+		digestFile(fileName, engines, mode, DigestMonitor.NONE, i -> {});
+	}
+
+
+	/*
+	 * Digests the file with the given read mode. onComplete is called with
+	 * the index of each engine once it has seen all of the input; in
+	 * PARALLEL mode this happens on the engine's worker thread as soon as
+	 * that engine is done.
+	 */
+	public static void digestFile(
+			final String fileName, 
+			final DigestEngine[] engines, 
+			ReadMode mode, 
+			DigestMonitor monitor, 
+			IntConsumer onComplete) throws IOException 
+	{
+		if (mode == ReadMode.PARALLEL) {
+			ParallelMultiDigest.digestFile(fileName, engines, monitor, onComplete);
+			return;
+		}
+
+		switch (mode) {
+		case CHANNEL:
+			try (FileChannel fc = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+				monitor.started(fc.size());
+				digestChannel(fc, engines, monitor);
+			}
+			break;
+		case MAPPED:
+			try (FileChannel fc = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+				monitor.started(fc.size());
+				digestMapped(fc, engines, monitor);
+			}
+			break;
+		case READ_AHEAD:
+			ReadAheadDigest.digestFile(fileName, engines, monitor);
+			break;
+		default:
+			try (InputStream is = new FileInputStream(fileName)) {
+				monitor.started(new File(fileName).length());
+				digestStream(is, engines, monitor);
+			}
+		}
+		completeAll(engines, onComplete);
+	}
+
+
+	public static void digestChannel(final ReadableByteChannel fc, final DigestEngine[] engines, DigestMonitor monitor) throws IOException {
+		ByteBuffer buffer = directBuffer();
+		long done = 0;
+		while (true) {
+			long start = Metrics.start();
+			int n = fc.read(buffer);
+			Metrics.read(start, n);
+			if (n == -1) {
+				break;
+			}
+			checkCancelled(monitor);
+			buffer.flip();
+			update(engines, buffer);
+			buffer.clear();
+			monitor.progress(done += n);
+		}
+	}
+
+
+	public static void digestMapped(final FileChannel fc, final DigestEngine[] engines, DigestMonitor monitor) throws IOException {
+		long size = fc.size();
+		for (long pos = 0; pos < size; pos += mapWindow) {
+			MappedByteBuffer window = fc.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(mapWindow, size - pos));
+			// hand the window over in slices so that progress and cancellation stay responsive
+			int slice = 16 * bufferSize;
+			for (long off = 0; off < window.limit(); off += slice) {
+				checkCancelled(monitor);
+				ByteBuffer view = window.duplicate();
+				view.position((int) off);
+				view.limit((int) Math.min(window.limit(), off + slice));
+				Metrics.bytes(view.remaining());
+				update(engines, view);
+				monitor.progress(pos + view.limit());
+			}
+		}
+	}
+
+
+	/*
+	 * Feeds the remaining bytes of the buffer to every engine. Each engine
+	 * gets its own view so that the buffer's position is left untouched
+	 * for the next one.
+	 */
+	static void update(final DigestEngine[] engines, final ByteBuffer buffer) {
+		for (DigestEngine engine : engines) {
+			if (engine != null) {
+				engine.update(buffer.duplicate());
+			}
+		}
+	}
+
+
+	static void checkCancelled(DigestMonitor monitor) throws InterruptedIOException {
+		if (monitor.isCancelled()) {
+			throw new InterruptedIOException("Cancelled");
+		}
+	}
+
+
+	public static void digestStream(final InputStream is, final DigestEngine[] engines) throws IOException {
+		digestStream(is, engines, DigestMonitor.NONE);
+	}
+
+
+	public static void digestStream(final InputStream is, final DigestEngine[] engines, DigestMonitor monitor) throws IOException {
+		byte[] buffer = buffer();
+		long done = 0;
+		while (true) {
+			long start = Metrics.start();
+			int n = is.read(buffer);
+			Metrics.read(start, n);
+			if (n == -1) {
+				break;
+			}
+			checkCancelled(monitor);
+			for (DigestEngine engine : engines) {
+				if (engine != null) {
+					engine.update(buffer, 0, n);
+				}
+			}
+			monitor.progress(done += n);
+		}
+	}
+}
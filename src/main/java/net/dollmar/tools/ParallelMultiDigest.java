@@ -0,0 +1,256 @@
+package net.dollmar.tools;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs each engine on its own worker thread while a single reader fills
+ * buffers from the input and fans them out to every worker. A buffer goes
+ * back to the pool once all workers have consumed it, so the total time
+ * approaches that of the slowest algorithm rather than the sum of all of
+ * them. A file with a single engine is read ahead by {@link ReadAheadDigest}
+ * instead.
+ */
+public class ParallelMultiDigest {
+
+	private static final int POOL_SIZE = 8;
+
+	private static final ExecutorService WORKERS = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "hasher-digest-worker");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private static final Chunk END = new Chunk(0);
+
+
+	private static final class Chunk {
+		final byte[] data;
+		int len;
+		final AtomicInteger refs = new AtomicInteger();
+
+		Chunk(int size) {
+			data = new byte[size];
+		}
+
+		void release(BlockingQueue<Chunk> free) {
+			if (refs.decrementAndGet() == 0) {
+				free.offer(this);
+			}
+		}
+	}
+
+
+	public static void digestFile(final String fileName, final DigestEngine[] engines) throws IOException {
+		digestFile(fileName, engines, DigestMonitor.NONE, i -> {});
+	}
+
+
+	public static void digestFile(
+			final String fileName, 
+			final DigestEngine[] engines, 
+			DigestMonitor monitor, 
+			IntConsumer onComplete) throws IOException 
+	{
+		if (activeCount(engines) < 2) {
+			// no fan-out to be had, but reading can still overlap with digesting
+			ReadAheadDigest.digestFile(fileName, engines, monitor);
+			for (int i = 0; i < engines.length; i++) {
+				if (engines[i] != null) {
+					onComplete.accept(i);
+				}
+			}
+			return;
+		}
+		try (FileInputStream is = new FileInputStream(fileName)) {
+			monitor.started(is.getChannel().size());
+			digestStream(is, engines, monitor, onComplete);
+		}
+	}
+
+
+	private static int activeCount(final DigestEngine[] engines) {
+		int n = 0;
+		for (DigestEngine engine : engines) {
+			if (engine != null) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+
+	public static void digestStream(final InputStream is, final DigestEngine[] engines) throws IOException {
+		digestStream(is, engines, DigestMonitor.NONE, i -> {});
+	}
+
+
+	/*
+	 * onComplete is called on the worker thread of each engine as soon as
+	 * it has consumed all of the input.
+	 */
+	public static void digestStream(
+			final InputStream is, 
+			final DigestEngine[] engines, 
+			DigestMonitor monitor, 
+			IntConsumer onComplete) throws IOException 
+	{
+		List<Integer> active = new ArrayList<>();
+		for (int i = 0; i < engines.length; i++) {
+			if (engines[i] != null) {
+				active.add(i);
+			}
+		}
+		if (active.size() < 2) {
+			// nothing to gain from the hand-off
+			MultiDigest.digestStream(is, engines, monitor);
+			for (int i : active) {
+				onComplete.accept(i);
+			}
+			return;
+		}
+
+		BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(POOL_SIZE);
+		for (int i = 0; i < POOL_SIZE; i++) {
+			free.add(new Chunk(MultiDigest.getBufferSize()));
+		}
+
+		AtomicBoolean inputComplete = new AtomicBoolean();
+		List<BlockingQueue<Chunk>> queues = new ArrayList<>();
+		List<Future<?>> futures = new ArrayList<>();
+		for (int index : active) {
+			// room for every chunk in the pool plus the end marker
+			BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(POOL_SIZE + 1);
+			queues.add(queue);
+			futures.add(WORKERS.submit(() -> consume(engines[index], queue, free, () -> {
+				if (inputComplete.get()) {
+					onComplete.accept(index);
+				}
+			})));
+		}
+
+		try {
+			long done = 0;
+			while (true) {
+				Chunk chunk = free.take();
+				long start = Metrics.start();
+				int n = is.read(chunk.data);
+				Metrics.read(start, n);
+				if (n == -1) {
+					inputComplete.set(true);
+					break;
+				}
+				MultiDigest.checkCancelled(monitor);
+				chunk.len = n;
+				chunk.refs.set(queues.size());
+				for (BlockingQueue<Chunk> queue : queues) {
+					queue.put(chunk);
+				}
+				monitor.progress(done += n);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Hashing interrupted");
+		}
+		finally {
+			for (BlockingQueue<Chunk> queue : queues) {
+				queue.offer(END);
+			}
+			if (!inputComplete.get()) {
+				// the engines may be pooled; make sure no worker still uses them
+				awaitQuietly(futures);
+			}
+		}
+		awaitWorkers(futures);
+	}
+
+
+	private static void awaitQuietly(List<Future<?>> futures) {
+		boolean interrupted = false;
+		for (Future<?> f : futures) {
+			while (true) {
+				try {
+					f.get();
+					break;
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+				catch (ExecutionException e) {
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	/*
+	 * Worker loop. A failing engine, whatever it throws, keeps draining its
+	 * queue so that the reader never waits on a buffer that will not be
+	 * released; the failure is rethrown once the end marker is reached.
+	 */
+	private static Void consume(DigestEngine engine, BlockingQueue<Chunk> queue, BlockingQueue<Chunk> free, Runnable onEnd) throws Exception {
+		Throwable failure = null;
+		while (true) {
+			Chunk chunk = queue.take();
+			if (chunk == END) {
+				break;
+			}
+			try {
+				if (failure == null) {
+					engine.update(chunk.data, 0, chunk.len);
+				}
+			}
+			catch (Throwable e) {
+				failure = e;
+			}
+			finally {
+				chunk.release(free);
+			}
+		}
+		if (failure instanceof Exception) {
+			throw (Exception) failure;
+		}
+		if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+		if (failure != null) {
+			throw new Exception(failure);
+		}
+		onEnd.run();
+		return null;
+	}
+
+
+	private static void awaitWorkers(List<Future<?>> futures) throws IOException {
+		try {
+			for (Future<?> f : futures) {
+				f.get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Hashing interrupted");
+		}
+		catch (ExecutionException e) {
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		}
+	}
+}
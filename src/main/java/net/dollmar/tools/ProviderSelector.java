@@ -0,0 +1,282 @@
+package net.dollmar.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Decides which security provider serves each algorithm. Without a profile
+ * the JDK's own providers are preferred and the others, BouncyCastle
+ * ({@link HashCalculator#SEC_PROVIDER}) first, are used in the order they
+ * were installed; this sends SHA-1/SHA-2 to the SUN provider with its CPU
+ * intrinsics while Tiger, Whirlpool and RIPEMD, which only BouncyCastle
+ * has, stay with it.
+ *
+ * {@link #calibrate(String[], String[])}, run by --calibrate, times every
+ * provider that offers an algorithm and routes it to the fastest; the
+ * result is kept in a profile, a properties file mapping
+ * "MessageDigest.SHA256" or "Mac.HmacSHA256" style keys to provider names.
+ * The profile named by the system property "hasher.provider.profile", or
+ * else ~/.hasher/providers.properties, is loaded automatically if present.
+ * Nothing is timed on first use, which would cost every run about a
+ * tenth of a second per provider and algorithm.
+ * Setting the system property "hasher.provider" to a provider name turns
+ * routing off and sends everything to that provider.
+ */
+public final class ProviderSelector {
+
+	public static final String DIGEST = "MessageDigest";
+	public static final String MAC = "Mac";
+
+	public static final Path DEFAULT_PROFILE = Paths.get(
+			System.getProperty("hasher.provider.profile",
+					Paths.get(System.getProperty("user.home"), ".hasher", "providers.properties").toString()));
+
+	private static final long WARMUP_NANOS = 100_000_000L;
+	private static final long MEASURE_NANOS = 50_000_000L;
+
+	private static final String FIXED_PROVIDER = System.getProperty("hasher.provider");
+
+	// routes from calibration or a profile, and the static choices made otherwise
+	private static final Map<String, String> ROUTES = new ConcurrentHashMap<>();
+	private static final Map<String, String> DEFAULTS = new ConcurrentHashMap<>();
+
+	static {
+		try {
+			loadProfile(DEFAULT_PROFILE);
+		}
+		catch (IOException e) {
+			// an unreadable profile only means the static defaults
+		}
+	}
+
+
+	private ProviderSelector() {}
+
+
+	/*
+	 * Returns a digest from the routed provider. A route to a provider that
+	 * is not installed, or does not offer the algorithm (a stale profile),
+	 * falls back to the default provider.
+	 */
+	public static MessageDigest newDigest(String algorithm) throws GeneralSecurityException {
+		long start = Metrics.start();
+		Provider p = Security.getProvider(providerFor(DIGEST, algorithm));
+		String name = (p != null) ? nameIn(DIGEST, algorithm, p) : null;
+		MessageDigest md = (name != null) 
+				? MessageDigest.getInstance(name, p) 
+				: MessageDigest.getInstance(algorithm, HashCalculator.SEC_PROVIDER);
+		Metrics.providerLookup(start);
+		return md;
+	}
+
+
+	/*
+	 * Returns an uninitialised Mac from the routed provider, with the same
+	 * fallback as newDigest.
+	 */
+	public static Mac newMac(String algorithm) throws GeneralSecurityException {
+		long start = Metrics.start();
+		Provider p = Security.getProvider(providerFor(MAC, algorithm));
+		String name = (p != null) ? nameIn(MAC, algorithm, p) : null;
+		Mac mac = (name != null) 
+				? Mac.getInstance(name, p) 
+				: Mac.getInstance(algorithm, HmacCalculator.SEC_PROVIDER);
+		Metrics.providerLookup(start);
+		return mac;
+	}
+
+
+	/*
+	 * Returns the name of the provider to use for the given service type
+	 * (DIGEST or MAC) and algorithm: the calibrated route if there is one,
+	 * otherwise the static default.
+	 */
+	public static String providerFor(String type, String algorithm) {
+		if (FIXED_PROVIDER != null) {
+			return FIXED_PROVIDER;
+		}
+		String key = type + "." + algorithm;
+		String route = ROUTES.get(key);
+		return (route != null) ? route : DEFAULTS.computeIfAbsent(key, k -> standard(type, algorithm));
+	}
+
+
+	/*
+	 * The first JDK provider that offers the algorithm, or else the first
+	 * other one in the order of installation; the default provider if none
+	 * does.
+	 */
+	static String standard(String type, String algorithm) {
+		String other = null;
+		for (Provider p : Security.getProviders()) {
+			if (nameIn(type, algorithm, p) == null) {
+				continue;
+			}
+			String module = p.getClass().getModule().getName();
+			if (module != null && (module.startsWith("java.") || module.startsWith("jdk."))) {
+				return p.getName();
+			}
+			if (other == null) {
+				other = p.getName();
+			}
+		}
+		return (other != null) ? other : HashCalculator.SEC_PROVIDER;
+	}
+
+
+	/*
+	 * Times every installed provider that offers the algorithm and returns
+	 * the name of the fastest; the default provider wins if there is no
+	 * other candidate or nothing could be timed.
+	 */
+	static String fastest(String type, String algorithm) {
+		List<Provider> candidates = new ArrayList<>();
+		for (Provider p : Security.getProviders()) {
+			if (nameIn(type, algorithm, p) != null) {
+				candidates.add(p);
+			}
+		}
+		if (candidates.size() == 1) {
+			// nothing to choose from
+			return candidates.get(0).getName();
+		}
+
+		String best = HashCalculator.SEC_PROVIDER;
+		double bestRate = 0;
+		for (Provider p : candidates) {
+			String name = nameIn(type, algorithm, p);
+			try {
+				double rate = DIGEST.equals(type)
+						? rate(MessageDigest.getInstance(name, p))
+						: rate(Mac.getInstance(name, p), name);
+				if (rate > bestRate) {
+					bestRate = rate;
+					best = p.getName();
+				}
+			}
+			catch (GeneralSecurityException | RuntimeException e) {
+				// not usable after all
+			}
+		}
+		return best;
+	}
+
+
+	/*
+	 * The name under which the provider offers the algorithm, or null. The
+	 * table uses BouncyCastle's names ("SHA256"), which older JDK providers
+	 * only know in their standard form ("SHA-256").
+	 */
+	private static String nameIn(String type, String algorithm, Provider p) {
+		if (p.getService(type, algorithm) != null) {
+			return algorithm;
+		}
+		if (DIGEST.equals(type) && algorithm.matches("SHA\\d+")) {
+			String standard = (algorithm.equals("SHA1") ? "SHA-1" : "SHA-" + algorithm.substring(3));
+			if (p.getService(type, standard) != null) {
+				return standard;
+			}
+		}
+		return null;
+	}
+
+
+	private static double rate(MessageDigest md) {
+		byte[] data = sample();
+		timed(WARMUP_NANOS, () -> md.update(data));
+		return timed(MEASURE_NANOS, () -> md.update(data)) * data.length;
+	}
+
+
+	private static double rate(Mac mac, String algorithm) throws GeneralSecurityException {
+		byte[] data = sample();
+		mac.init(new SecretKeySpec(sample(), 0, 32, algorithm));
+		timed(WARMUP_NANOS, () -> mac.update(data));
+		return timed(MEASURE_NANOS, () -> mac.update(data)) * data.length;
+	}
+
+
+	private static byte[] sample() {
+		byte[] data = new byte[16 * 1024];
+		new Random(0).nextBytes(data);
+		return data;
+	}
+
+
+	/*
+	 * Runs the action repeatedly for about the given time and returns the
+	 * number of runs per nanosecond.
+	 */
+	private static double timed(long nanos, Runnable action) {
+		long start = System.nanoTime();
+		long runs = 0;
+		long elapsed;
+		do {
+			action.run();
+			runs++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < nanos);
+		return (double) runs / elapsed;
+	}
+
+
+	/*
+	 * Times the providers for all the given algorithms and routes each to
+	 * the fastest, returning the resulting routes.
+	 */
+	public static Map<String, String> calibrate(String[] digestAlgorithms, String[] macAlgorithms) {
+		for (String algorithm : digestAlgorithms) {
+			ROUTES.put(DIGEST + "." + algorithm, fastest(DIGEST, algorithm));
+		}
+		for (String algorithm : macAlgorithms) {
+			ROUTES.put(MAC + "." + algorithm, fastest(MAC, algorithm));
+		}
+		return new TreeMap<>(ROUTES);
+	}
+
+
+	public static void loadProfile(Path profile) throws IOException {
+		Properties props = new Properties();
+		try (InputStream is = Files.newInputStream(profile)) {
+			props.load(is);
+		}
+		catch (NoSuchFileException e) {
+			return;
+		}
+		for (String key : props.stringPropertyNames()) {
+			ROUTES.put(key, props.getProperty(key));
+		}
+	}
+
+
+	public static void saveProfile(Path profile) throws IOException {
+		Properties props = new Properties();
+		props.putAll(ROUTES);
+		Path dir = profile.toAbsolutePath().getParent();
+		if (dir != null) {
+			Files.createDirectories(dir);
+		}
+		try (OutputStream os = Files.newOutputStream(profile)) {
+			props.store(os, "Hasher provider routes");
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package net.dollmar.tools;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Overlaps reading with digesting. A reader thread fills a small ring of
+ * direct buffers from the channel while the calling thread digests the
+ * buffers already filled, so the disk is not idle while the CPU hashes and
+ * the other way round. The ring holds at least two buffers, by default
+ * {@link #DEFAULT_RING_SIZE}, which can be changed with the system property
+ * "hasher.readahead.buffers"; each buffer has the size set by
+ * {@link MultiDigest#setBufferSize(int)}. The buffers belong to the calling
+ * thread and are reused by its later calls.
+ */
+public class ReadAheadDigest {
+
+	public static final int DEFAULT_RING_SIZE = 4;
+
+	private static final int ringSize = Math.max(2, Integer.getInteger("hasher.readahead.buffers", DEFAULT_RING_SIZE));
+
+	private static final ExecutorService READERS = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "hasher-read-ahead");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private static final ThreadLocal<ByteBuffer[]> RINGS = VirtualThreads.carried();
+
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+
+	/*
+	 * Returns this thread's ring, replacing it if the configured buffer size
+	 * has changed since it was allocated.
+	 */
+	private static ByteBuffer[] ring() {
+		ByteBuffer[] ring = RINGS.get();
+		if (ring == null || ring[0].capacity() != MultiDigest.getBufferSize()) {
+			ring = new ByteBuffer[ringSize];
+			for (int i = 0; i < ring.length; i++) {
+				ring[i] = ByteBuffer.allocateDirect(MultiDigest.getBufferSize());
+			}
+			RINGS.set(ring);
+		}
+		return ring;
+	}
+
+
+	public static void digestFile(final String fileName, final DigestEngine[] engines, DigestMonitor monitor) throws IOException {
+		try (FileChannel fc = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+			monitor.started(fc.size());
+			digestChannel(fc, engines, monitor);
+		}
+	}
+
+
+	/*
+	 * Digests everything that can be read from the channel, without closing
+	 * it. The reader has finished with the channel by the time this returns,
+	 * also when it fails or is cancelled.
+	 */
+	public static void digestChannel(final ReadableByteChannel ch, final DigestEngine[] engines, DigestMonitor monitor) throws IOException {
+		ByteBuffer[] ring = ring();
+		BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(ring.length);
+		for (ByteBuffer buffer : ring) {
+			free.add(buffer);
+		}
+		// room for every buffer plus the end marker, so the reader never blocks here
+		BlockingQueue<ByteBuffer> filled = new ArrayBlockingQueue<>(ring.length + 1);
+		AtomicBoolean stop = new AtomicBoolean();
+		AtomicReference<IOException> failure = new AtomicReference<>();
+
+		Future<?> reader = READERS.submit(() -> read(ch, free, filled, stop, failure));
+		ByteBuffer buffer = null;
+		try {
+			long done = 0;
+			while ((buffer = filled.take()) != END) {
+				MultiDigest.checkCancelled(monitor);
+				done += buffer.remaining();
+				MultiDigest.update(engines, buffer);
+				free.put(buffer);
+				buffer = null;
+				monitor.progress(done);
+			}
+			if (failure.get() != null) {
+				throw failure.get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Hashing interrupted");
+		}
+		finally {
+			stop.set(true);
+			// hand back every buffer so that a reader waiting for one wakes up and sees the stop
+			if (buffer != null && buffer != END) {
+				free.offer(buffer);
+			}
+			for (ByteBuffer b; (b = filled.poll()) != null; ) {
+				if (b != END) {
+					free.offer(b);
+				}
+			}
+			awaitQuietly(reader);
+		}
+	}
+
+
+	/*
+	 * Reader loop; failures are handed over to the digesting thread.
+	 */
+	private static void read(ReadableByteChannel ch, BlockingQueue<ByteBuffer> free, BlockingQueue<ByteBuffer> filled,
+			AtomicBoolean stop, AtomicReference<IOException> failure)
+	{
+		try {
+			while (!stop.get()) {
+				ByteBuffer buffer = free.take();
+				if (stop.get()) {
+					break;
+				}
+				buffer.clear();
+				long start = Metrics.start();
+				int n = ch.read(buffer);
+				Metrics.read(start, n);
+				if (n == -1) {
+					break;
+				}
+				buffer.flip();
+				filled.put(buffer);
+			}
+		}
+		catch (IOException e) {
+			failure.set(e);
+		}
+		catch (InterruptedException e) {
+			failure.set(new InterruptedIOException("Reading interrupted"));
+		}
+		finally {
+			filled.offer(END);
+		}
+	}
+
+
+	private static void awaitQuietly(Future<?> reader) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				reader.get();
+				break;
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+			catch (ExecutionException e) {
+				break;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package net.dollmar.tools;
+
+/**
+ * The ways in which a file can be read and fed to the digest engines.
+ */
+public enum ReadMode {
+
+	/** Plain {@code FileInputStream} reads into a heap buffer. */
+	STREAM,
+
+	/** {@code FileChannel} reads into a direct buffer. */
+	CHANNEL,
+
+	/** Memory-mapped {@code FileChannel}, mapped in windows for large files. */
+	MAPPED,
+
+	/** Stream reads fanned out to one worker thread per algorithm. */
+	PARALLEL,
+
+	/** {@code FileChannel} reads on a separate thread, overlapping with digesting. */
+	READ_AHEAD;
+}
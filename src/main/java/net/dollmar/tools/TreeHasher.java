@@ -0,0 +1,274 @@
+package net.dollmar.tools;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+/**
+ * Hashes whole directory trees. Files are spread over a work-stealing
+ * {@link ForkJoinPool}; files at or above the large file threshold go to a
+ * separate, smaller lane and are read in {@link ReadMode#PARALLEL} mode, so
+ * that a few huge files neither hold up the stream of small ones nor run
+ * on a single core. With {@link #setVirtualThreads(int)} the small files
+ * run on a virtual thread each instead, for trees of very many small files
+ * where opening and closing them costs more than hashing them.
+ *
+ * The tree is walked lazily with each directory listed in name order, and
+ * results are handed to the {@link Sink} in exactly that order whatever
+ * order they complete in. At most {@link #setWindowSize(int) windowSize}
+ * files are in flight, which bounds the memory used on very large trees.
+ */
+public class TreeHasher {
+
+	public static final long DEFAULT_LARGE_FILE_THRESHOLD =
+			Long.getLong("hasher.large.file", 64L * 1024 * 1024);
+	public static final int DEFAULT_WINDOW_SIZE = 4096;
+
+	/**
+	 * Hashes one file with the given read mode, returning one result (or
+	 * "Error: " message) per algorithm.
+	 */
+	@FunctionalInterface
+	public interface FileHashFunction {
+		String[] hash(String fileName, ReadMode mode);
+	}
+
+	/**
+	 * Receives results in walk order, on the thread that called
+	 * {@link TreeHasher#hash(List, Sink)}.
+	 */
+	public interface Sink {
+		void result(String fileName, String[] results);
+
+		void error(String name, String message);
+	}
+
+	private final FileHashFunction function;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private long largeFileThreshold = DEFAULT_LARGE_FILE_THRESHOLD;
+	private int windowSize = DEFAULT_WINDOW_SIZE;
+	private int virtualThreads;
+	private ReadMode readMode;
+	private Predicate<Path> filter = p -> true;
+
+	private ExecutorService smallFiles;
+	private ExecutorService largeFiles;
+	private Deque<Pending> window;
+	private Sink sink;
+
+
+	private static final class Pending {
+		final String name;
+		final Future<String[]> result;
+		final String error;
+
+		Pending(String name, Future<String[]> result, String error) {
+			this.name = name;
+			this.result = result;
+			this.error = error;
+		}
+	}
+
+
+	public TreeHasher(FileHashFunction function) {
+		this.function = function;
+	}
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	public void setLargeFileThreshold(long threshold) {
+		this.largeFileThreshold = threshold;
+	}
+
+	public void setWindowSize(int windowSize) {
+		this.windowSize = Math.max(1, windowSize);
+	}
+
+	/**
+	 * Hashes each small file on a virtual thread of its own, at most
+	 * concurrency of them at a time (see {@link VirtualThreads}); 0, the
+	 * default, uses the work-stealing pool.
+	 */
+	public void setVirtualThreads(int concurrency) {
+		this.virtualThreads = Math.max(0, concurrency);
+	}
+
+	/**
+	 * Forces one read mode for all files; by default small files are
+	 * streamed and large files are read in PARALLEL mode.
+	 */
+	public void setReadMode(ReadMode mode) {
+		this.readMode = mode;
+	}
+
+
+	/**
+	 * Only files found while walking a directory that pass the filter are
+	 * hashed; inputs named explicitly always are.
+	 */
+	public void setFilter(Predicate<Path> filter) {
+		this.filter = filter;
+	}
+
+
+	/*
+	 * Hashes every input: regular files directly and directories recursively.
+	 */
+	public void hash(List<String> inputs, Sink sink) throws InterruptedIOException {
+		this.sink = sink;
+		this.window = new ArrayDeque<>();
+		this.smallFiles = (virtualThreads > 0) 
+				? VirtualThreads.newExecutor(virtualThreads, "hasher-small-file") 
+				: new ForkJoinPool(parallelism);
+		this.largeFiles = Executors.newFixedThreadPool(Math.max(1, parallelism / 2), r -> {
+			Thread t = new Thread(r, "hasher-large-file");
+			t.setDaemon(true);
+			return t;
+		});
+		try {
+			for (String input : inputs) {
+				Path path = Paths.get(input);
+				if (Files.isDirectory(path)) {
+					walk(path);
+				}
+				else {
+					submit(path, Files.isRegularFile(path) ? sizeOf(path) : 0);
+				}
+			}
+			while (!window.isEmpty()) {
+				emit(window.removeFirst());
+			}
+		}
+		finally {
+			smallFiles.shutdownNow();
+			largeFiles.shutdownNow();
+		}
+	}
+
+
+	private static long sizeOf(Path path) {
+		try {
+			return Files.size(path);
+		}
+		catch (IOException e) {
+			return 0;
+		}
+	}
+
+
+	/*
+	 * Depth first walk with each directory listed in name order. Symbolic
+	 * links to files are hashed; links to directories are not followed.
+	 */
+	private void walk(Path dir) throws InterruptedIOException {
+		List<Path> entries = new ArrayList<>();
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+			for (Path p : ds) {
+				entries.add(p);
+			}
+		}
+		catch (IOException e) {
+			enqueue(new Pending(dir.toString(), null, describe(e)));
+			return;
+		}
+		entries.sort(null);
+
+		for (Path p : entries) {
+			try {
+				BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+				if (attrs.isSymbolicLink()) {
+					attrs = Files.readAttributes(p, BasicFileAttributes.class);
+					if (attrs.isRegularFile() && filter.test(p)) {
+						submit(p, attrs.size());
+					}
+				}
+				else if (attrs.isDirectory()) {
+					walk(p);
+				}
+				else if (attrs.isRegularFile() && filter.test(p)) {
+					submit(p, attrs.size());
+				}
+			}
+			catch (IOException e) {
+				enqueue(new Pending(p.toString(), null, describe(e)));
+			}
+		}
+	}
+
+
+	private void submit(Path path, long size) throws InterruptedIOException {
+		String name = path.toString();
+		Future<String[]> f;
+		if (size >= largeFileThreshold) {
+			ReadMode mode = (readMode != null) ? readMode : ReadMode.PARALLEL;
+			f = largeFiles.submit(() -> function.hash(name, mode));
+		}
+		else {
+			ReadMode mode = (readMode != null) ? readMode : ReadMode.STREAM;
+			f = smallFiles.submit(() -> function.hash(name, mode));
+		}
+		enqueue(new Pending(name, f, null));
+	}
+
+
+	/*
+	 * Adds to the tail of the window, first emitting whatever has completed
+	 * at its head and then, if the window is full, waiting for the head.
+	 */
+	private void enqueue(Pending pending) throws InterruptedIOException {
+		window.addLast(pending);
+		while (!window.isEmpty() && (window.size() >= windowSize || isDone(window.peekFirst()))) {
+			emit(window.removeFirst());
+		}
+	}
+
+
+	private static boolean isDone(Pending pending) {
+		return pending.result == null || pending.result.isDone();
+	}
+
+
+	static String describe(Throwable e) {
+		if (e instanceof FileSystemException) {
+			String reason = ((FileSystemException) e).getReason();
+			return e.getClass().getSimpleName() + ((reason != null) ? ": " + reason : "");
+		}
+		return (e.getMessage() != null) ? e.getMessage() : e.toString();
+	}
+
+
+	private void emit(Pending pending) throws InterruptedIOException {
+		if (pending.result == null) {
+			sink.error(pending.name, pending.error);
+			return;
+		}
+		try {
+			sink.result(pending.name, pending.result.get());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Hashing interrupted");
+		}
+		catch (ExecutionException e) {
+			sink.error(pending.name, describe(e.getCause()));
+		}
+	}
+}
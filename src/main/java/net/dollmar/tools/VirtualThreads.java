@@ -0,0 +1,277 @@
+package net.dollmar.tools;
+
+import java.lang.reflect.Method;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Executors that run every task on a virtual thread of its own, with at
+ * most a given number running at a time. They suit trees and manifests of
+ * millions of small files, where the time goes on opening, stat-ing and
+ * closing files rather than on hashing: many more files can be in flight
+ * than there are platform threads, which keeps network file systems and
+ * SSD queues busy.
+ *
+ * Virtual threads need Java 21; they are looked up reflectively so that
+ * the tool still runs on Java 17, where a fixed pool of platform threads is
+ * used instead, at most {@link #FALLBACK_LIMIT} of them.
+ *
+ * A task is only given a thread once one of the permitted places is free:
+ * {@link ExecutorService#execute(Runnable) execute} blocks the submitter
+ * until then, so submitting a million files does not park a million
+ * threads.
+ *
+ * The per-thread read buffers and engine caches would be of no use on
+ * threads that live for a single file, so each executor keeps one slot per
+ * permitted task. A task takes a slot before it starts and is given the
+ * values of the {@link #carried() carried} thread locals the slot holds;
+ * any value the task creates or sets is recorded in the slot as it
+ * happens, so the caches are shared by the tasks that follow it.
+ */
+public final class VirtualThreads {
+
+	private static final Method OF_VIRTUAL = method(Thread.class, "ofVirtual");
+	private static final Method NAME = method(classForName("java.lang.Thread$Builder"), "name", String.class, long.class);
+	private static final Method FACTORY = method(classForName("java.lang.Thread$Builder"), "factory");
+	private static final Method PER_TASK = method(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+
+	/**
+	 * The most platform threads used in place of virtual threads.
+	 */
+	public static final int FALLBACK_LIMIT = Integer.getInteger("hasher.virtual.fallback", 
+			4 * Runtime.getRuntime().availableProcessors());
+
+	private static final List<Carried<?>> CARRIED = new CopyOnWriteArrayList<>();
+
+	/*
+	 * The slot of the task running on the current virtual thread, if any.
+	 */
+	private static final ThreadLocal<Map<ThreadLocal<?>, Object>> SLOT = new ThreadLocal<>();
+
+
+	/**
+	 * A thread local whose values are written through to the slot of the
+	 * running task, so that nothing has to be read back, and no initial
+	 * value created, when the task ends.
+	 */
+	private static final class Carried<T> extends ThreadLocal<T> {
+		private final Supplier<? extends T> initial;
+
+		Carried(Supplier<? extends T> initial) {
+			this.initial = initial;
+		}
+
+		@Override
+		protected T initialValue() {
+			T value = initial.get();
+			record(value);
+			return value;
+		}
+
+		@Override
+		public void set(T value) {
+			super.set(value);
+			record(value);
+		}
+
+		void lend(Object value) {
+			@SuppressWarnings("unchecked")
+			T t = (T) value;
+			super.set(t);
+		}
+
+		private void record(T value) {
+			Map<ThreadLocal<?>, Object> slot = SLOT.get();
+			if (slot != null && value != null) {
+				slot.put(this, value);
+			}
+		}
+	}
+
+
+	/**
+	 * Limits a thread per task executor to a number of running tasks, and
+	 * lends the carried thread locals of its slots to them.
+	 */
+	private static final class Capped extends AbstractExecutorService {
+		private final ExecutorService threads;
+		private final Semaphore permits;
+		private final Queue<Map<ThreadLocal<?>, Object>> slots = new ConcurrentLinkedQueue<>();
+
+		Capped(ExecutorService threads, int concurrency) {
+			this.threads = threads;
+			this.permits = new Semaphore(concurrency);
+			for (int i = 0; i < concurrency; i++) {
+				slots.add(new IdentityHashMap<>());
+			}
+		}
+
+		/*
+		 * Blocks until fewer than concurrency tasks are running, and only
+		 * then starts a thread for the task.
+		 */
+		@Override
+		public void execute(Runnable task) {
+			try {
+				permits.acquire();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException("Interrupted while waiting to run a task", e);
+			}
+			try {
+				threads.execute(() -> {
+					// a permit guarantees a free slot
+					Map<ThreadLocal<?>, Object> slot = slots.poll();
+					try {
+						lend(slot);
+						task.run();
+					}
+					finally {
+						SLOT.remove();
+						slots.offer(slot);
+						permits.release();
+					}
+				});
+			}
+			catch (RuntimeException e) {
+				permits.release();
+				throw e;
+			}
+		}
+
+		@Override
+		public void shutdown() {
+			threads.shutdown();
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return threads.shutdownNow();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return threads.isShutdown();
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return threads.isTerminated();
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			return threads.awaitTermination(timeout, unit);
+		}
+	}
+
+
+	private VirtualThreads() {}
+
+
+	private static Class<?> classForName(String name) {
+		try {
+			return Class.forName(name);
+		}
+		catch (ClassNotFoundException e) {
+			return null;
+		}
+	}
+
+
+	private static Method method(Class<?> type, String name, Class<?>... parameters) {
+		try {
+			return (type != null) ? type.getMethod(name, parameters) : null;
+		}
+		catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+
+	/*
+	 * Whether this runtime has virtual threads.
+	 */
+	public static boolean isAvailable() {
+		return OF_VIRTUAL != null && NAME != null && FACTORY != null && PER_TASK != null;
+	}
+
+
+	/*
+	 * An executor running each task on a new virtual thread, named after the
+	 * prefix, with at most concurrency tasks running at a time. Without
+	 * virtual threads it is a fixed pool of fallbackThreads(concurrency)
+	 * daemon threads.
+	 */
+	public static ExecutorService newExecutor(int concurrency, String name) {
+		concurrency = Math.max(1, concurrency);
+		if (isAvailable()) {
+			try {
+				Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), name + "-", 0L);
+				ThreadFactory factory = (ThreadFactory) FACTORY.invoke(builder);
+				return new Capped((ExecutorService) PER_TASK.invoke(null, factory), concurrency);
+			}
+			catch (ReflectiveOperationException e) {
+				// fall through to platform threads
+			}
+		}
+		return Executors.newFixedThreadPool(fallbackThreads(concurrency), r -> {
+			Thread t = new Thread(r, name);
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+
+	/*
+	 * The number of platform threads that stand in for concurrency virtual
+	 * threads on runtimes without them.
+	 */
+	public static int fallbackThreads(int concurrency) {
+		return Math.max(1, Math.min(concurrency, FALLBACK_LIMIT));
+	}
+
+
+	/*
+	 * A per-thread cache whose value is to follow the slot from one virtual
+	 * thread to the next; null until set.
+	 */
+	static <T> ThreadLocal<T> carried() {
+		return carried(() -> null);
+	}
+
+
+	/*
+	 * As carried(), with an initial value from the supplier, like
+	 * ThreadLocal.withInitial.
+	 */
+	static <T> ThreadLocal<T> carried(Supplier<? extends T> initial) {
+		Carried<T> local = new Carried<>(initial);
+		CARRIED.add(local);
+		return local;
+	}
+
+
+	private static void lend(Map<ThreadLocal<?>, Object> slot) {
+		SLOT.set(slot);
+		for (Carried<?> local : CARRIED) {
+			Object value = slot.get(local);
+			if (value != null) {
+				local.lend(value);
+			}
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package net.dollmar.tools;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * XXH64, with seed 0 as printed by "xxhsum": the 64 bit result in big
+ * endian (canonical) order. Not a cryptographic hash; meant for detecting
+ * duplicates and changes at memory speed.
+ */
+public final class XxHash64 extends FastDigestSpi {
+
+	static final long P1 = 0x9E3779B185EBCA87L;
+	static final long P2 = 0xC2B2AE3D27D4EB4FL;
+	static final long P3 = 0x165667B19E3779F9L;
+	static final long P4 = 0x85EBCA77C2B2AE63L;
+	static final long P5 = 0x27D4EB2F165667C5L;
+
+	private final long seed;
+	private long v1, v2, v3, v4;
+	private long total;
+	private final byte[] buffer = new byte[32];
+	private final ByteBuffer view = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+	private int buffered;
+
+
+	public XxHash64() {
+		this(0);
+	}
+
+
+	public XxHash64(long seed) {
+		super(8);
+		this.seed = seed;
+		engineReset();
+	}
+
+
+	@Override
+	protected void engineReset() {
+		v1 = seed + P1 + P2;
+		v2 = seed + P2;
+		v3 = seed;
+		v4 = seed - P1;
+		total = 0;
+		buffered = 0;
+	}
+
+
+	private static long round(long acc, long input) {
+		return Long.rotateLeft(acc + input * P2, 31) * P1;
+	}
+
+
+	private static long merge(long acc, long v) {
+		return (acc ^ round(0, v)) * P1 + P4;
+	}
+
+
+	static long avalanche(long h) {
+		h = (h ^ (h >>> 33)) * P2;
+		h = (h ^ (h >>> 29)) * P3;
+		return h ^ (h >>> 32);
+	}
+
+
+	@Override
+	void update(ByteBuffer in, int pos, int len) {
+		total += len;
+		if (buffered > 0) {
+			int n = Math.min(len, 32 - buffered);
+			for (int i = 0; i < n; i++) {
+				buffer[buffered + i] = in.get(pos + i);
+			}
+			buffered += n;
+			pos += n;
+			len -= n;
+			if (buffered < 32) {
+				return;
+			}
+			stripes(view, 0, 32);
+			buffered = 0;
+		}
+		int bulk = len & ~31;
+		stripes(in, pos, bulk);
+		for (int i = bulk; i < len; i++) {
+			buffer[buffered++] = in.get(pos + i);
+		}
+	}
+
+
+	private void stripes(ByteBuffer in, int pos, int len) {
+		long a = v1, b = v2, c = v3, d = v4;
+		for (int end = pos + len; pos < end; pos += 32) {
+			a = round(a, in.getLong(pos));
+			b = round(b, in.getLong(pos + 8));
+			c = round(c, in.getLong(pos + 16));
+			d = round(d, in.getLong(pos + 24));
+		}
+		v1 = a;
+		v2 = b;
+		v3 = c;
+		v4 = d;
+	}
+
+
+	@Override
+	byte[] digest() {
+		long h;
+		if (total >= 32) {
+			h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			h = merge(h, v1);
+			h = merge(h, v2);
+			h = merge(h, v3);
+			h = merge(h, v4);
+		}
+		else {
+			h = seed + P5;
+		}
+		h += total;
+
+		int i = 0;
+		for (; i + 8 <= buffered; i += 8) {
+			h = Long.rotateLeft(h ^ round(0, view.getLong(i)), 27) * P1 + P4;
+		}
+		if (i + 4 <= buffered) {
+			h = Long.rotateLeft(h ^ ((view.getInt(i) & 0xFFFFFFFFL) * P1), 23) * P2 + P3;
+			i += 4;
+		}
+		for (; i < buffered; i++) {
+			h = Long.rotateLeft(h ^ ((buffer[i] & 0xFF) * P5), 11) * P1;
+		}
+		return bigEndian(avalanche(h), 8);
+	}
+}
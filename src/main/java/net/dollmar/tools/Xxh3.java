@@ -0,0 +1,312 @@
+package net.dollmar.tools;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.apache.commons.codec.DecoderException;
+
+/**
+ * XXH3 64 bit with the default secret, in big endian (canonical) order;
+ * with seed 0 as printed by "xxhsum -H3". Inputs of up to 240 bytes have
+ * their own short paths, so the input is buffered until it is known
+ * to be longer; after that stripes of 64 bytes are consumed as they
+ * arrive, always keeping back at least one byte and the 64 bytes before
+ * it for the final stripe. Not a cryptographic hash.
+ */
+public final class Xxh3 extends FastDigestSpi {
+
+	private static final byte[] SECRET = secret(
+			"b8fe6c3923a44bbe7c01812cf721ad1cded46de9839097db7240a4a4b7b3671f"
+			+ "cb79e64eccc0e578825ad07dccff7221b8084674f743248ee03590e6813a264c"
+			+ "3c2852bb91c300cb88d0658b1b532ea371644897a20df94e3819ef46a9deacd8"
+			+ "a8fa763fe39c343ff9dcbbc7c70b4f1d8a51e04bcdb45931c89f7ec9d9787364"
+			+ "eac5ac8334d3ebc3c581a0fffa1363eb170ddd51b7f0da49d316552629d4689e"
+			+ "2b16be587d47a1fc8ff8b8d17ad031ce45cb3a8f95160428afd7fbcabb4b407e");
+
+	private static final ByteBuffer KEY = ByteBuffer.wrap(SECRET).order(ByteOrder.LITTLE_ENDIAN);
+	private static final long[] KEY_WORDS = new long[SECRET.length / 8];
+
+	static {
+		KEY.asLongBuffer().get(KEY_WORDS);
+	}
+
+	private static final int STRIPE = 64;
+	private static final int STRIPES_PER_BLOCK = (SECRET.length - STRIPE) / 8;
+	private static final int MIDSIZE_MAX = 240;
+	private static final int WINDOW = 256;
+
+	private static final long PRIME32_1 = 0x9E3779B1L;
+	private static final long PRIME32_2 = 0x85EBCA77L;
+	private static final long PRIME32_3 = 0xC2B2AE3DL;
+	private static final long PRIME_MX1 = 0x165667919E3779F9L;
+	private static final long PRIME_MX2 = 0x9FB21C651E98DF25L;
+
+	private final long seed;
+	// the secret of the long inputs, derived from the seed
+	private final ByteBuffer key;
+	private final long[] keyWords;
+
+	private final long[] acc = new long[8];
+	private long total;
+	private int stripesInBlock;
+
+	// the 64 bytes consumed last, followed by up to WINDOW bytes not consumed yet
+	private final byte[] buffer = new byte[STRIPE + WINDOW];
+	private final ByteBuffer view = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+	private int buffered;
+
+
+	public Xxh3() {
+		this(0);
+	}
+
+
+	public Xxh3(long seed) {
+		super(8);
+		this.seed = seed;
+		if (seed == 0) {
+			key = KEY;
+			keyWords = KEY_WORDS;
+		}
+		else {
+			keyWords = new long[KEY_WORDS.length];
+			for (int i = 0; i < keyWords.length; i += 2) {
+				keyWords[i] = KEY_WORDS[i] + seed;
+				keyWords[i + 1] = KEY_WORDS[i + 1] - seed;
+			}
+			key = ByteBuffer.allocate(SECRET.length).order(ByteOrder.LITTLE_ENDIAN);
+			key.asLongBuffer().put(keyWords);
+		}
+		engineReset();
+	}
+
+
+	private static byte[] secret(String hex) {
+		try {
+			return Codec.fromHex(hex);
+		}
+		catch (DecoderException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	@Override
+	protected void engineReset() {
+		acc[0] = PRIME32_3;
+		acc[1] = XxHash64.P1;
+		acc[2] = XxHash64.P2;
+		acc[3] = XxHash64.P3;
+		acc[4] = XxHash64.P4;
+		acc[5] = PRIME32_2;
+		acc[6] = XxHash64.P5;
+		acc[7] = PRIME32_1;
+		total = 0;
+		stripesInBlock = 0;
+		buffered = 0;
+	}
+
+
+	@Override
+	void update(ByteBuffer in, int pos, int len) {
+		total += len;
+		while (len > 0) {
+			if (buffered == WINDOW) {
+				// more input follows, so the whole window can go
+				consume(view, STRIPE, WINDOW / STRIPE);
+				System.arraycopy(buffer, WINDOW, buffer, 0, STRIPE);
+				buffered = 0;
+			}
+			if (buffered == 0 && len > WINDOW) {
+				int stripes = (len - 1) / STRIPE;
+				consume(in, pos, stripes);
+				int n = stripes * STRIPE;
+				for (int i = 0; i < STRIPE; i++) {
+					buffer[i] = in.get(pos + n - STRIPE + i);
+				}
+				pos += n;
+				len -= n;
+			}
+			int n = Math.min(len, WINDOW - buffered);
+			for (int i = 0; i < n; i++) {
+				buffer[STRIPE + buffered + i] = in.get(pos + i);
+			}
+			buffered += n;
+			pos += n;
+			len -= n;
+		}
+	}
+
+
+	/*
+	 * Accumulates the given number of stripes, scrambling at the end of
+	 * every block. The accumulators stay in locals for the whole run.
+	 */
+	private void consume(ByteBuffer in, int pos, int stripes) {
+		long a0 = acc[0], a1 = acc[1], a2 = acc[2], a3 = acc[3];
+		long a4 = acc[4], a5 = acc[5], a6 = acc[6], a7 = acc[7];
+		long[] kw = keyWords;
+		int k = stripesInBlock;
+		for (int s = 0; s < stripes; s++, pos += STRIPE) {
+			long d0 = in.getLong(pos), d1 = in.getLong(pos + 8), d2 = in.getLong(pos + 16), d3 = in.getLong(pos + 24);
+			long d4 = in.getLong(pos + 32), d5 = in.getLong(pos + 40), d6 = in.getLong(pos + 48), d7 = in.getLong(pos + 56);
+			long x0 = d0 ^ kw[k], x1 = d1 ^ kw[k + 1], x2 = d2 ^ kw[k + 2], x3 = d3 ^ kw[k + 3];
+			long x4 = d4 ^ kw[k + 4], x5 = d5 ^ kw[k + 5], x6 = d6 ^ kw[k + 6], x7 = d7 ^ kw[k + 7];
+			a0 += d1 + (x0 & 0xFFFFFFFFL) * (x0 >>> 32);
+			a1 += d0 + (x1 & 0xFFFFFFFFL) * (x1 >>> 32);
+			a2 += d3 + (x2 & 0xFFFFFFFFL) * (x2 >>> 32);
+			a3 += d2 + (x3 & 0xFFFFFFFFL) * (x3 >>> 32);
+			a4 += d5 + (x4 & 0xFFFFFFFFL) * (x4 >>> 32);
+			a5 += d4 + (x5 & 0xFFFFFFFFL) * (x5 >>> 32);
+			a6 += d7 + (x6 & 0xFFFFFFFFL) * (x6 >>> 32);
+			a7 += d6 + (x7 & 0xFFFFFFFFL) * (x7 >>> 32);
+			if (++k == STRIPES_PER_BLOCK) {
+				int w = (SECRET.length - STRIPE) / 8;
+				a0 = ((a0 ^ (a0 >>> 47)) ^ kw[w]) * PRIME32_1;
+				a1 = ((a1 ^ (a1 >>> 47)) ^ kw[w + 1]) * PRIME32_1;
+				a2 = ((a2 ^ (a2 >>> 47)) ^ kw[w + 2]) * PRIME32_1;
+				a3 = ((a3 ^ (a3 >>> 47)) ^ kw[w + 3]) * PRIME32_1;
+				a4 = ((a4 ^ (a4 >>> 47)) ^ kw[w + 4]) * PRIME32_1;
+				a5 = ((a5 ^ (a5 >>> 47)) ^ kw[w + 5]) * PRIME32_1;
+				a6 = ((a6 ^ (a6 >>> 47)) ^ kw[w + 6]) * PRIME32_1;
+				a7 = ((a7 ^ (a7 >>> 47)) ^ kw[w + 7]) * PRIME32_1;
+				k = 0;
+			}
+		}
+		acc[0] = a0; acc[1] = a1; acc[2] = a2; acc[3] = a3;
+		acc[4] = a4; acc[5] = a5; acc[6] = a6; acc[7] = a7;
+		stripesInBlock = k;
+	}
+
+
+	/*
+	 * One stripe with the secret at any byte offset, for the last stripe.
+	 */
+	private static void accumulate(long[] acc, ByteBuffer in, int pos, ByteBuffer secret, int at) {
+		for (int i = 0; i < 8; i++) {
+			long data = in.getLong(pos + 8 * i);
+			long key = data ^ secret.getLong(at + 8 * i);
+			acc[i ^ 1] += data;
+			acc[i] += (key & 0xFFFFFFFFL) * (key >>> 32);
+		}
+	}
+
+
+	@Override
+	byte[] digest() {
+		return bigEndian((total <= MIDSIZE_MAX) ? shortHash(view, STRIPE, (int) total, seed) : longDigest(), 8);
+	}
+
+
+	private long longDigest() {
+		long[] a = acc.clone();
+		int saved = stripesInBlock;
+		int stripes = (buffered - 1) / STRIPE;
+		consume(view, STRIPE, stripes);
+		// the last stripe ends with the input, overlapping consumed bytes if need be
+		accumulate(acc, view, buffered, key, SECRET.length - STRIPE - 7);
+		long h = mergeAccs(acc, key, 11, total * XxHash64.P1);
+		System.arraycopy(a, 0, acc, 0, 8);
+		stripesInBlock = saved;
+		return h;
+	}
+
+
+	private static long mergeAccs(long[] acc, ByteBuffer secret, int at, long start) {
+		long result = start;
+		for (int i = 0; i < 4; i++) {
+			result += mulFold(acc[2 * i] ^ secret.getLong(at + 16 * i), acc[2 * i + 1] ^ secret.getLong(at + 16 * i + 8));
+		}
+		return avalanche(result);
+	}
+
+
+	private static long shortHash(ByteBuffer in, int pos, int len, long seed) {
+		if (len > 128) {
+			return midHash(in, pos, len, seed);
+		}
+		if (len > 16) {
+			long h = len * XxHash64.P1;
+			if (len > 32) {
+				if (len > 64) {
+					if (len > 96) {
+						h += mix16(in, pos + 48, 96, seed);
+						h += mix16(in, pos + len - 64, 112, seed);
+					}
+					h += mix16(in, pos + 32, 64, seed);
+					h += mix16(in, pos + len - 48, 80, seed);
+				}
+				h += mix16(in, pos + 16, 32, seed);
+				h += mix16(in, pos + len - 32, 48, seed);
+			}
+			h += mix16(in, pos, 0, seed);
+			h += mix16(in, pos + len - 16, 16, seed);
+			return avalanche(h);
+		}
+		if (len > 8) {
+			long lo = in.getLong(pos) ^ ((KEY.getLong(24) ^ KEY.getLong(32)) + seed);
+			long hi = in.getLong(pos + len - 8) ^ ((KEY.getLong(40) ^ KEY.getLong(48)) - seed);
+			return avalanche(len + Long.reverseBytes(lo) + hi + mulFold(lo, hi));
+		}
+		if (len >= 4) {
+			long first = in.getInt(pos) & 0xFFFFFFFFL;
+			long last = in.getInt(pos + len - 4) & 0xFFFFFFFFL;
+			long swapped = seed ^ ((long) Integer.reverseBytes((int) seed) << 32);
+			long keyed = (last + (first << 32)) ^ ((KEY.getLong(8) ^ KEY.getLong(16)) - swapped);
+			return rrmxmx(keyed, len);
+		}
+		if (len > 0) {
+			int c1 = in.get(pos) & 0xFF;
+			int c2 = in.get(pos + (len >> 1)) & 0xFF;
+			int c3 = in.get(pos + len - 1) & 0xFF;
+			long combined = ((c1 << 16) | (c2 << 24) | c3 | (len << 8)) & 0xFFFFFFFFL;
+			long flip = ((KEY.getInt(0) & 0xFFFFFFFFL) ^ (KEY.getInt(4) & 0xFFFFFFFFL)) + seed;
+			return XxHash64.avalanche(combined ^ flip);
+		}
+		return XxHash64.avalanche(seed ^ KEY.getLong(56) ^ KEY.getLong(64));
+	}
+
+
+	private static long midHash(ByteBuffer in, int pos, int len, long seed) {
+		long h = len * XxHash64.P1;
+		int rounds = len / 16;
+		for (int i = 0; i < 8; i++) {
+			h += mix16(in, pos + 16 * i, 16 * i, seed);
+		}
+		h = avalanche(h);
+		for (int i = 8; i < rounds; i++) {
+			h += mix16(in, pos + 16 * i, 16 * (i - 8) + 3, seed);
+		}
+		h += mix16(in, pos + len - 16, 136 - 17, seed);
+		return avalanche(h);
+	}
+
+
+	private static long mix16(ByteBuffer in, int pos, int secret, long seed) {
+		return mulFold(in.getLong(pos) ^ (KEY.getLong(secret) + seed), in.getLong(pos + 8) ^ (KEY.getLong(secret + 8) - seed));
+	}
+
+
+	/*
+	 * The 128 bit product of two unsigned longs, its halves xor-ed.
+	 */
+	private static long mulFold(long a, long b) {
+		long hi = Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+		return hi ^ (a * b);
+	}
+
+
+	private static long avalanche(long h) {
+		h = (h ^ (h >>> 37)) * PRIME_MX1;
+		return h ^ (h >>> 32);
+	}
+
+
+	private static long rrmxmx(long h, int len) {
+		h ^= Long.rotateLeft(h, 49) ^ Long.rotateLeft(h, 24);
+		h *= PRIME_MX2;
+		h ^= (h >>> 35) + len;
+		h *= PRIME_MX2;
+		return h ^ (h >>> 28);
+	}
+}
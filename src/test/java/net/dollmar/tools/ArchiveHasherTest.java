@@ -0,0 +1,223 @@
+package net.dollmar.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Hashes the members of the archives in src/test/resources/archives, made
+ * with Info-ZIP (zip -fz, so every entry has ZIP64 fields and there is a
+ * ZIP64 end record) and GNU tar (--format=gnu and --format=pax, each with
+ * a member name too long for the ustar header), and damaged copies of them.
+ */
+public class ArchiveHasherTest {
+
+	private static final String HELLO = "fc301aa1dbe66d450620e62a95887fa19b5eb3939bd62827dfc91f3e7c667232";
+	private static final String PATTERN = "9dc177c2fde29dea8e7c29f7ddf147b7c449c99d049c62f3aac0a5933ecf76a3";
+	private static final String LONG_NAMED = "1272a49868c41260330ce643f91dffd1114abc24bf149dfb4ebfb8833bbe5670";
+
+	private static final String LONG_NAME = "long-names/"
+			+ "a-member-name-that-is-far-too-long-for-the-hundred-bytes-of-the-ustar-name-field-on-its-own.txt";
+
+
+	/**
+	 * Collects what the hasher reports, by member name.
+	 */
+	private static final class Recorder implements TreeHasher.Sink {
+		final Map<String, String> results = new LinkedHashMap<>();
+		final Map<String, String> errors = new LinkedHashMap<>();
+
+		@Override
+		public void result(String name, String[] digests) {
+			if (digests[0].startsWith("Error: ")) {
+				errors.put(name, digests[0]);
+			}
+			else {
+				results.put(name, digests[0]);
+			}
+		}
+
+		@Override
+		public void error(String name, String message) {
+			errors.put(name, message);
+		}
+	}
+
+
+	private static ArchiveHasher hasher() {
+		return new ArchiveHasher(is -> HashCalculator.calculateStreamHashes(new String[] { "SHA256" }, is, true, false));
+	}
+
+	private static File fixture(String name) {
+		return new File("src/test/resources/archives", name);
+	}
+
+	private static byte[] bytes(String name) throws IOException {
+		return Files.readAllBytes(fixture(name).toPath());
+	}
+
+	private static File write(byte[] data, String suffix) throws IOException {
+		File file = File.createTempFile("archive", suffix);
+		file.deleteOnExit();
+		Files.write(file.toPath(), data);
+		return file;
+	}
+
+
+	@Test
+	public void testZip64() throws Exception {
+		String archive = fixture("zip64.zip").getPath();
+		Recorder recorder = new Recorder();
+		hasher().hash(archive, recorder);
+
+		assertTrue(recorder.errors.toString(), recorder.errors.isEmpty());
+		assertEquals(Arrays.asList(archive + "!/pattern.bin", archive + "!/hello.txt"),
+				Arrays.asList(recorder.results.keySet().toArray()));
+		assertEquals(PATTERN, recorder.results.get(archive + "!/pattern.bin"));
+		assertEquals(HELLO, recorder.results.get(archive + "!/hello.txt"));
+	}
+
+	@Test
+	public void testZipSerially() throws Exception {
+		String archive = fixture("zip64.zip").getPath();
+		ArchiveHasher hasher = hasher();
+		hasher.setParallelism(1);
+		Recorder recorder = new Recorder();
+		hasher.hash(archive, recorder);
+
+		assertEquals(PATTERN, recorder.results.get(archive + "!/pattern.bin"));
+		assertEquals(HELLO, recorder.results.get(archive + "!/hello.txt"));
+	}
+
+	@Test
+	public void testGnuLongName() throws Exception {
+		String archive = fixture("gnu.tar").getPath();
+		Recorder recorder = new Recorder();
+		hasher().hash(archive, recorder);
+
+		assertTrue(recorder.errors.toString(), recorder.errors.isEmpty());
+		assertEquals(2, recorder.results.size());
+		assertEquals(HELLO, recorder.results.get(archive + "!/hello.txt"));
+		assertEquals(LONG_NAMED, recorder.results.get(archive + "!/" + LONG_NAME));
+	}
+
+	@Test
+	public void testPaxGzipped() throws Exception {
+		String archive = fixture("pax.tar.gz").getPath();
+		Recorder recorder = new Recorder();
+		hasher().hash(archive, recorder);
+
+		assertTrue(recorder.errors.toString(), recorder.errors.isEmpty());
+		assertEquals(3, recorder.results.size());
+		assertEquals(HELLO, recorder.results.get(archive + "!/hello.txt"));
+		assertEquals(PATTERN, recorder.results.get(archive + "!/pattern.bin"));
+		assertEquals(LONG_NAMED, recorder.results.get(archive + "!/" + LONG_NAME));
+	}
+
+	@Test
+	public void testTarFromStream() throws Exception {
+		Recorder recorder = new Recorder();
+		try (InputStream is = new ByteArrayInputStream(bytes("pax.tar.gz"))) {
+			hasher().hash("-", is, recorder);
+		}
+		assertEquals(3, recorder.results.size());
+		assertEquals(LONG_NAMED, recorder.results.get("-!/" + LONG_NAME));
+	}
+
+
+	@Test
+	public void testCrcMismatch() throws Exception {
+		byte[] data = bytes("zip64.zip");
+		// well inside the stored pattern.bin, the first member
+		data[1000] ^= 1;
+		String archive = write(data, ".zip").getPath();
+		Recorder recorder = new Recorder();
+		hasher().hash(archive, recorder);
+
+		assertFalse(recorder.results.containsKey(archive + "!/pattern.bin"));
+		assertTrue(recorder.errors.get(archive + "!/pattern.bin"), recorder.errors.get(archive + "!/pattern.bin").contains("CRC mismatch"));
+		assertEquals(HELLO, recorder.results.get(archive + "!/hello.txt"));
+	}
+
+	@Test
+	public void testInflationBound() throws Exception {
+		byte[] data = bytes("zip64.zip");
+		// the ZIP64 field of hello.txt in the central directory: 3200 bytes uncompressed
+		byte[] field = { 0x01, 0x00, 0x08, 0x00, (byte) 0x80, 0x0c, 0, 0, 0, 0, 0, 0 };
+		int at = lastIndexOf(data, field);
+		assertTrue(at > 0);
+		data[at + 5] = 0x01;
+		String archive = write(data, ".zip").getPath();
+		Recorder recorder = new Recorder();
+		hasher().hash(archive, recorder);
+
+		assertFalse(recorder.results.containsKey(archive + "!/hello.txt"));
+		assertTrue(recorder.errors.get(archive + "!/hello.txt"), recorder.errors.get(archive + "!/hello.txt").contains("larger than its recorded size"));
+		assertEquals(PATTERN, recorder.results.get(archive + "!/pattern.bin"));
+	}
+
+	private static int lastIndexOf(byte[] data, byte[] pattern) {
+		for (int i = data.length - pattern.length; i >= 0; i--) {
+			if (Arrays.equals(data, i, i + pattern.length, pattern, 0, pattern.length)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Test
+	public void testTruncatedZip() throws Exception {
+		byte[] data = bytes("zip64.zip");
+		String archive = write(Arrays.copyOf(data, data.length - 200), ".zip").getPath();
+		try {
+			hasher().hash(archive, new Recorder());
+			fail("truncated ZIP archive accepted");
+		}
+		catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("truncated"));
+		}
+	}
+
+	@Test
+	public void testTruncatedTar() throws Exception {
+		byte[] data = bytes("gnu.tar");
+		// in the middle of the data of hello.txt, the first member
+		String archive = write(Arrays.copyOf(data, 3000), ".tar").getPath();
+		Recorder recorder = new Recorder();
+		try {
+			hasher().hash(archive, recorder);
+			assertFalse(recorder.errors.isEmpty());
+		}
+		catch (IOException e) {
+			// the archive as a whole failed
+		}
+		assertTrue(recorder.results.toString(), recorder.results.isEmpty());
+	}
+
+	@Test
+	public void testTruncatedGzip() throws Exception {
+		byte[] data = bytes("pax.tar.gz");
+		String archive = write(Arrays.copyOf(data, data.length / 2), ".tar.gz").getPath();
+		Recorder recorder = new Recorder();
+		try {
+			hasher().hash(archive, recorder);
+			fail("truncated gzipped archive accepted");
+		}
+		catch (IOException e) {
+			// the archive as a whole failed
+		}
+		assertFalse(recorder.results.containsKey(archive + "!/" + LONG_NAME));
+	}
+}
@@ -0,0 +1,60 @@
+package net.dollmar.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.Security;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compares {@link Blake3} with the implementation in commons-codec on
+ * inputs of up to 5 MiB, given at once or in random pieces, so that the
+ * subtrees hashed in parallel, the batching of small updates and the chunk
+ * kept back for the root are all covered.
+ */
+public class Blake3Test {
+
+	@BeforeClass
+	public static void install() {
+		Security.addProvider(new FastHashProvider());
+	}
+
+
+	@Test
+	public void testAgainstCommonsCodec() throws Exception {
+		Random random = new Random(3);
+		MessageDigest md = MessageDigest.getInstance("BLAKE3");
+		int[] sizes = {
+				0, 1, 63, 64, 65, 1023, 1024, 1025, 2048, 2049, 3072, 65535, 65536, 65537,
+				Blake3.PARALLEL_MIN - 1, Blake3.PARALLEL_MIN, Blake3.PARALLEL_MIN + 1,
+				Blake3.BATCH - 1, Blake3.BATCH, Blake3.BATCH + 1, 3000000, 5 * 1024 * 1024
+		};
+		for (int size : sizes) {
+			byte[] data = new byte[size];
+			random.nextBytes(data);
+			byte[] expected = org.apache.commons.codec.digest.Blake3.hash(data);
+
+			assertArrayEquals("length " + size, expected, md.digest(data));
+			for (int maxPiece : new int[] { 100, 65536, 400000 }) {
+				int pos = 0;
+				while (pos < size) {
+					int n = Math.min(size - pos, 1 + random.nextInt(maxPiece));
+					if (random.nextBoolean()) {
+						md.update(data, pos, n);
+					}
+					else {
+						ByteBuffer direct = ByteBuffer.allocateDirect(n);
+						direct.put(data, pos, n).flip();
+						md.update(direct);
+					}
+					pos += n;
+				}
+				assertArrayEquals("length " + size + " in pieces of up to " + maxPiece, expected, md.digest());
+			}
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package net.dollmar.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.Security;
+import java.util.Arrays;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Updates a {@link ChunkIndex} of a file of 4-byte chunks after the file
+ * grew and after it was edited in place, and checks which chunks were read
+ * again. The modification time is moved on explicitly after each change,
+ * as it may not tick between quick writes.
+ */
+public class ChunkIndexTest {
+
+	private static final int CHUNK = 4;
+
+	private File file;
+	private Path index;
+
+
+	@BeforeClass
+	public static void install() {
+		Security.addProvider(new BouncyCastleProvider());
+	}
+
+	@Before
+	public void createFile() throws IOException {
+		file = File.createTempFile("chunks", ".bin");
+		file.deleteOnExit();
+		index = new File(file.getPath() + ChunkIndex.SUFFIX).toPath();
+		index.toFile().deleteOnExit();
+		write("abcdefghij", false);
+	}
+
+
+	private void write(String data, boolean append) throws IOException {
+		byte[] bytes = data.getBytes(StandardCharsets.US_ASCII);
+		if (append) {
+			Files.write(file.toPath(), bytes, StandardOpenOption.APPEND);
+		}
+		else {
+			Files.write(file.toPath(), bytes);
+		}
+		touch();
+	}
+
+	private void overwrite(long offset, String data) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(offset);
+			raf.write(data.getBytes(StandardCharsets.US_ASCII));
+		}
+		touch();
+	}
+
+	private void touch() throws IOException {
+		FileTime last = Files.getLastModifiedTime(file.toPath());
+		Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(last.toMillis() + 2000));
+	}
+
+	private ChunkIndex update(boolean appendOnly) throws Exception {
+		// a fresh object, so the index is read back from its file
+		ChunkIndex chunks = new ChunkIndex(file.getPath());
+		chunks.update("SHA256", CHUNK, appendOnly);
+		return chunks;
+	}
+
+	private byte[] fullRoot() throws Exception {
+		return MerkleTree.build("SHA256", file.getPath(), CHUNK).getRoot();
+	}
+
+
+	@Test
+	public void testFirstAndUnchanged() throws Exception {
+		ChunkIndex chunks = update(false);
+		assertTrue(Files.exists(index));
+		assertArrayEquals(new int[] { 0, 1, 2 }, chunks.getChangedChunks());
+		assertArrayEquals(fullRoot(), chunks.getRoot());
+
+		assertArrayEquals(new int[0], update(false).getChangedChunks());
+	}
+
+	@Test
+	public void testAppendOnlyReadsTail() throws Exception {
+		update(true);
+		// an edit the append-only mode is told not to look for
+		overwrite(0, "ABCD");
+		write("klmnop", true);
+		ChunkIndex chunks = update(true);
+
+		// from the old, partial, last chunk on
+		assertArrayEquals(new int[] { 2, 3 }, chunks.getChangedChunks());
+		// the first chunk was not read again, so the edit went unnoticed
+		assertFalse(Arrays.equals(fullRoot(), chunks.getRoot()));
+		overwrite(0, "abcd");
+		assertArrayEquals(fullRoot(), chunks.getRoot());
+	}
+
+	@Test
+	public void testInPlaceEditRebuilds() throws Exception {
+		update(true);
+		overwrite(4, "EFGH");
+		// append-only mode cannot apply to a file that did not grow
+		ChunkIndex chunks = update(true);
+
+		assertArrayEquals(new int[] { 1 }, chunks.getChangedChunks());
+		assertArrayEquals(fullRoot(), chunks.getRoot());
+	}
+
+	@Test
+	public void testShrunkRebuilds() throws Exception {
+		update(true);
+		write("abcdefg", false);
+		ChunkIndex chunks = update(true);
+
+		assertArrayEquals(new int[] { 1, 2 }, chunks.getChangedChunks());
+		assertArrayEquals(fullRoot(), chunks.getRoot());
+	}
+}
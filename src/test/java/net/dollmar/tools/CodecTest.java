@@ -0,0 +1,160 @@
+package net.dollmar.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Test;
+
+/**
+ * Compares {@link Codec} with java.util.Base64 and commons-codec's Hex, for
+ * every length up to a few blocks, through each of the string, array and
+ * buffer methods, and checks that malformed text is rejected.
+ */
+public class CodecTest {
+
+	private static byte[] random(Random random, int len) {
+		byte[] data = new byte[len];
+		random.nextBytes(data);
+		return data;
+	}
+
+	private static byte[] ascii(String text) {
+		return text.getBytes(StandardCharsets.US_ASCII);
+	}
+
+
+	@Test
+	public void testHex() throws Exception {
+		Random random = new Random(16);
+		for (int len = 0; len < 100; len++) {
+			byte[] data = random(random, len);
+			String lower = Hex.encodeHexString(data, true);
+			String upper = Hex.encodeHexString(data, false);
+			assertEquals(lower, Codec.toHex(data, false));
+			assertEquals(upper, Codec.toHex(data, true));
+			assertArrayEquals(data, Codec.fromHex(lower));
+			assertArrayEquals(data, Codec.fromHex(upper));
+
+			// at offsets in larger arrays and buffers
+			byte[] encoded = new byte[3 + Codec.hexLength(len)];
+			assertEquals(Codec.hexLength(len), Codec.encodeHex(data, 0, len, encoded, 3, true));
+			assertEquals(upper, new String(encoded, 3, Codec.hexLength(len), StandardCharsets.US_ASCII));
+			byte[] decoded = new byte[2 + len];
+			assertEquals(len, Codec.decodeHex("xx" + lower + "yy", 2, lower.length(), decoded, 2));
+			assertArrayEquals(data, Arrays.copyOfRange(decoded, 2, 2 + len));
+
+			ByteBuffer text = ByteBuffer.allocateDirect(Codec.hexLength(len));
+			Codec.encodeHex(ByteBuffer.wrap(data), text, false);
+			text.flip();
+			assertEquals(ByteBuffer.wrap(ascii(lower)), text);
+			ByteBuffer bytes = ByteBuffer.allocate(1 + len).position(1);
+			Codec.decodeHex(text, bytes);
+			assertEquals(0, text.remaining());
+			assertEquals(ByteBuffer.wrap(data), bytes.flip().position(1));
+		}
+	}
+
+	@Test
+	public void testMixedCaseHex() throws Exception {
+		assertArrayEquals(Hex.decodeHex("aBcDeF09"), Codec.fromHex("aBcDeF09"));
+	}
+
+	@Test
+	public void testMalformedHex() {
+		for (String hex : new String[] { "a", "abc", "0g", "zz", " 00", "00\u00e9f" }) {
+			try {
+				Hex.decodeHex(hex);
+				fail("commons-codec accepted " + hex);
+			}
+			catch (DecoderException e) {
+				// as expected
+			}
+			try {
+				Codec.fromHex(hex);
+				fail("accepted " + hex);
+			}
+			catch (DecoderException e) {
+				// as expected
+			}
+			ByteBuffer text = ByteBuffer.wrap(ascii(hex));
+			try {
+				Codec.decodeHex(text, ByteBuffer.allocate(8));
+				fail("accepted " + hex + " from a buffer");
+			}
+			catch (DecoderException e) {
+				assertEquals(0, text.position());
+			}
+		}
+	}
+
+
+	@Test
+	public void testBase64() throws Exception {
+		Random random = new Random(64);
+		for (int len = 0; len < 100; len++) {
+			byte[] data = random(random, len);
+			String padded = Base64.getEncoder().encodeToString(data);
+			String unpadded = Base64.getEncoder().withoutPadding().encodeToString(data);
+			assertEquals(padded, Codec.toBase64(data));
+			assertEquals(Codec.base64Length(len), padded.length());
+			assertEquals(len, Codec.decodedBase64Length(padded));
+			assertArrayEquals(data, Codec.fromBase64(padded));
+			assertArrayEquals(data, Codec.fromBase64(unpadded));
+
+			byte[] encoded = new byte[3 + Codec.base64Length(len)];
+			assertEquals(padded.length(), Codec.encodeBase64(data, 0, len, encoded, 3));
+			assertEquals(padded, new String(encoded, 3, padded.length(), StandardCharsets.US_ASCII));
+			byte[] decoded = new byte[2 + len];
+			assertEquals(len, Codec.decodeBase64("xx" + padded + "yy", 2, padded.length(), decoded, 2));
+			assertArrayEquals(data, Arrays.copyOfRange(decoded, 2, 2 + len));
+
+			ByteBuffer text = ByteBuffer.allocateDirect(Codec.base64Length(len));
+			Codec.encodeBase64(ByteBuffer.wrap(data), text);
+			text.flip();
+			assertEquals(ByteBuffer.wrap(ascii(padded)), text);
+			ByteBuffer bytes = ByteBuffer.allocateDirect(1 + len).position(1);
+			Codec.decodeBase64(text, bytes);
+			assertEquals(0, text.remaining());
+			assertEquals(ByteBuffer.wrap(data), bytes.flip().position(1));
+		}
+	}
+
+	@Test
+	public void testMalformedBase64() {
+		// bad padding, impossible lengths and characters outside the alphabet
+		for (String base64 : new String[] { "Q", "QQ=", "Q===", "QUJD=", "QUJDR", "QUJDRA=",
+				"QQ==QQ==", "=QQ=", "QU-D", "QU_D", "QUJ D", "QUJ\u00e9" }) {
+			try {
+				Base64.getDecoder().decode(base64);
+				fail("java.util.Base64 accepted " + base64);
+			}
+			catch (IllegalArgumentException e) {
+				// as expected
+			}
+			try {
+				Codec.fromBase64(base64);
+				fail("accepted " + base64);
+			}
+			catch (DecoderException e) {
+				// as expected
+			}
+			ByteBuffer text = ByteBuffer.wrap(base64.getBytes(StandardCharsets.ISO_8859_1));
+			try {
+				Codec.decodeBase64(text, ByteBuffer.allocate(8));
+				fail("accepted " + base64 + " from a buffer");
+			}
+			catch (DecoderException e) {
+				assertEquals(0, text.position());
+			}
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package net.dollmar.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks when {@link DigestCache} answers from the cache and when it reads
+ * the file. A file rewritten with the same size and its old modification
+ * time put back is, by design, not noticed; that makes hits visible.
+ */
+public class DigestCacheTest {
+
+	private static final String[] SHA256 = { "SHA256" };
+	private static final String[] BOTH = { "SHA256", "MD5" };
+
+	private static final String ABC = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+	private static final String XYZ = "3608bca1e44ea6c4d268eb6db02260269892c0b42b86bbf1e77a6fa16c3c9282";
+	private static final String ABCD = "88d4266fd4e6338d13b845fcf289579d209c897823b9217da3e161936f031589";
+
+	private File dir;
+
+
+	@BeforeClass
+	public static void install() {
+		Security.addProvider(new BouncyCastleProvider());
+	}
+
+	@Before
+	public void createDirectory() throws IOException {
+		dir = Files.createTempDirectory("cache").toFile();
+		dir.deleteOnExit();
+	}
+
+
+	private File write(String name, String data) throws IOException {
+		File file = new File(dir, name);
+		file.deleteOnExit();
+		Files.write(file.toPath(), data.getBytes(StandardCharsets.US_ASCII));
+		return file;
+	}
+
+	/*
+	 * Rewrites the file, keeping its modification time.
+	 */
+	private static void rewrite(File file, String data) throws IOException {
+		FileTime mtime = Files.getLastModifiedTime(file.toPath());
+		Files.write(file.toPath(), data.getBytes(StandardCharsets.US_ASCII));
+		Files.setLastModifiedTime(file.toPath(), mtime);
+	}
+
+	private static void touch(File file) throws IOException {
+		FileTime mtime = Files.getLastModifiedTime(file.toPath());
+		Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(mtime.toMillis() + 2000));
+	}
+
+	private DigestCache cache() throws IOException {
+		File file = new File(dir, "digests.cache");
+		file.deleteOnExit();
+		DigestCache cache = new DigestCache(file.getPath());
+		cache.load();
+		return cache;
+	}
+
+	private static String hash(DigestCache cache, File file) {
+		return cache.calculateFileHashes(SHA256, file.getPath(), ReadMode.STREAM, true, false)[0];
+	}
+
+
+	@Test
+	public void testHit() throws Exception {
+		File file = write("a", "abc");
+		DigestCache cache = cache();
+		assertEquals(ABC, hash(cache, file));
+		assertEquals(0, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		rewrite(file, "xyz");
+		assertEquals("not read again", ABC, hash(cache, file));
+		assertEquals(1, cache.getHits());
+
+		// and again from the saved cache
+		cache.save();
+		DigestCache loaded = cache();
+		assertEquals(ABC, hash(loaded, file));
+		assertEquals(1, loaded.getHits());
+	}
+
+	@Test
+	public void testMissAfterTouch() throws Exception {
+		File file = write("a", "abc");
+		DigestCache cache = cache();
+		hash(cache, file);
+		rewrite(file, "xyz");
+		touch(file);
+
+		assertEquals(XYZ, hash(cache, file));
+		assertEquals(0, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void testMissAfterResize() throws Exception {
+		File file = write("a", "abc");
+		DigestCache cache = cache();
+		hash(cache, file);
+		rewrite(file, "abcd");
+
+		assertEquals(ABCD, hash(cache, file));
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void testMissingAlgorithm() throws Exception {
+		File file = write("a", "abc");
+		DigestCache cache = cache();
+		hash(cache, file);
+		rewrite(file, "xyz");
+
+		// SHA256 from the cache, only MD5 calculated, from the file as it is now
+		String[] results = cache.calculateFileHashes(BOTH, file.getPath(), ReadMode.STREAM, true, false);
+		assertArrayEquals(new String[] { ABC, "d16fb36f0911f878998c136191af705e" }, results);
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void testVerify() throws Exception {
+		File file = write("a", "abc");
+		DigestCache cache = cache();
+		cache.calculateFileHashes(BOTH, file.getPath(), ReadMode.STREAM, true, false);
+		rewrite(file, "xyz");
+
+		List<String> mismatches = new ArrayList<>();
+		cache.setVerify(true);
+		cache.setMismatchListener((name, algorithm) -> mismatches.add(algorithm));
+		assertEquals(XYZ, hash(cache, file));
+		// only the algorithms asked for are checked
+		assertEquals("[SHA256]", mismatches.toString());
+	}
+
+	@Test
+	public void testPrune() throws Exception {
+		File kept = write("kept", "abc");
+		File deleted = write("deleted", "abc");
+		File touched = write("touched", "abc");
+		DigestCache cache = cache();
+		for (File file : new File[] { kept, deleted, touched }) {
+			hash(cache, file);
+		}
+		Files.delete(deleted.toPath());
+		touch(touched);
+
+		assertEquals(2, cache.prune());
+		assertEquals(0, cache.prune());
+		cache.save();
+
+		// the pruned entries are gone from the saved cache too
+		DigestCache loaded = cache();
+		rewrite(kept, "xyz");
+		assertEquals(ABC, hash(loaded, kept));
+		rewrite(touched, "xyz");
+		assertEquals(XYZ, hash(loaded, touched));
+		assertEquals(1, loaded.getHits());
+		assertEquals(1, loaded.getMisses());
+	}
+}
@@ -0,0 +1,191 @@
+package net.dollmar.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Cancels hashing part way through a file, resumes it and compares the
+ * result with the one-shot digests, and checks that a damaged checkpoint,
+ * or one of a file that has since changed, makes hashing start over.
+ */
+public class DigestCheckpointTest {
+
+	private static final String[] ALGORITHMS = { "SHA256", "MD5" };
+	// cancelling is checked once per buffer, so cancel on buffer boundaries
+	private static final int INTERVAL = MultiDigest.DEFAULT_BUFFER_SIZE;
+	private static final long CANCEL_AT = 10 * INTERVAL;
+
+	private File file;
+	private Path checkpoint;
+	private byte[] data;
+
+
+	/**
+	 * Cancels once the given number of bytes has been hashed.
+	 */
+	private static final class Canceller implements DigestMonitor {
+		private final long at;
+		private long done;
+		long resumed = -1;
+
+		Canceller(long at) {
+			this.at = at;
+		}
+
+		@Override
+		public void resumed(long bytesDone) {
+			resumed = bytesDone;
+		}
+
+		@Override
+		public void progress(long bytesDone) {
+			done = bytesDone;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return done >= at;
+		}
+	}
+
+
+	@Before
+	public void createFile() throws IOException {
+		data = new byte[1024 * 1024 + 123];
+		new Random(23).nextBytes(data);
+		file = File.createTempFile("checkpoint", ".bin");
+		file.deleteOnExit();
+		Files.write(file.toPath(), data);
+		checkpoint = new File(file.getPath() + DigestCheckpoint.SUFFIX).toPath();
+		checkpoint.toFile().deleteOnExit();
+	}
+
+
+	private DigestCheckpoint checkpoint() {
+		DigestCheckpoint dc = new DigestCheckpoint(file.getPath());
+		dc.setInterval(INTERVAL);
+		return dc;
+	}
+
+	private void assertDigests(byte[][] results) throws Exception {
+		assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(data), results[0]);
+		assertArrayEquals(MessageDigest.getInstance("MD5").digest(data), results[1]);
+	}
+
+	/*
+	 * Starts hashing and cancels it, leaving a checkpoint behind.
+	 */
+	private void cancel() throws Exception {
+		try {
+			checkpoint().digest(ALGORITHMS, new Canceller(CANCEL_AT));
+			fail("not cancelled");
+		}
+		catch (InterruptedIOException e) {
+			// as asked
+		}
+		assertTrue(Files.exists(checkpoint));
+	}
+
+	private long resume() throws Exception {
+		DigestCheckpoint dc = checkpoint();
+		assertDigests(dc.digest(ALGORITHMS, DigestMonitor.NONE));
+		assertFalse("checkpoint left behind", Files.exists(checkpoint));
+		return dc.getResumedFrom();
+	}
+
+
+	@Test
+	public void testUninterrupted() throws Exception {
+		DigestCheckpoint dc = checkpoint();
+		assertDigests(dc.digest(ALGORITHMS, DigestMonitor.NONE));
+		assertEquals(0, dc.getResumedFrom());
+		assertFalse(Files.exists(checkpoint));
+	}
+
+	@Test
+	public void testCancelAndResume() throws Exception {
+		cancel();
+		DigestCheckpoint dc = checkpoint();
+		Canceller monitor = new Canceller(Long.MAX_VALUE);
+		assertDigests(dc.digest(ALGORITHMS, monitor));
+		// the state saved on cancelling, not just the last interval
+		assertEquals(CANCEL_AT, dc.getResumedFrom());
+		assertEquals(CANCEL_AT, monitor.resumed);
+		assertFalse(Files.exists(checkpoint));
+	}
+
+	@Test
+	public void testCancelTwice() throws Exception {
+		cancel();
+		try {
+			checkpoint().digest(ALGORITHMS, new Canceller(CANCEL_AT + 2 * INTERVAL));
+			fail("not cancelled");
+		}
+		catch (InterruptedIOException e) {
+			// as asked
+		}
+		assertEquals(CANCEL_AT + 2 * INTERVAL, resume());
+	}
+
+	@Test
+	public void testCorruptState() throws Exception {
+		cancel();
+		byte[] record = Files.readAllBytes(checkpoint);
+		record[record.length / 2] ^= 1;
+		Files.write(checkpoint, record);
+		assertEquals(0, resume());
+	}
+
+	@Test
+	public void testCorruptChecksum() throws Exception {
+		cancel();
+		byte[] record = Files.readAllBytes(checkpoint);
+		record[record.length - 1] ^= 1;
+		Files.write(checkpoint, record);
+		assertEquals(0, resume());
+	}
+
+	@Test
+	public void testTruncated() throws Exception {
+		cancel();
+		byte[] record = Files.readAllBytes(checkpoint);
+		Files.write(checkpoint, Arrays.copyOf(record, record.length - 1));
+		assertEquals(0, resume());
+	}
+
+	@Test
+	public void testChangedFile() throws Exception {
+		cancel();
+		// same size, so only the modification time gives it away
+		data[10] ^= 1;
+		FileTime mtime = Files.getLastModifiedTime(file.toPath());
+		Files.write(file.toPath(), data);
+		Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(mtime.toMillis() + 2000));
+		assertEquals(0, resume());
+	}
+
+	@Test
+	public void testOtherAlgorithms() throws Exception {
+		cancel();
+		DigestCheckpoint dc = checkpoint();
+		byte[][] results = dc.digest(new String[] { "SHA256" }, DigestMonitor.NONE);
+		assertEquals(0, dc.getResumedFrom());
+		assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(data), results[0]);
+	}
+}
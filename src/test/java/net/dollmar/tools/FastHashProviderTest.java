@@ -0,0 +1,202 @@
+package net.dollmar.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Known answers for the digests of {@link FastHashProvider}, and checks
+ * that input split across updates, or given in direct buffers, hashes the
+ * same as input given at once.
+ */
+public class FastHashProviderTest {
+
+	private static final String[] ALGORITHMS = { "XXH64", "XXH3", "CRC32C", "BLAKE3" };
+
+	@BeforeClass
+	public static void install() {
+		Security.addProvider(new FastHashProvider());
+	}
+
+
+	private static String hash(String algorithm, String input) throws NoSuchAlgorithmException {
+		MessageDigest md = MessageDigest.getInstance(algorithm);
+		return Codec.toHex(md.digest(input.getBytes(StandardCharsets.US_ASCII)), false);
+	}
+
+
+	@Test
+	public void testXxHash64() throws Exception {
+		assertEquals("ef46db3751d8e999", hash("XXH64", ""));
+		assertEquals("44bc2cf5ad770999", hash("XXH64", "abc"));
+		assertEquals("8cb841db40e6ae83", hash("XXH64", "123456789"));
+	}
+
+	@Test
+	public void testXxh3() throws Exception {
+		assertEquals("2d06800538d394c2", hash("XXH3", ""));
+		assertEquals("78af5f94892f3950", hash("XXH3", "abc"));
+		assertEquals("72dcb18b67a17dff", hash("XXH3", "123456789"));
+	}
+
+	/*
+	 * Lengths at the edges of the short, 17-128, 129-240 and long paths,
+	 * over the generated input of xxHash's own sanity check. The expected
+	 * values are from libxxhash 0.8.1 (XXH64 and XXH3_64bits_withSeed).
+	 */
+	private static final int[] LENGTHS = { 0, 3, 8, 16, 31, 32, 128, 129, 240, 241, 1024, 100000 };
+
+	private static final long SEED = 0x9E3779B185EBCA8DL;
+
+	private static final String[] XXH64_VECTORS = {
+		"ef46db3751d8e999", "ff7e1959cb50794a", "cdbcf538e71d1348", "98c90b57fdfcb55c",
+		"299b39a290e6d783", "18b216492bb44b70", "90ca021457d96dc5", "41c280132d697aba",
+		"b81838d483baee53", "95d76c8b4d8fc4d6", "4775bf7cace4d177", "2f2257f45994ff6a",
+	};
+	private static final String[] XXH64_SEEDED_VECTORS = {
+		"0b303d920ec349df", "281b7cbb86cc6a05", "768161b4e5a58dfa", "85446bba49cb7df1",
+		"51aaf1a336575f00", "21d817283f4b6283", "fcef9beb2ce440a6", "aeb872c374eabf84",
+		"7c3c8490fe0c1b94", "6bd0db4ef4123409", "cfbc5e785ff33ccd", "a53c361a45679b06",
+	};
+	private static final String[] XXH3_VECTORS = {
+		"2d06800538d394c2", "54247382a8d6b94d", "24ccc9acaa9f65e4", "981b17d36c7498c9",
+		"5d516692ca764c50", "9feaddbdbf57eed3", "fcff24126754d861", "98f1b0a679a2ca29",
+		"81c3c2b67f568ccf", "c5a639ecd2030e5e", "dd85c9b5c1109c5c", "34d658192a014311",
+	};
+	private static final String[] XXH3_SEEDED_VECTORS = {
+		"a8a6b918b2f0364a", "634b8990b4976373", "8f973410999b8f6b", "663f29333b4db6b1",
+		"9b37274259c549c6", "2199fab1534893d9", "73fde75280646649", "21fffdbca099c844",
+		"cc0f58c27ef3d8ee", "dda9b0a161d4829a", "ef368a8a2ebabaef", "0682260a8a5afe82",
+	};
+
+	private static byte[] sanityBuffer(int length) {
+		byte[] data = new byte[length];
+		long gen = 0x9E3779B1L;
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) (gen >>> 56);
+			gen *= 0x9E3779B185EBCA8DL;
+		}
+		return data;
+	}
+
+	private static void assertVectors(String algorithm, FastDigestSpi spi, String[] expected) {
+		byte[] data = sanityBuffer(LENGTHS[LENGTHS.length - 1]);
+		for (int i = 0; i < LENGTHS.length; i++) {
+			spi.engineUpdate(data, 0, LENGTHS[i]);
+			assertEquals(algorithm + " length " + LENGTHS[i], expected[i], Codec.toHex(spi.engineDigest(), false));
+		}
+	}
+
+	@Test
+	public void testXxHash64Vectors() {
+		assertVectors("XXH64", new XxHash64(), XXH64_VECTORS);
+		assertVectors("XXH64 seeded", new XxHash64(SEED), XXH64_SEEDED_VECTORS);
+	}
+
+	@Test
+	public void testXxh3Vectors() {
+		assertVectors("XXH3", new Xxh3(), XXH3_VECTORS);
+		assertVectors("XXH3 seeded", new Xxh3(SEED), XXH3_SEEDED_VECTORS);
+	}
+
+
+	@Test
+	public void testCrc32c() throws Exception {
+		assertEquals("00000000", hash("CRC32C", ""));
+		assertEquals("364b3fb7", hash("CRC32C", "abc"));
+		assertEquals("e3069283", hash("CRC32C", "123456789"));
+	}
+
+	@Test
+	public void testBlake3() throws Exception {
+		assertEquals("af1349b9f5f9a1a6a0404dea36dcc9499bcb25c9adc112b7cc9a93cae41f3262", hash("BLAKE3", ""));
+		assertEquals("6437b3ac38465133ffb63b75273a8db548c558465d79db03fd359c6cd5bd9d85", hash("BLAKE3", "abc"));
+		assertEquals("b7d65b48420d1033cb2595293263b6f72eabee20d55e699d0df1973b3c9deed1", hash("BLAKE3", "123456789"));
+	}
+
+
+	@Test
+	public void testCrc32cMatchesJdk() throws Exception {
+		Random random = new Random(32);
+		MessageDigest md = MessageDigest.getInstance("CRC32C");
+		for (int len = 0; len < 5000; len += 1 + len / 8) {
+			byte[] data = new byte[len];
+			random.nextBytes(data);
+			CRC32C crc = new CRC32C();
+			crc.update(data);
+			assertArrayEquals("length " + len, FastDigestSpi.bigEndian(crc.getValue(), 4), md.digest(data));
+		}
+	}
+
+
+	/*
+	 * Every length up to a few blocks, where the algorithms switch between
+	 * their short input paths, and some long ones.
+	 */
+	@Test
+	public void testSplitUpdates() throws Exception {
+		Random random = new Random(64);
+		byte[] data = new byte[300000];
+		random.nextBytes(data);
+		for (String algorithm : ALGORITHMS) {
+			MessageDigest md = MessageDigest.getInstance(algorithm);
+			for (int len = 0; len < data.length; len += (len < 2100) ? 1 : 9973) {
+				md.update(data, 0, len);
+				byte[] expected = md.digest();
+
+				for (int pos = 0; pos < len; ) {
+					int n = Math.min(len - pos, 1 + random.nextInt(300));
+					if (n == 1) {
+						md.update(data[pos]);
+					}
+					else {
+						md.update(data, pos, n);
+					}
+					pos += n;
+				}
+				assertArrayEquals(algorithm + " length " + len, expected, md.digest());
+			}
+		}
+	}
+
+
+	@Test
+	public void testDirectBuffers() throws Exception {
+		Random random = new Random(128);
+		byte[] data = new byte[200000];
+		random.nextBytes(data);
+		ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+		direct.put(data).flip();
+		for (String algorithm : ALGORITHMS) {
+			MessageDigest md = MessageDigest.getInstance(algorithm);
+			for (int len : new int[] { 0, 1, 3, 16, 17, 128, 129, 240, 241, 1024, 1025, 4096, 65536, data.length }) {
+				md.update(data, 0, len);
+				byte[] expected = md.digest();
+
+				// in place, from an offset, and in pieces
+				direct.limit(len).position(0);
+				md.update(direct);
+				assertEquals(len, direct.position());
+				assertArrayEquals(algorithm + " length " + len, expected, md.digest());
+
+				int pos = 0;
+				while (pos < len) {
+					int n = Math.min(len - pos, 1 + random.nextInt(5000));
+					md.update(direct.limit(pos + n).position(pos));
+					pos += n;
+				}
+				assertArrayEquals(algorithm + " pieces of length " + len, expected, md.digest());
+			}
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package net.dollmar.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Parses the manifest line formats of sha256sum, md5sum and "--tag", and
+ * lines that are none of them, then verifies a small manifest against a
+ * stand-in digest function.
+ */
+public class ManifestVerifierTest {
+
+	private static final String EMPTY_SHA256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+	private static final String EMPTY_MD5 = "d41d8cd98f00b204e9800998ecf8427e";
+	private static final String ABC_SHA512 = "ddaf35a193617abacc417349ae20413112e6fa4e89a97ea20a9eeee64b55d39a"
+			+ "2192992a274fc1a836ba3c23a3feebbd454d4423643ce80e2a9ac94fa54ca49f";
+	private static final String ABC_SHA512_BASE64 = "3a81oZNherrMQXNJriBBMRLm+k6JqX6iCp7u5ktV05ohkpkqJ0/BqDa6PCOj/uu9RU1EI2Q86A4qmslPpUyknw==";
+
+	private final ManifestVerifier verifier = new ManifestVerifier((name, algorithms) -> null);
+
+
+	private void assertParsed(String line, String algorithm, String name, String digest) {
+		assertArrayEquals(line, new String[] { algorithm, name, digest }, verifier.parse(line));
+	}
+
+
+	@Test
+	public void testText() {
+		assertParsed(EMPTY_SHA256 + "  empty.txt", "SHA256", "empty.txt", EMPTY_SHA256);
+		assertParsed(EMPTY_MD5 + "  a name with  spaces (1).txt", "MD5", "a name with  spaces (1).txt", EMPTY_MD5);
+		assertParsed(EMPTY_SHA256.toUpperCase() + "  empty.txt\r", "SHA256", "empty.txt", EMPTY_SHA256);
+	}
+
+	@Test
+	public void testBinary() {
+		assertParsed(EMPTY_MD5 + " *data.bin", "MD5", "data.bin", EMPTY_MD5);
+		assertParsed(EMPTY_SHA256 + " *dir/*star", "SHA256", "dir/*star", EMPTY_SHA256);
+	}
+
+	@Test
+	public void testTagged() {
+		assertParsed("SHA256 (empty.txt) = " + EMPTY_SHA256, "SHA256", "empty.txt", EMPTY_SHA256);
+		assertParsed("SHA512 (x) = y) = " + ABC_SHA512, "SHA512", "x) = y", ABC_SHA512);
+		assertParsed("SHA512 (abc) = " + ABC_SHA512_BASE64, "SHA512", "abc", ABC_SHA512);
+		assertParsed("MD5 (empty) = " + EMPTY_MD5 + "\r", "MD5", "empty", EMPTY_MD5);
+	}
+
+	@Test
+	public void testEscapedNames() {
+		assertParsed("\\" + EMPTY_MD5 + "  new\\nline\\\\back", "MD5", "new\nline\\back", EMPTY_MD5);
+		assertParsed("\\SHA256 (a\\nb) = " + EMPTY_SHA256, "SHA256", "a\nb", EMPTY_SHA256);
+	}
+
+	@Test
+	public void testConfiguredAlgorithm() {
+		verifier.setAlgorithm("SHA3-256");
+		assertParsed(EMPTY_SHA256 + "  empty.txt", "SHA3-256", "empty.txt", EMPTY_SHA256);
+		// tagged lines name their own
+		assertParsed("SHA256 (empty.txt) = " + EMPTY_SHA256, "SHA256", "empty.txt", EMPTY_SHA256);
+	}
+
+	@Test
+	public void testMalformed() {
+		String[] lines = {
+			"",
+			"# a comment",
+			EMPTY_SHA256,
+			EMPTY_SHA256 + " empty.txt",
+			EMPTY_SHA256 + "\tempty.txt",
+			EMPTY_SHA256 + "  ",
+			" " + EMPTY_SHA256 + "  empty.txt",
+			EMPTY_SHA256.substring(1) + "  odd.txt",
+			"0123  unknown-length.txt",
+			"SHA256 (empty.txt) = ",
+			// neither hex nor Base64
+			"SHA256 (empty.txt) = e3b0-442",
+			"SHA256 () = " + EMPTY_SHA256,
+			"SHA256 (empty.txt) " + EMPTY_SHA256,
+		};
+		for (String line : lines) {
+			assertNull(line, verifier.parse(line));
+		}
+	}
+
+
+	@Test
+	public void testVerify() throws Exception {
+		String manifest = EMPTY_SHA256 + "  empty\n"
+				+ "not a checksum line\n"
+				+ "SHA256 (changed) = " + EMPTY_SHA256 + "\n"
+				+ "MD5 (two) = " + EMPTY_MD5 + "\n"
+				+ "SHA256 (two) = " + EMPTY_SHA256 + "\n"
+				+ EMPTY_MD5 + "  missing\n";
+		ManifestVerifier manifestVerifier = new ManifestVerifier((name, algorithms) -> {
+			String[] results = new String[algorithms.length];
+			for (int i = 0; i < algorithms.length; i++) {
+				switch (name) {
+					case "missing": results[i] = "Error: No such file"; break;
+					case "changed": results[i] = EMPTY_MD5 + EMPTY_MD5; break;
+					default: results[i] = algorithms[i].equals("MD5") ? EMPTY_MD5 : EMPTY_SHA256;
+				}
+			}
+			return results;
+		});
+		manifestVerifier.setParallelism(2);
+		manifestVerifier.setWindowSize(2);
+		List<String> reported = new ArrayList<>();
+		List<String> malformed = new ArrayList<>();
+		manifestVerifier.verify(new BufferedReader(new StringReader(manifest)), "SHA256SUMS", new ManifestVerifier.Listener() {
+			@Override
+			public void checked(String fileName, ManifestVerifier.Status status, String message) {
+				reported.add(fileName + " " + status);
+			}
+
+			@Override
+			public void malformed(String name, int lineNumber) {
+				// as soon as read, ahead of the entries still being checked
+				malformed.add(name + ":" + lineNumber);
+			}
+		});
+
+		assertEquals("[empty OK, changed FAILED, two OK, missing MISSING]", reported.toString());
+		assertEquals("[SHA256SUMS:2]", malformed.toString());
+		assertEquals(2, manifestVerifier.getCount(ManifestVerifier.Status.OK));
+		assertEquals(1, manifestVerifier.getCount(ManifestVerifier.Status.FAILED));
+		assertEquals(1, manifestVerifier.getCount(ManifestVerifier.Status.MISSING));
+		assertEquals(1, manifestVerifier.getMalformed());
+	}
+}
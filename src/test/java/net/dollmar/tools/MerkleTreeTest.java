@@ -0,0 +1,99 @@
+package net.dollmar.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.Security;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks the root of {@link MerkleTree} against the definition, computed
+ * here with a plain MessageDigest, for trees of one, two and three leaves
+ * of four bytes.
+ */
+public class MerkleTreeTest {
+
+	@BeforeClass
+	public static void install() {
+		Security.addProvider(new BouncyCastleProvider());
+	}
+
+
+	private static File write(String data) throws IOException {
+		File file = File.createTempFile("merkle", ".bin");
+		file.deleteOnExit();
+		Files.write(file.toPath(), data.getBytes(StandardCharsets.US_ASCII));
+		return file;
+	}
+
+	private static byte[] leaf(String data) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		md.update((byte) 0x00);
+		return md.digest(data.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	private static byte[] node(byte[] left, byte[] right) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		md.update((byte) 0x01);
+		md.update(left);
+		return md.digest(right);
+	}
+
+	private static MerkleTree build(String data) throws Exception {
+		return MerkleTree.build("SHA256", write(data).getPath(), 4);
+	}
+
+
+	@Test
+	public void testEmpty() throws Exception {
+		MerkleTree tree = build("");
+		assertEquals(1, tree.getLeafCount());
+		assertArrayEquals(leaf(""), tree.getRoot());
+	}
+
+	@Test
+	public void testOneLeaf() throws Exception {
+		MerkleTree tree = build("abc");
+		assertEquals(1, tree.getLeafCount());
+		// a single leaf is the root, not hashed again as a node
+		assertArrayEquals(leaf("abc"), tree.getRoot());
+	}
+
+	@Test
+	public void testTwoLeaves() throws Exception {
+		MerkleTree tree = build("abcdefgh");
+		assertEquals(2, tree.getLeafCount());
+		assertArrayEquals(leaf("abcd"), tree.getLeaf(0));
+		assertArrayEquals(leaf("efgh"), tree.getLeaf(1));
+		assertArrayEquals(node(leaf("abcd"), leaf("efgh")), tree.getRoot());
+	}
+
+	@Test
+	public void testThreeLeaves() throws Exception {
+		MerkleTree tree = build("abcdefghij");
+		assertEquals(3, tree.getLeafCount());
+		assertArrayEquals(leaf("ij"), tree.getLeaf(2));
+		// the unpaired last leaf is carried up to be paired on the next level
+		assertArrayEquals(node(node(leaf("abcd"), leaf("efgh")), leaf("ij")), tree.getRoot());
+	}
+
+	@Test
+	public void testRehashAppend() throws Exception {
+		File file = write("abcdef");
+		MerkleTree tree = MerkleTree.build("SHA256", file.getPath(), 4);
+		Files.write(file.toPath(), "abcdefghij".getBytes(StandardCharsets.US_ASCII));
+		MerkleTree grown = tree.rehash(file.getPath(), tree.getLength(), 0);
+
+		assertEquals(10, grown.getLength());
+		assertArrayEquals(new int[] { 1, 2 }, grown.changedLeaves(tree));
+		assertArrayEquals(build("abcdefghij").getRoot(), grown.getRoot());
+	}
+}